@@ -1,13 +1,12 @@
 package net.agilepartner.workshops.cqrs.core;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 public abstract class AggregateRoot {
-    private static final String APPLY_METHOD_NAME = "apply";
+    private final ApplyMethods applyMethods = ApplyMethods.of(getClass());
     private final List<Event> changes = new ArrayList<>();
 
     protected UUID id;
@@ -40,6 +39,39 @@ public abstract class AggregateRoot {
         }
     }
 
+    // Only decodes the events the aggregate has an apply method for; the others just move its version forward.
+    public final void loadFromEnvelopes(Iterable<? extends EventEnvelope> history) {
+        for (EventEnvelope e : history) {
+            if(version + 1 == e.version) {
+                version = e.version;
+            }
+            if (applyMethods.applies(e.type))
+                applyChange(e.event(), false);
+        }
+    }
+
+    // Null when the aggregate has pending changes or does not support snapshots.
+    public final Snapshot takeSnapshot() {
+        if (!changes.isEmpty())
+            return null;
+        Serializable state = snapshotState();
+        return state == null ? null : new Snapshot(id, version, state);
+    }
+
+    public final void restoreFromSnapshot(Snapshot snapshot) {
+        restoreSnapshotState(snapshot.state);
+        version = snapshot.version;
+    }
+
+    // Aggregates supporting snapshots return a copy of their state here and restore it below.
+    protected Serializable snapshotState() {
+        return null;
+    }
+
+    protected void restoreSnapshotState(Serializable state) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support snapshots");
+    }
+
     protected void raise(Event event) {
         applyChange(event, true);
     }
@@ -55,21 +87,6 @@ public abstract class AggregateRoot {
     }
 
     private void invokeApplyIfEntitySupports(Event event) {
-        Class<?> eventType = nonAnonymous(event.getClass());
-        try {
-            Method method = this.getClass().getDeclaredMethod(APPLY_METHOD_NAME, eventType);
-            method.setAccessible(true);
-            method.invoke(this, event);
-        } catch (SecurityException | IllegalAccessException | InvocationTargetException ex) {
-            throw new RuntimeException(ex);
-        } catch (NoSuchMethodException ex) {
-            // Ugly exception swallowing. This should be logged somewhere
-            ex.printStackTrace();
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private static <T> Class<T> nonAnonymous(Class<T> cl) {
-        return cl.isAnonymousClass() ? (Class<T>) cl.getSuperclass() : cl;
+        applyMethods.apply(this, event);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,11 @@
+package net.agilepartner.workshops.cqrs.core;
+
+// Calls the apply method of an aggregate matching the exact class of an event. Implementations are generated at
+// compile time, next to each aggregate whose apply methods are not private, and named after it: the dispatcher
+// of InventoryItem is InventoryItemApplyDispatcher, that of a nested Outer.Inner is Outer_InnerApplyDispatcher.
+public interface ApplyDispatcher<T extends AggregateRoot> {
+    String SUFFIX = "ApplyDispatcher";
+
+    // False when the aggregate declares no apply method for the class of the event.
+    boolean apply(T aggregate, Event event);
+}
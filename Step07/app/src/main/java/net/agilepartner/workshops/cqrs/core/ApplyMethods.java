@@ -0,0 +1,108 @@
+package net.agilepartner.workshops.cqrs.core;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The apply methods an aggregate class declares, looked up once per class and turned into method handles.
+// Events are matched on their exact class, anonymous ones on their superclass, and the answer is cached per
+// event class, including when there is no apply method for it, in which case the event is just ignored.
+// When the annotation processor generated a dispatcher for the class, events go through it first, and only
+// those it has no apply method for, such as anonymous subclasses, come down to the method handles.
+final class ApplyMethods {
+    private static final String APPLY_METHOD_NAME = "apply";
+    private static final MethodType APPLY_TYPE = MethodType.methodType(void.class, AggregateRoot.class, Event.class);
+    private static final MethodHandle IGNORE;
+
+    static {
+        try {
+            IGNORE = MethodHandles.lookup().findStatic(ApplyMethods.class, "ignore", APPLY_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final ClassValue<ApplyMethods> BY_AGGREGATE = new ClassValue<ApplyMethods>() {
+        @Override
+        protected ApplyMethods computeValue(Class<?> type) {
+            return new ApplyMethods(type);
+        }
+    };
+
+    private final Map<Class<?>, MethodHandle> declared = new HashMap<>();
+    private final Map<Class<?>, MethodHandle> byEventClass = new ConcurrentHashMap<>();
+    private final ApplyDispatcher<AggregateRoot> generated;
+
+    private ApplyMethods(Class<?> aggregateType) {
+        this(aggregateType, true);
+    }
+
+    ApplyMethods(Class<?> aggregateType, boolean useGenerated) {
+        this.generated = useGenerated ? generatedDispatcher(aggregateType) : null;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Method method : aggregateType.getDeclaredMethods()) {
+            if (!method.getName().equals(APPLY_METHOD_NAME) || method.getParameterCount() != 1 || !Event.class.isAssignableFrom(method.getParameterTypes()[0]))
+                continue;
+            try {
+                method.setAccessible(true);
+                declared.put(method.getParameterTypes()[0], lookup.unreflect(method).asType(APPLY_TYPE));
+            } catch (IllegalAccessException | SecurityException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    static ApplyMethods of(Class<? extends AggregateRoot> aggregateType) {
+        return BY_AGGREGATE.get(aggregateType);
+    }
+
+    boolean applies(Class<?> eventType) {
+        return declared.containsKey(eventType);
+    }
+
+    boolean hasGeneratedDispatcher() {
+        return generated != null;
+    }
+
+    void apply(AggregateRoot aggregate, Event event) {
+        if (generated != null && generated.apply(aggregate, event))
+            return;
+        MethodHandle handle = byEventClass.get(event.getClass());
+        if (handle == null)
+            handle = byEventClass.computeIfAbsent(event.getClass(), this::resolve);
+        try {
+            handle.invokeExact(aggregate, event);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private MethodHandle resolve(Class<?> eventClass) {
+        Class<?> type = eventClass.isAnonymousClass() ? eventClass.getSuperclass() : eventClass;
+        return declared.getOrDefault(type, IGNORE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ApplyDispatcher<AggregateRoot> generatedDispatcher(Class<?> aggregateType) {
+        String binaryName = aggregateType.getName();
+        int simpleName = binaryName.lastIndexOf('.') + 1;
+        String name = binaryName.substring(0, simpleName) + binaryName.substring(simpleName).replace('$', '_') + ApplyDispatcher.SUFFIX;
+        try {
+            Class<?> dispatcher = Class.forName(name, true, aggregateType.getClassLoader());
+            if (!ApplyDispatcher.class.isAssignableFrom(dispatcher))
+                return null;
+            return (ApplyDispatcher<AggregateRoot>) dispatcher.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static void ignore(AggregateRoot aggregate, Event event) {
+    }
+}
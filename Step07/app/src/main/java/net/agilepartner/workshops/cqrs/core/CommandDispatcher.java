@@ -4,5 +4,6 @@ import net.agilepartner.workshops.cqrs.core.Command;
 import net.agilepartner.workshops.cqrs.core.DomainException;
 
 public interface CommandDispatcher {
-    <T extends Command> void dispatch(T command) throws DomainException;
+    // Returns the commit position of the events the command produced, which queries can wait for.
+    <T extends Command> long dispatch(T command) throws DomainException;
 }
\ No newline at end of file
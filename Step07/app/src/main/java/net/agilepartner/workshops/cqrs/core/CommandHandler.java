@@ -1,5 +1,6 @@
 package net.agilepartner.workshops.cqrs.core;
 
 public interface CommandHandler<T extends Command> {
-    public void handle(T command) throws DomainException;
+    // Returns the commit position of the events the command produced, or 0 when it produced none.
+    public long handle(T command) throws DomainException;
 }
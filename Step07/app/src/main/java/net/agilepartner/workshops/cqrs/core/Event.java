@@ -5,6 +5,7 @@ import java.util.UUID;
 public abstract class Event implements Message {
     public UUID aggregateId;
     public int version;
+    public long position;
 
     private static final long serialVersionUID = 8922791526755347386L;
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package net.agilepartner.workshops.cqrs.core;
+
+import java.util.UUID;
+
+// A stored event whose header is read eagerly and whose payload is decoded the first time event() is called,
+// so that a consumer skipping the type never pays for its fields.
+public abstract class EventEnvelope {
+    public final Class<? extends Event> type;
+    public final UUID aggregateId;
+    public final int version;
+    public final long position;
+    private Event event;
+
+    protected EventEnvelope(Class<? extends Event> type, UUID aggregateId, int version, long position) {
+        this.type = type;
+        this.aggregateId = aggregateId;
+        this.version = version;
+        this.position = position;
+    }
+
+    // Not synchronized: envelopes are read by one consumer, and two racing decodes would build equal events anyway.
+    public final Event event() {
+        if (event == null) {
+            Event decoded = decode();
+            decoded.aggregateId = aggregateId;
+            decoded.version = version;
+            decoded.position = position;
+            event = decoded;
+        }
+        return event;
+    }
+
+    protected abstract Event decode();
+
+    // For stores that keep their events decoded.
+    public static EventEnvelope of(Event event) {
+        EventEnvelope envelope = new EventEnvelope(event.getClass(), event.aggregateId, event.version, event.position) {
+            @Override
+            protected Event decode() {
+                return event;
+            }
+        };
+        envelope.event = event;
+        return envelope;
+    }
+}
@@ -4,5 +4,6 @@ import java.util.UUID;
 
 public interface Repository<T extends AggregateRoot> {
     public T getById(UUID aggregateId);
-    public void save(T aggregate);
+    // Returns the commit position of the changes, or 0 when the repository does not keep a log.
+    public long save(T aggregate);
 }
\ No newline at end of file
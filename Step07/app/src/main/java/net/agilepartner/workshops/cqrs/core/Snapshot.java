@@ -0,0 +1,18 @@
+package net.agilepartner.workshops.cqrs.core;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+public final class Snapshot implements Message {
+    public final UUID aggregateId;
+    public final int version;
+    public final Serializable state;
+
+    public Snapshot(UUID aggregateId, int version, Serializable state) {
+        this.aggregateId = aggregateId;
+        this.version = version;
+        this.state = state;
+    }
+
+    private static final long serialVersionUID = -2811384570950482547L;
+}
@@ -0,0 +1,276 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+
+import net.agilepartner.workshops.cqrs.core.AggregateRoot;
+
+// Keeps up to capacity hydrated aggregates between commands, W-TinyLFU style: new entries go through a small LRU
+// window, and an entry leaving the window only makes it into the main segmented LRU when it has been asked for
+// more often than the entry the main segment would evict for it, going by a count-min sketch of recent accesses.
+// A one-off scan thus never flushes the hot aggregates. An aggregate is handed out to one command at a time:
+// take removes it until the command saves it back with put, so that two commands never share an instance and a
+// command failing halfway leaves nothing half-changed behind. The cached aggregate may be behind the store, so
+// the repository applies the newer events to it on a hit.
+public class AggregateCache<T extends AggregateRoot> {
+    private final Class<T> aggregateType;
+    private final int windowCapacity;
+    private final int protectedCapacity;
+    private final int mainCapacity;
+    private final Map<UUID, Node<T>> nodes = new HashMap<>();
+    private final Queue<T> window = new Queue<>();
+    private final Queue<T> probation = new Queue<>();
+    private final Queue<T> protectedQueue = new Queue<>();
+    private final FrequencySketch sketch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long hydrationNanos;
+    private long hydratedEvents;
+    private long nanosSaved;
+
+    // Holds aggregates of the type, subclasses included.
+    public AggregateCache(Class<T> aggregateType, int capacity) {
+        if (capacity < 2)
+            throw new IllegalArgumentException("Capacity must be at least 2, not " + capacity);
+        this.aggregateType = aggregateType;
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = capacity - windowCapacity;
+        this.protectedCapacity = mainCapacity * 4 / 5;
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    public Class<T> aggregateType() {
+        return aggregateType;
+    }
+
+    // Null on a miss, which is also what a caller gets while another command holds the aggregate.
+    public synchronized T take(UUID aggregateId) {
+        sketch.increment(aggregateId);
+        Node<T> node = nodes.get(aggregateId);
+        if (node == null || node.aggregate == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        T aggregate = node.aggregate;
+        node.aggregate = null;
+        onHit(node);
+        return aggregate;
+    }
+
+    // Called with an aggregate whose changes are committed. Keeps the most recent of two versions handed back.
+    public synchronized void put(T aggregate) {
+        Node<T> node = nodes.get(aggregate.getId());
+        if (node != null) {
+            if (node.aggregate == null || node.aggregate.getVersion() <= aggregate.getVersion())
+                node.aggregate = aggregate;
+            return;
+        }
+        node = new Node<>(aggregate.getId(), aggregate);
+        nodes.put(node.id, node);
+        window.addLast(node);
+        if (window.size > windowCapacity)
+            admit(window.removeFirst());
+    }
+
+    public synchronized void invalidate(UUID aggregateId) {
+        Node<T> node = nodes.remove(aggregateId);
+        if (node != null)
+            node.queue.remove(node);
+    }
+
+    private void onHit(Node<T> node) {
+        if (node.queue == probation) {
+            probation.remove(node);
+            protectedQueue.addLast(node);
+            if (protectedQueue.size > protectedCapacity)
+                probation.addLast(protectedQueue.removeFirst());
+        } else {
+            node.queue.moveToLast(node);
+        }
+    }
+
+    // The candidate leaving the window against the first in line for eviction from the main segment.
+    private void admit(Node<T> candidate) {
+        if (probation.size + protectedQueue.size < mainCapacity) {
+            probation.addLast(candidate);
+            return;
+        }
+        Node<T> victim = probation.first != null ? probation.first : protectedQueue.first;
+        if (sketch.frequency(candidate.id) > sketch.frequency(victim.id)) {
+            victim.queue.remove(victim);
+            evict(victim);
+            probation.addLast(candidate);
+        } else {
+            evict(candidate);
+        }
+    }
+
+    private void evict(Node<T> node) {
+        nodes.remove(node.id);
+        evictions++;
+    }
+
+    // How long it took to replay an aggregate from scratch, as a measure of what a hit saves.
+    public synchronized void recordHydration(long nanos, int events) {
+        hydrationNanos += nanos;
+        hydratedEvents += events;
+    }
+
+    // A hit saves replaying the version events of the cached aggregate, at the average cost of a replayed event, but
+    // costs checking for and applying the newer ones.
+    public synchronized void recordRefresh(long nanos, int cachedVersion) {
+        if (hydratedEvents > 0)
+            nanosSaved += Math.max(0, (long) ((double) hydrationNanos / hydratedEvents * cachedVersion) - nanos);
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized double hitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized long hydrationNanosSaved() {
+        return nanosSaved;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    private static final class Node<T> {
+        final UUID id;
+        T aggregate;
+        Queue<T> queue;
+        Node<T> previous;
+        Node<T> next;
+
+        Node(UUID id, T aggregate) {
+            this.id = id;
+            this.aggregate = aggregate;
+        }
+    }
+
+    // An intrusive doubly linked list, least recently used first.
+    private static final class Queue<T> {
+        Node<T> first;
+        Node<T> last;
+        int size;
+
+        void addLast(Node<T> node) {
+            node.queue = this;
+            node.previous = last;
+            node.next = null;
+            if (last == null)
+                first = node;
+            else
+                last.next = node;
+            last = node;
+            size++;
+        }
+
+        Node<T> removeFirst() {
+            Node<T> node = first;
+            remove(node);
+            return node;
+        }
+
+        void remove(Node<T> node) {
+            if (node.previous == null)
+                first = node.next;
+            else
+                node.previous.next = node.next;
+            if (node.next == null)
+                last = node.previous;
+            else
+                node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            node.queue = null;
+            size--;
+        }
+
+        void moveToLast(Node<T> node) {
+            if (last != node) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    // A count-min sketch of four-bit counters, sixteen to a long, four rows deep. Every counter is halved once there
+    // have been ten increments per cached entry, so that the frequencies follow what is hot now.
+    private static final class FrequencySketch {
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            this.table = new long[Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1];
+            this.sampleSize = 10 * capacity;
+        }
+
+        int frequency(UUID id) {
+            long hash = hash(id);
+            int frequency = 15;
+            for (int row = 0; row < 4; row++) {
+                frequency = Math.min(frequency, (int) ((table[index(hash, row)] >>> offset(hash, row)) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(UUID id) {
+            long hash = hash(id);
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int index = index(hash, row);
+                int offset = offset(hash, row);
+                if (((table[index] >>> offset) & 0xF) < 15) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int index(long hash, int row) {
+            long h = hash * (2 * row + 1) + (hash >>> 32) * row;
+            return (int) (h ^ (h >>> 29)) & (table.length - 1);
+        }
+
+        // One of the sixteen counters of the long, picked by a different nibble of the hash for every row.
+        private static int offset(long hash, int row) {
+            return (int) ((hash >>> (40 + row * 4)) & 0xF) << 2;
+        }
+
+        // The finalizer of MurmurHash3 over both halves.
+        private static long hash(UUID id) {
+            long h = id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
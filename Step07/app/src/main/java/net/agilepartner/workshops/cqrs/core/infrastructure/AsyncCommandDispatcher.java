@@ -0,0 +1,154 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.agilepartner.workshops.cqrs.core.Command;
+import net.agilepartner.workshops.cqrs.core.CommandDispatcher;
+
+// Runs commands on a fixed pool of workers, one at a time per aggregate. The commands of an aggregate wait in its
+// lane, in the order they were dispatched, while the lanes of different aggregates run in parallel, so commands
+// on one aggregate never race each other into an OptimisticLockingException. A lane only exists while it has
+// commands and is run by one worker at a time, which hands it back to the pool after a batch so that a busy
+// aggregate does not hold a worker while others wait. Commands without an aggregate id run on their own.
+public class AsyncCommandDispatcher implements AutoCloseable {
+    private static final int BATCH_SIZE = 64;
+
+    private final CommandDispatcher dispatcher;
+    private final ExecutorService workers;
+    // The commands waiting behind the running one of each busy aggregate; only changed within compute.
+    private final ConcurrentHashMap<UUID, Queue<Task<?>>> lanes = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public AsyncCommandDispatcher(CommandDispatcher dispatcher, int workerCount) {
+        if (workerCount < 1)
+            throw new IllegalArgumentException("Worker count must be positive, not " + workerCount);
+        this.dispatcher = dispatcher;
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "command-lane-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Completes with the commit position of the command, or exceptionally with what the handler threw, or with a
+    // RejectedExecutionException once the dispatcher is closed.
+    public <T extends Command> CompletableFuture<Long> dispatch(T command) {
+        Task<T> task = new Task<>(command);
+        UUID aggregateId = command.aggregateId;
+        if (closed)
+            return task.reject();
+        if (aggregateId == null) {
+            try {
+                workers.execute(task::run);
+            } catch (RejectedExecutionException e) {
+                task.future.completeExceptionally(e);
+            }
+            return task.future;
+        }
+        boolean[] idle = new boolean[1];
+        boolean[] queued = new boolean[1];
+        lanes.compute(aggregateId, (id, waiting) -> {
+            if (waiting == null) {
+                idle[0] = true;
+                return new ArrayDeque<>();
+            }
+            // Checked within compute, so that a command is either queued before close or never.
+            if (!closed) {
+                waiting.add(task);
+                queued[0] = true;
+            }
+            return waiting;
+        });
+        if (idle[0]) {
+            try {
+                workers.execute(() -> runLane(aggregateId, task));
+            } catch (RejectedExecutionException e) {
+                // Closed meanwhile: the lane never runs, so neither do the commands queued on it since.
+                Queue<Task<?>> stranded = lanes.remove(aggregateId);
+                if (stranded != null) {
+                    for (Task<?> waiting : stranded) {
+                        waiting.reject();
+                    }
+                }
+                return task.reject();
+            }
+        } else if (!queued[0]) {
+            return task.reject();
+        }
+        return task.future;
+    }
+
+    private void runLane(UUID aggregateId, Task<?> first) {
+        Task<?> task = first;
+        for (int ran = 1; ; ran++) {
+            task.run();
+            task = next(aggregateId);
+            if (task == null)
+                return;
+            if (ran % BATCH_SIZE == 0 && resume(aggregateId, task))
+                return;
+        }
+    }
+
+    // False once closed, in which case the worker keeps the lane until it has drained it.
+    private boolean resume(UUID aggregateId, Task<?> task) {
+        try {
+            workers.execute(() -> runLane(aggregateId, task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // Removes the lane when nothing is waiting, so that the next command finds it idle.
+    private Task<?> next(UUID aggregateId) {
+        Task<?>[] next = new Task<?>[1];
+        lanes.computeIfPresent(aggregateId, (id, waiting) -> {
+            next[0] = waiting.poll();
+            return next[0] == null ? null : waiting;
+        });
+        return next[0];
+    }
+
+    // Aggregates with commands running or waiting.
+    public int busyLanes() {
+        return lanes.size();
+    }
+
+    // Commands already dispatched still run; new ones are rejected.
+    @Override
+    public void close() {
+        closed = true;
+        workers.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit);
+    }
+
+    private final class Task<T extends Command> {
+        final T command;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        Task(T command) {
+            this.command = command;
+        }
+
+        CompletableFuture<Long> reject() {
+            future.completeExceptionally(new RejectedExecutionException("Command dispatcher is closed"));
+            return future;
+        }
+
+        // Never throws, or the commands waiting behind this one would never run.
+        void run() {
+            try {
+                future.complete(dispatcher.dispatch(command));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+
+// Delivers every stored event from a position on, once each and in position order: first the history, read
+// from the store in batches, then the events as they are published. Concurrent saves publish out of position
+// order, and the ones published while the history was being read are not delivered directly, so live events
+// are only taken as they come when they are the next expected; otherwise the store is read from the next
+// expected position on once a later event has been published. An event is always stored before it is
+// published, so whoever publishes the missing one reads on past it.
+public class CatchUpSubscription implements AutoCloseable {
+    private final Subscriptions subscriptions;
+    private final EventStore eventStore;
+    private final int batchSize;
+    private final EventPublisher subscriber;
+
+    private final Queue<Event> published = new ConcurrentLinkedQueue<>();
+    private final AtomicLong highestPublished = new AtomicLong();
+    // Whoever moves it from zero delivers, for itself and for the publishers that came meanwhile.
+    private final AtomicInteger work = new AtomicInteger();
+    private volatile boolean live;
+    private volatile boolean closed;
+
+    // Only written by the thread delivering.
+    private volatile long next;
+    private long replayed;
+    private long batches;
+    private long reads;
+
+    CatchUpSubscription(Subscriptions subscriptions, EventStore eventStore, long fromPosition, int batchSize, EventPublisher subscriber) {
+        this.subscriptions = subscriptions;
+        this.eventStore = eventStore;
+        this.batchSize = batchSize;
+        this.subscriber = subscriber;
+        this.next = fromPosition;
+    }
+
+    void catchUp() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        try (EventCursor cursor = eventStore.readAll(next)) {
+            while (true) {
+                batch.clear();
+                while (batch.size() < batchSize && cursor.hasNext()) {
+                    batch.add(cursor.next());
+                }
+                if (batch.isEmpty())
+                    break;
+                batches++;
+                for (Event e : batch) {
+                    deliver(e);
+                }
+                replayed += batch.size();
+            }
+        }
+        // Whatever was published until now is either in the store already, or about to be published again to a live subscription.
+        live = true;
+        drain();
+    }
+
+    void offer(Event event) {
+        if (closed)
+            return;
+        long highest = highestPublished.get();
+        while (event.position > highest && !highestPublished.compareAndSet(highest, event.position)) {
+            highest = highestPublished.get();
+        }
+        if (!live)
+            return;
+        published.add(event);
+        drain();
+    }
+
+    private void drain() {
+        if (work.getAndIncrement() != 0)
+            return;
+        int missed = 1;
+        try {
+            do {
+                Event e;
+                while ((e = published.poll()) != null) {
+                    if (e.position == next)
+                        deliver(e);
+                }
+                if (highestPublished.get() >= next)
+                    readFromStore();
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        } catch (RuntimeException e) {
+            // Left holding the work counter, so that nothing is delivered past the failed event.
+            close();
+            throw e;
+        }
+    }
+
+    private void readFromStore() {
+        reads++;
+        try (EventCursor cursor = eventStore.readAll(next)) {
+            while (cursor.hasNext()) {
+                deliver(cursor.next());
+            }
+        }
+    }
+
+    private void deliver(Event e) {
+        if (e.position < next)
+            return;
+        subscriber.publish(e.aggregateId, e);
+        next = e.position + 1;
+    }
+
+    // The position of the last event delivered.
+    public long position() {
+        return next - 1;
+    }
+
+    public boolean isLive() {
+        return live && !closed;
+    }
+
+    // Events delivered while catching up, and the batches they were read in.
+    public long replayed() {
+        return replayed;
+    }
+
+    public long batches() {
+        return batches;
+    }
+
+    // Times live delivery went back to the store for events published out of order.
+    public long storeReads() {
+        return reads;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        subscriptions.remove(this);
+    }
+}
@@ -0,0 +1,11 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.UUID;
+
+public class DuplicateCommandException extends RuntimeException {
+    private static final long serialVersionUID = 5080279637541785816L;
+
+    public DuplicateCommandException(UUID commandId) {
+        super("Command already processed. Id=" + commandId.toString());
+    }
+}
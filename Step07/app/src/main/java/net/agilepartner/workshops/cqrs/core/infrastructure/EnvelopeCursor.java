@@ -0,0 +1,11 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.Iterator;
+
+import net.agilepartner.workshops.cqrs.core.EventEnvelope;
+
+// Iterates over stored events in global position order, decoding their payloads only when asked to.
+public interface EnvelopeCursor extends Iterator<EventEnvelope>, AutoCloseable {
+    @Override
+    void close();
+}
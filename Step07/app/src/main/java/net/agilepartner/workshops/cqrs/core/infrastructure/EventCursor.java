@@ -0,0 +1,11 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.Iterator;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+
+// Iterates over stored events in global position order, reading them lazily.
+public interface EventCursor extends Iterator<Event>, AutoCloseable {
+    @Override
+    void close();
+}
@@ -4,5 +4,6 @@ import net.agilepartner.workshops.cqrs.core.*;
 
 public interface EventResolver {
     public <T extends Event> Iterable<EventHandler<T>> findHandlersFor(Class<?> evtClass);
+    public boolean hasHandlersFor(Class<?> evtClass);
     public <T extends Event> void register(EventHandler<T> handler, Class<?> evtClass);
 }
\ No newline at end of file
@@ -3,8 +3,65 @@ package net.agilepartner.workshops.cqrs.core.infrastructure;
 import java.util.*;
 
 import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventEnvelope;
 
 public interface EventStore {
     List<? extends Event> load(UUID aggregateId);
-    void save(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) throws OptimisticLockingException;
-}
\ No newline at end of file
+
+    // The events of the aggregate with a version greater than or equal to fromVersion.
+    default List<? extends Event> load(UUID aggregateId, int fromVersion) {
+        List<Event> events = new ArrayList<>();
+        for (Event e : load(aggregateId)) {
+            if (e.version >= fromVersion)
+                events.add(e);
+        }
+        return events;
+    }
+
+    // The same events as load(aggregateId, fromVersion), with payloads that stores keeping them encoded decode lazily.
+    default List<EventEnvelope> loadEnvelopes(UUID aggregateId, int fromVersion) {
+        List<? extends Event> events = load(aggregateId, fromVersion);
+        List<EventEnvelope> envelopes = new ArrayList<>(events.size());
+        for (Event e : events) {
+            envelopes.add(EventEnvelope.of(e));
+        }
+        return envelopes;
+    }
+
+    // Returns the commit position: the position of the last event appended, or 0 when there was none.
+    long save(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) throws OptimisticLockingException;
+
+    // Appends to several streams at once: either every expected version matches and all events are stored, or none is.
+    default long save(Collection<StreamAppend> appends) throws OptimisticLockingException {
+        if (appends.size() > 1)
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot append to several streams atomically");
+        long lastPosition = 0;
+        for (StreamAppend append : appends) {
+            lastPosition = save(append.aggregateId, append.events, append.expectedVersion);
+        }
+        return lastPosition;
+    }
+
+    // Positions start at 1 and increase by one with every stored event, across all aggregates.
+    EventCursor readAll(long fromPosition);
+
+    default EnvelopeCursor readAllEnvelopes(long fromPosition) {
+        EventCursor cursor = readAll(fromPosition);
+        return new EnvelopeCursor() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public EventEnvelope next() {
+                return EventEnvelope.of(cursor.next());
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+        };
+    }
+}
@@ -8,28 +8,107 @@ import net.agilepartner.workshops.cqrs.core.*;
 public class EventStoreAwareRepository<T extends AggregateRoot> implements Repository<T> {
     private final EventStore eventStore;
     private final Function<UUID, T> factory;
+    private final SnapshotStore snapshotStore;
+    private final SnapshotPolicy snapshotPolicy;
+    private final AggregateCache<T> cache;
 
     public EventStoreAwareRepository(EventStore eventStore, Function<UUID, T> factory) {
+        this(eventStore, factory, null, SnapshotPolicy.never());
+    }
+
+    public EventStoreAwareRepository(EventStore eventStore, Function<UUID, T> factory, AggregateCache<T> cache) {
+        this(eventStore, factory, null, SnapshotPolicy.never(), cache);
+    }
+
+    public EventStoreAwareRepository(EventStore eventStore, Function<UUID, T> factory, SnapshotStore snapshotStore, SnapshotPolicy snapshotPolicy) {
+        this(eventStore, factory, snapshotStore, snapshotPolicy, null);
+    }
+
+    public EventStoreAwareRepository(EventStore eventStore, Function<UUID, T> factory, SnapshotStore snapshotStore, SnapshotPolicy snapshotPolicy, AggregateCache<T> cache) {
         this.eventStore = eventStore;
         this.factory = factory;
+        this.snapshotStore = snapshotStore;
+        this.snapshotPolicy = snapshotPolicy;
+        this.cache = cache;
     }
 
     @Override
     public T getById(UUID aggregateId) {
+        if (cache == null)
+            return hydrate(aggregateId);
+        T cached = cache.take(aggregateId);
+        long start = System.nanoTime();
+        if (cached != null) {
+            // Other writers may have moved the stream on since the aggregate was cached.
+            int cachedVersion = cached.getVersion();
+            cached.loadFromEnvelopes(eventStore.loadEnvelopes(aggregateId, cachedVersion + 1));
+            cache.recordRefresh(System.nanoTime() - start, cachedVersion);
+            return cached;
+        }
+        T aggregate = hydrate(aggregateId);
+        cache.recordHydration(System.nanoTime() - start, aggregate.getVersion());
+        return aggregate;
+    }
+
+    private T hydrate(UUID aggregateId) {
         T aggregate =  factory.apply(aggregateId);
-        Collection<? extends Event> events  = eventStore.load(aggregate.getId());
+        Snapshot snapshot = snapshotStore == null ? null : snapshotStore.load(aggregateId);
+        if (snapshot != null) {
+            aggregate.restoreFromSnapshot(snapshot);
+            aggregate.loadFromEnvelopes(eventStore.loadEnvelopes(aggregateId, snapshot.version + 1));
+            return aggregate;
+        }
+
+        List<EventEnvelope> events  = eventStore.loadEnvelopes(aggregate.getId(), 0);
         if (events == null || events.size() == 0) {
             throw new AggregateNotFoundException(aggregateId);
         } 
 
-        aggregate.loadFromHistory(events);
+        aggregate.loadFromEnvelopes(events);
         return aggregate;
     }
 
     @Override
-    public void save(AggregateRoot aggregate) throws OptimisticLockingException {
+    public long save(AggregateRoot aggregate) throws OptimisticLockingException {
         Guards.checkNotNull(aggregate.getId());
-        eventStore.save(aggregate.getId(), aggregate.getUncommittedChanges(), aggregate.getOriginalVersion());
+        int originalVersion = aggregate.getOriginalVersion();
+        long position = eventStore.save(aggregate.getId(), aggregate.getUncommittedChanges(), originalVersion);
+        committed(aggregate, originalVersion);
+        return position;
+    }
+
+    // Commits the changes of all the aggregates together, or none of them.
+    public long saveAll(Collection<? extends AggregateRoot> aggregates) throws OptimisticLockingException {
+        List<StreamAppend> appends = new ArrayList<>();
+        for (AggregateRoot aggregate : aggregates) {
+            Guards.checkNotNull(aggregate.getId());
+            appends.add(new StreamAppend(aggregate.getId(), aggregate.getUncommittedChanges(), aggregate.getOriginalVersion()));
+        }
+        long position = eventStore.save(appends);
+        for (AggregateRoot aggregate : aggregates) {
+            committed(aggregate, aggregate.getOriginalVersion());
+        }
+        return position;
+    }
+
+    // Saved aggregates go back to the cache, as hydrated as they can be; one failing to save never does.
+    // saveAll may be handed aggregates of other types, which have no business in this cache.
+    private void committed(AggregateRoot aggregate, int originalVersion) {
         aggregate.markChangesAsCommitted();
+        if (snapshotStore != null && snapshotPolicy.shouldTakeSnapshot(originalVersion, aggregate.getVersion()))
+            takeSnapshot(aggregate);
+        if (cache != null && cache.aggregateType().isInstance(aggregate))
+            cache.put(cache.aggregateType().cast(aggregate));
+    }
+
+    private void takeSnapshot(AggregateRoot aggregate) {
+        Snapshot snapshot = aggregate.takeSnapshot();
+        if (snapshot == null)
+            return;
+        try {
+            snapshotStore.save(snapshot);
+        } catch (EventStoreException e) {
+            // The events are already committed; without the snapshot the aggregate is just replayed from further back.
+        }
     }
-}
\ No newline at end of file
+}
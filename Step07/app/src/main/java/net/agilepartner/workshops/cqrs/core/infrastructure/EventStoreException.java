@@ -0,0 +1,13 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+public class EventStoreException extends RuntimeException {
+    private static final long serialVersionUID = 4313468104823375226L;
+
+    public EventStoreException(String message) {
+        super(message);
+    }
+
+    public EventStoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,33 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import net.agilepartner.workshops.cqrs.core.Command;
+import net.agilepartner.workshops.cqrs.core.CommandDispatcher;
+import net.agilepartner.workshops.cqrs.core.DomainException;
+
+// Rejects a command whose id was already dispatched within the window of the processed ids, so that a client
+// retrying after a timeout does not apply it twice. Commands without an id are dispatched as they are.
+public class IdempotentCommandDispatcher implements CommandDispatcher {
+    private final CommandDispatcher dispatcher;
+    private final ProcessedCommandIds processed;
+
+    public IdempotentCommandDispatcher(CommandDispatcher dispatcher, ProcessedCommandIds processed) {
+        this.dispatcher = dispatcher;
+        this.processed = processed;
+    }
+
+    // The id is taken before the handler runs, so a duplicate arriving meanwhile is rejected too. It is given
+    // back when the command fails, since a failed command changed nothing and may be retried.
+    @Override
+    public <T extends Command> long dispatch(T command) throws DomainException {
+        if (command.id == null)
+            return dispatcher.dispatch(command);
+        if (!processed.add(command.id))
+            throw new DuplicateCommandException(command.id);
+        try {
+            return dispatcher.dispatch(command);
+        } catch (DomainException | RuntimeException e) {
+            processed.remove(command.id);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// The highest global position a consumer has processed. Consumers fed in position order advance it after
+// each event; readers wanting to see their own writes wait for the commit position of those writes.
+// Waiters park until the position is reached, and advancing only looks at them when there are some.
+public class PositionWatermark {
+    private final AtomicLong position = new AtomicLong();
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    public long position() {
+        return position.get();
+    }
+
+    // Never moves backwards.
+    public void advanceTo(long processed) {
+        long current = position.get();
+        while (processed > current) {
+            if (position.compareAndSet(current, processed))
+                break;
+            current = position.get();
+        }
+        if (waiters.isEmpty())
+            return;
+        for (Waiter waiter : waiters) {
+            if (waiter.position <= processed)
+                LockSupport.unpark(waiter.thread);
+        }
+    }
+
+    // False when the position was not reached within the timeout.
+    public boolean await(long target, long timeout, TimeUnit unit) throws InterruptedException {
+        if (position.get() >= target)
+            return true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Waiter waiter = new Waiter(Thread.currentThread(), target);
+        waiters.add(waiter);
+        try {
+            // Checked again once queued, in case the position moved before the waiter could be seen.
+            while (position.get() < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+            return true;
+        } finally {
+            waiters.remove(waiter);
+        }
+    }
+
+    private static final class Waiter {
+        final Thread thread;
+        final long position;
+
+        Waiter(Thread thread, long position) {
+            this.thread = thread;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Remembers the ids of the commands processed within a time window, in memory allocated once and for all.
+// Two generations take turns: ids go to the current one, which replaces the previous one when it is older
+// than the window or full, so an id is remembered for at least the window unless more than capacity commands
+// arrive within it. In each generation a Bloom filter answers for the ids never seen, which are nearly all of
+// them, and an exact table settles the rare maybe, so a false positive costs a probe but never a command.
+public class ProcessedCommandIds {
+    private final int capacity;
+    private final double falsePositiveRate;
+    private final long windowNanos;
+    private final LongSupplier clock;
+    private Generation current;
+    private Generation previous;
+
+    private long negatives;
+    private long falsePositives;
+    private long duplicates;
+    private long rotations;
+
+    public ProcessedCommandIds(int capacity, double falsePositiveRate, long window, TimeUnit unit) {
+        this(capacity, falsePositiveRate, window, unit, System::nanoTime);
+    }
+
+    ProcessedCommandIds(int capacity, double falsePositiveRate, long window, TimeUnit unit, LongSupplier clock) {
+        if (capacity < 1 || window <= 0)
+            throw new IllegalArgumentException("Capacity and window must be positive");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1, not " + falsePositiveRate);
+        this.capacity = capacity;
+        this.falsePositiveRate = falsePositiveRate;
+        this.windowNanos = unit.toNanos(window);
+        this.clock = clock;
+        this.current = new Generation(capacity, falsePositiveRate, clock.getAsLong());
+        this.previous = new Generation(capacity, falsePositiveRate, clock.getAsLong());
+    }
+
+    // False when the id was already added within the window.
+    public synchronized boolean add(UUID id) {
+        long now = clock.getAsLong();
+        if (now - current.start >= windowNanos || current.size == capacity)
+            rotate(now);
+        if (contains(current, id) || contains(previous, id)) {
+            duplicates++;
+            return false;
+        }
+        current.add(id);
+        return true;
+    }
+
+    // Forgets an id whose command failed, so that a retry is processed. Its bits stay in the Bloom filter.
+    public synchronized void remove(UUID id) {
+        current.remove(id);
+        previous.remove(id);
+    }
+
+    private boolean contains(Generation generation, UUID id) {
+        if (!generation.mightContain(id)) {
+            negatives++;
+            return false;
+        }
+        if (generation.contains(id))
+            return true;
+        negatives++;
+        falsePositives++;
+        return false;
+    }
+
+    private void rotate(long now) {
+        Generation recycled = previous;
+        previous = current;
+        recycled.clear(now);
+        current = recycled;
+        rotations++;
+    }
+
+    public double configuredFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    // Share of the ids absent from a generation that its Bloom filter still let through to the exact table.
+    public synchronized double observedFalsePositiveRate() {
+        return negatives == 0 ? 0 : (double) falsePositives / negatives;
+    }
+
+    public synchronized long duplicates() {
+        return duplicates;
+    }
+
+    public synchronized long rotations() {
+        return rotations;
+    }
+
+    public long memoryBytes() {
+        return current.memoryBytes() + previous.memoryBytes();
+    }
+
+    private static final class Generation {
+        private static final byte FREE = 0;
+        private static final byte USED = 1;
+        private static final byte REMOVED = 2;
+        private static final int BLOCK_BITS = 512;
+        private static final int BLOCK_LONGS = BLOCK_BITS / 64;
+
+        private final long[] bits;
+        private final int blockMask;
+        private final int hashCount;
+        private final long[] mostSigBits;
+        private final long[] leastSigBits;
+        private final byte[] states;
+        private final int mask;
+        private long start;
+        private int size;
+
+        Generation(int capacity, double falsePositiveRate, long start) {
+            double ln2 = Math.log(2);
+            long optimalBits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+            // Rounded up to a power of two, which only lowers the rate, so that blocks are picked with a mask.
+            int blocks = (int) Math.max(1, Long.highestOneBit(Math.max(1, optimalBits / BLOCK_BITS - 1)) << 1);
+            this.bits = new long[blocks * BLOCK_LONGS];
+            this.blockMask = blocks - 1;
+            this.hashCount = Math.max(1, (int) Math.round(Math.log(1 / falsePositiveRate) / ln2));
+            // Half full at most, so that probes stay short.
+            int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+            this.mostSigBits = new long[slots];
+            this.leastSigBits = new long[slots];
+            this.states = new byte[slots];
+            this.mask = slots - 1;
+            this.start = start;
+        }
+
+        // Blocked: the k bits of an id all fall in the 512 bits picked by h1, at offsets derived from h2 the
+        // Kirsch-Mitzenmacher way, so that a lookup costs a single cache miss.
+        boolean mightContain(UUID id) {
+            long h1 = mix(id.getMostSignificantBits());
+            long h2 = mix(id.getLeastSignificantBits());
+            int block = ((int) h1 & blockMask) * BLOCK_LONGS;
+            int offset = (int) h2;
+            int step = (int) (h2 >>> 32) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (offset + i * step) & (BLOCK_BITS - 1);
+                if ((bits[block + (bit >>> 6)] & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        boolean contains(UUID id) {
+            return slotOf(id) >= 0;
+        }
+
+        void add(UUID id) {
+            long h1 = mix(id.getMostSignificantBits());
+            long h2 = mix(id.getLeastSignificantBits());
+            int block = ((int) h1 & blockMask) * BLOCK_LONGS;
+            int offset = (int) h2;
+            int step = (int) (h2 >>> 32) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (offset + i * step) & (BLOCK_BITS - 1);
+                bits[block + (bit >>> 6)] |= 1L << bit;
+            }
+            int slot = (int) (h1 >>> 32) & mask;
+            while (states[slot] == USED) {
+                slot = (slot + 1) & mask;
+            }
+            mostSigBits[slot] = id.getMostSignificantBits();
+            leastSigBits[slot] = id.getLeastSignificantBits();
+            states[slot] = USED;
+            size++;
+        }
+
+        // Leaves a tombstone, which still counts against the capacity until the generation is recycled.
+        void remove(UUID id) {
+            int slot = slotOf(id);
+            if (slot >= 0)
+                states[slot] = REMOVED;
+        }
+
+        private int slotOf(UUID id) {
+            long h1 = mix(id.getMostSignificantBits());
+            int slot = (int) (h1 >>> 32) & mask;
+            while (states[slot] != FREE) {
+                if (states[slot] == USED && mostSigBits[slot] == id.getMostSignificantBits() && leastSigBits[slot] == id.getLeastSignificantBits())
+                    return slot;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        void clear(long now) {
+            Arrays.fill(bits, 0);
+            Arrays.fill(states, FREE);
+            size = 0;
+            start = now;
+        }
+
+        long memoryBytes() {
+            return bits.length * 8L + states.length * 17L;
+        }
+
+        // The finalizer of MurmurHash3.
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
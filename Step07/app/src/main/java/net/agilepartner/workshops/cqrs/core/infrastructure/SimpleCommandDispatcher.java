@@ -14,10 +14,11 @@ public class SimpleCommandDispatcher implements CommandDispatcher {
     }
 
     @Override
-    public <T extends Command> void dispatch(T command) throws DomainException {
+    public <T extends Command> long dispatch(T command) throws DomainException {
         CommandHandler<T> handler = resolver.findHandlerFor(command.getClass());
         if (handler != null) {
-            handler.handle(command);
+            return handler.handle(command);
         }
+        return 0;
     }
 }
\ No newline at end of file
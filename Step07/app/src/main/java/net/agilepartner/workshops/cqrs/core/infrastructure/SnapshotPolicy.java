@@ -0,0 +1,17 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+@FunctionalInterface
+public interface SnapshotPolicy {
+    boolean shouldTakeSnapshot(int versionBefore, int versionAfter);
+
+    static SnapshotPolicy never() {
+        return (before, after) -> false;
+    }
+
+    // Takes a snapshot whenever a save crosses a multiple of n.
+    static SnapshotPolicy everyNEvents(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        return (before, after) -> before / n != after / n;
+    }
+}
@@ -0,0 +1,11 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.UUID;
+
+import net.agilepartner.workshops.cqrs.core.Snapshot;
+
+public interface SnapshotStore {
+    // The latest snapshot of the aggregate, or null when there is none.
+    Snapshot load(UUID aggregateId);
+    void save(Snapshot snapshot);
+}
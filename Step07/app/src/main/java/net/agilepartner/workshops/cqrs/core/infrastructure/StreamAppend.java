@@ -0,0 +1,40 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+
+public final class StreamAppend {
+    public final UUID aggregateId;
+    public final List<? extends Event> events;
+    public final int expectedVersion;
+
+    public StreamAppend(UUID aggregateId, Iterable<? extends Event> events, int expectedVersion) {
+        List<Event> copy = new ArrayList<>();
+        for (Event e : events) {
+            copy.add(e);
+        }
+        this.aggregateId = aggregateId;
+        this.events = Collections.unmodifiableList(copy);
+        this.expectedVersion = expectedVersion;
+    }
+
+    public static void checkDistinct(Collection<StreamAppend> appends) {
+        Set<UUID> ids = new HashSet<>();
+        for (StreamAppend append : appends) {
+            if (!ids.add(append.aggregateId))
+                throw new IllegalArgumentException("Aggregate " + append.aggregateId + " appears more than once");
+        }
+    }
+
+    // The highest position given to the events of the appends once they are stored, or 0 when there is none.
+    public static long lastPosition(Collection<StreamAppend> appends) {
+        long lastPosition = 0;
+        for (StreamAppend append : appends) {
+            for (Event e : append.events) {
+                lastPosition = Math.max(lastPosition, e.position);
+            }
+        }
+        return lastPosition;
+    }
+}
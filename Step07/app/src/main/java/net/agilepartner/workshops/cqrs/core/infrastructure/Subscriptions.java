@@ -0,0 +1,58 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+
+// The publisher to give an event store so that subscribers can be added while it runs. Every event goes to the
+// downstream publisher as before, then to the live subscriptions. A subscriber added later first catches up
+// on the history from the position it asks for.
+public class Subscriptions implements EventPublisher {
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private final EventPublisher downstream;
+    private final List<CatchUpSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public Subscriptions(EventPublisher downstream) {
+        this.downstream = downstream;
+    }
+
+    @Override
+    public <T extends Event> void publish(UUID aggregateId, T event) {
+        downstream.publish(aggregateId, event);
+        for (CatchUpSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    public CatchUpSubscription subscribe(EventStore eventStore, long fromPosition, EventPublisher subscriber) {
+        return subscribe(eventStore, fromPosition, DEFAULT_BATCH_SIZE, subscriber);
+    }
+
+    // Replays the stored events from fromPosition on the calling thread, without holding writers back, and
+    // returns once the subscriber is live. The store must be the one this publisher was given to.
+    public CatchUpSubscription subscribe(EventStore eventStore, long fromPosition, int batchSize, EventPublisher subscriber) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive, not " + batchSize);
+        CatchUpSubscription subscription = new CatchUpSubscription(this, eventStore, Math.max(fromPosition, 1), batchSize, subscriber);
+        // Registered before reading the history, so that whatever the replay misses is published to it.
+        subscriptions.add(subscription);
+        try {
+            subscription.catchUp();
+        } catch (RuntimeException e) {
+            subscriptions.remove(subscription);
+            throw e;
+        }
+        return subscription;
+    }
+
+    void remove(CatchUpSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    public int size() {
+        return subscriptions.size();
+    }
+}
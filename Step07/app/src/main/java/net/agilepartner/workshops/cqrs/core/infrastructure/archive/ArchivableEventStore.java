@@ -0,0 +1,11 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.archive;
+
+import java.util.function.Predicate;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+
+public interface ArchivableEventStore extends EventStore {
+    // Moves every stream whose last event matches to cold storage and returns how many were moved.
+    int archive(Predicate<Event> lastEvent);
+}
@@ -0,0 +1,201 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.archive;
+
+import java.nio.*;
+import java.util.*;
+import java.util.zip.*;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+
+// Keeps whole streams encoded in segments that are compressed with Deflater once full.
+// A stream is stored as [varint event count] then, for every event, [varlong position][varint length][payload].
+// Streams are only ever read back as a whole; putting a stream again leaves its previous bytes behind.
+public class ColdStorage {
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private final EventCodec codec;
+    private final int segmentSize;
+    private final Map<UUID, Location> locations = new HashMap<>();
+    private final List<byte[]> sealed = new ArrayList<>();
+    private final List<Integer> sealedLengths = new ArrayList<>();
+    private ByteBuffer open;
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+    private ByteBuffer payload = ByteBuffer.allocate(1024);
+    private int inflatedSegment = -1;
+    private byte[] inflated;
+    private long events;
+    private long uncompressedBytes;
+
+    public ColdStorage(EventCodec codec) {
+        this(codec, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public ColdStorage(EventCodec codec, int segmentSize) {
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.open = ByteBuffer.allocate(segmentSize);
+    }
+
+    public synchronized void put(UUID aggregateId, List<? extends Event> stream) {
+        ByteBuffer record = encode(stream);
+        if (record.remaining() > open.remaining()) {
+            seal();
+            if (record.remaining() > open.capacity())
+                open = ByteBuffer.allocate(record.remaining());
+        }
+        Location previous = locations.put(aggregateId, new Location(sealed.size(), open.position(), record.remaining(), stream.size()));
+        if (previous != null)
+            events -= previous.events;
+        events += stream.size();
+        uncompressedBytes += record.remaining();
+        open.put(record);
+    }
+
+    // The archived stream, or null when the aggregate is not in cold storage.
+    public synchronized List<Event> load(UUID aggregateId) {
+        Location location = locations.get(aggregateId);
+        if (location == null)
+            return null;
+        ByteBuffer source = ByteBuffer.wrap(segment(location.segment), location.offset, location.length);
+        int count = Binary.readVarInt(source);
+        List<Event> stream = new ArrayList<>(count);
+        long position = 0;
+        for (int i = 0; i < count; i++) {
+            position += Binary.readVarLong(source);
+            int length = Binary.readVarInt(source);
+            ByteBuffer eventBytes = source.slice();
+            eventBytes.limit(length);
+            source.position(source.position() + length);
+            Event event = codec.decode(eventBytes);
+            event.position = position;
+            stream.add(event);
+        }
+        return stream;
+    }
+
+    // Compresses the open segment even though it is not full.
+    public synchronized void seal() {
+        if (open.position() == 0)
+            return;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(open.array(), 0, open.position());
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, open.position() / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length)
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            sealed.add(Arrays.copyOf(buffer, length));
+            sealedLengths.add(open.position());
+        } finally {
+            deflater.end();
+        }
+        open = ByteBuffer.allocate(segmentSize);
+    }
+
+    public synchronized Stats stats() {
+        long compressed = open.position();
+        for (byte[] segment : sealed) {
+            compressed += segment.length;
+        }
+        return new Stats(locations.size(), events, uncompressedBytes, compressed);
+    }
+
+    private byte[] segment(int index) {
+        if (index == sealed.size())
+            return open.array();
+        if (index != inflatedSegment) {
+            inflated = inflate(sealed.get(index), sealedLengths.get(index));
+            inflatedSegment = index;
+        }
+        return inflated;
+    }
+
+    private static byte[] inflate(byte[] compressed, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] result = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                read += inflater.inflate(result, read, length - read);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new EventStoreException("Corrupt cold storage segment", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private ByteBuffer encode(List<? extends Event> stream) {
+        while (true) {
+            scratch.clear();
+            try {
+                Binary.writeVarInt(scratch, stream.size());
+                long position = 0;
+                for (Event event : stream) {
+                    Binary.writeVarLong(scratch, event.position - position);
+                    position = event.position;
+                    ByteBuffer encoded = encode(event);
+                    Binary.writeVarInt(scratch, encoded.remaining());
+                    scratch.put(encoded);
+                }
+                scratch.flip();
+                return scratch;
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+    }
+
+    private ByteBuffer encode(Event event) {
+        while (true) {
+            payload.clear();
+            try {
+                codec.encode(event, payload);
+                payload.flip();
+                return payload;
+            } catch (BufferOverflowException e) {
+                payload = ByteBuffer.allocate(payload.capacity() * 2);
+            }
+        }
+    }
+
+    public static final class Stats {
+        public final int streams;
+        public final long events;
+        public final long uncompressedBytes;
+        public final long storedBytes;
+
+        Stats(int streams, long events, long uncompressedBytes, long storedBytes) {
+            this.streams = streams;
+            this.events = events;
+            this.uncompressedBytes = uncompressedBytes;
+            this.storedBytes = storedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d streams, %,d events, %,d bytes encoded, %,d bytes stored", streams, events, uncompressedBytes, storedBytes);
+        }
+    }
+
+    private static final class Location {
+        final int segment;
+        final int offset;
+        final int length;
+        final int events;
+
+        Location(int segment, int offset, int length, int events) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.events = events;
+        }
+    }
+}
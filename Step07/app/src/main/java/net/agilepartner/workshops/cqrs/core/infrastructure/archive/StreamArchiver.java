@@ -0,0 +1,60 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.archive;
+
+import java.io.Closeable;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+
+// Periodically moves the streams that have reached their final event to cold storage.
+public class StreamArchiver implements Closeable {
+    private final ArchivableEventStore eventStore;
+    private final Predicate<Event> lastEvent;
+    private final ScheduledExecutorService scheduler;
+    private volatile long archived;
+    private volatile long failedRuns;
+    private volatile RuntimeException lastFailure;
+
+    public StreamArchiver(ArchivableEventStore eventStore, Predicate<Event> lastEvent, long period, TimeUnit unit) {
+        this.eventStore = eventStore;
+        this.lastEvent = lastEvent;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stream-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (RuntimeException e) {
+                // Keep the schedule going: a failed run leaves its streams hot until the next one.
+                lastFailure = e;
+                failedRuns++;
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized int runOnce() {
+        int count = eventStore.archive(lastEvent);
+        archived += count;
+        return count;
+    }
+
+    public long archivedStreams() {
+        return archived;
+    }
+
+    // Scheduled runs that threw, and what the last of them threw, or null.
+    public long failedRuns() {
+        return failedRuns;
+    }
+
+    public RuntimeException lastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,140 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+public final class Binary {
+    private Binary() {}
+
+    public static void writeVarInt(ByteBuffer target, int value) {
+        while ((value & ~0x7F) != 0) {
+            target.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    public static int readVarInt(ByteBuffer source) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = source.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static void writeVarLong(ByteBuffer target, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    public static long readVarLong(ByteBuffer source) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = source.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varlong");
+    }
+
+    // Zig-zag encoding keeps small negative numbers small.
+    public static void writeSignedVarInt(ByteBuffer target, int value) {
+        writeVarInt(target, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readSignedVarInt(ByteBuffer source) {
+        int value = readVarInt(source);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void writeSignedVarLong(ByteBuffer target, long value) {
+        writeVarLong(target, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSignedVarLong(ByteBuffer source) {
+        long value = readVarLong(source);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void writeUuid(ByteBuffer target, UUID value) {
+        target.putLong(value.getMostSignificantBits());
+        target.putLong(value.getLeastSignificantBits());
+    }
+
+    public static UUID readUuid(ByteBuffer source) {
+        return new UUID(source.getLong(), source.getLong());
+    }
+
+    // Strings are prefixed with their UTF-8 length plus one, so that zero can stand for null.
+    public static void writeString(ByteBuffer target, String value) {
+        if (value == null) {
+            writeVarInt(target, 0);
+            return;
+        }
+        writeVarInt(target, utf8Length(value) + 1);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                target.put((byte) (0xF0 | (codePoint >> 18)));
+                target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                if (Character.isSurrogate(c))
+                    c = '?';
+                target.put((byte) (0xE0 | (c >> 12)));
+                target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    public static String readString(ByteBuffer source) {
+        int length = readVarInt(source) - 1;
+        if (length < 0)
+            return null;
+
+        String value;
+        if (source.hasArray()) {
+            value = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+            source.position(source.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            source.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
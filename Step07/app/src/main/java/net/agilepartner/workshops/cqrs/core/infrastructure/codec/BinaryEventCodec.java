@@ -0,0 +1,62 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventEnvelope;
+
+// [varint type id][long aggregate msb][long aggregate lsb][varint version][event fields]
+public class BinaryEventCodec implements EventCodec {
+    private final EventTypeRegistry registry;
+
+    public BinaryEventCodec(EventTypeRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void encode(Event event, ByteBuffer target) {
+        int typeId = registry.typeIdOf(event.getClass());
+        Binary.writeVarInt(target, typeId);
+        Binary.writeUuid(target, event.aggregateId);
+        Binary.writeVarInt(target, event.version);
+        registry.serializerOf(typeId).write(event, target);
+    }
+
+    @Override
+    public Event decode(ByteBuffer source) {
+        int typeId = Binary.readVarInt(source);
+        long mostSigBits = source.getLong();
+        long leastSigBits = source.getLong();
+        int version = Binary.readVarInt(source);
+        Event event = registry.serializerOf(typeId).read(source);
+        event.aggregateId = new UUID(mostSigBits, leastSigBits);
+        event.version = version;
+        return event;
+    }
+
+    // Only the header is read here; the event fields are read from a view of the source when needed.
+    @Override
+    public EventEnvelope decodeEnvelope(ByteBuffer source, long position) {
+        int typeId = Binary.readVarInt(source);
+        UUID aggregateId = new UUID(source.getLong(), source.getLong());
+        int version = Binary.readVarInt(source);
+        return new LazyEnvelope(typeId, aggregateId, version, position, source.slice());
+    }
+
+    private final class LazyEnvelope extends EventEnvelope {
+        private final int typeId;
+        private final ByteBuffer fields;
+
+        LazyEnvelope(int typeId, UUID aggregateId, int version, long position, ByteBuffer fields) {
+            super(registry.typeOf(typeId), aggregateId, version, position);
+            this.typeId = typeId;
+            this.fields = fields;
+        }
+
+        @Override
+        protected Event decode() {
+            return registry.serializerOf(typeId).read(fields.duplicate());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+final class ByteBufferOutputStream extends OutputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferOutputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        buffer.put(bytes, offset, length);
+    }
+}
@@ -0,0 +1,19 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import java.nio.ByteBuffer;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventEnvelope;
+
+public interface EventCodec {
+    void encode(Event event, ByteBuffer target);
+    Event decode(ByteBuffer source);
+
+    // Codecs that can read the type, aggregate and version on their own leave the rest for later; the source
+    // must then stay unchanged as long as the envelope is used.
+    default EventEnvelope decodeEnvelope(ByteBuffer source, long position) {
+        Event event = decode(source);
+        event.position = position;
+        return EventEnvelope.of(event);
+    }
+}
@@ -0,0 +1,10 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import java.nio.ByteBuffer;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+
+public interface EventSerializer<T extends Event> {
+    void write(T event, ByteBuffer target);
+    T read(ByteBuffer source);
+}
@@ -0,0 +1,60 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+
+public class EventTypeRegistry {
+    private final Map<Class<?>, Integer> typeIds = new ConcurrentHashMap<>();
+    private final Map<Integer, Registration<?>> registrations = new ConcurrentHashMap<>();
+
+    public <T extends Event> void register(int typeId, Class<T> type) {
+        register(typeId, type, new FieldSerializer<>(type));
+    }
+
+    public synchronized <T extends Event> void register(int typeId, Class<T> type, EventSerializer<T> serializer) {
+        if (typeId < 0)
+            throw new IllegalArgumentException(String.format("Type id of %s must not be negative", type.getSimpleName()));
+        if (registrations.containsKey(typeId))
+            throw new IllegalArgumentException(String.format("Type id %d is already used by %s", typeId, registrations.get(typeId).type.getSimpleName()));
+        if (typeIds.containsKey(type))
+            throw new IllegalArgumentException(String.format("%s is already registered", type.getSimpleName()));
+
+        registrations.put(typeId, new Registration<>(type, serializer));
+        typeIds.put(type, typeId);
+    }
+
+    public int typeIdOf(Class<?> type) {
+        Integer typeId = typeIds.get(type);
+        if (typeId == null)
+            throw new UnsupportedOperationException(String.format("No type id registered for event %s", type.getSimpleName()));
+        return typeId;
+    }
+
+    public Class<? extends Event> typeOf(int typeId) {
+        return registration(typeId).type;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T extends Event> EventSerializer<T> serializerOf(int typeId) {
+        return (EventSerializer<T>) registration(typeId).serializer;
+    }
+
+    private Registration<?> registration(int typeId) {
+        Registration<?> registration = registrations.get(typeId);
+        if (registration == null)
+            throw new UnsupportedOperationException(String.format("No event registered for type id %d", typeId));
+        return registration;
+    }
+
+    private static final class Registration<T extends Event> {
+        final Class<T> type;
+        final EventSerializer<T> serializer;
+
+        Registration(Class<T> type, EventSerializer<T> serializer) {
+            this.type = type;
+            this.serializer = serializer;
+        }
+    }
+}
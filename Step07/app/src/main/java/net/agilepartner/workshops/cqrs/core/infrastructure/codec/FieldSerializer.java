@@ -0,0 +1,91 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.Guards;
+
+// Serializes the fields an event declares on top of Event, in alphabetical order.
+final class FieldSerializer<T extends Event> implements EventSerializer<T> {
+    private final Constructor<T> constructor;
+    private final Field[] fields;
+
+    FieldSerializer(Class<T> type) {
+        try {
+            constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(String.format("%s needs a no-arg constructor or a dedicated EventSerializer", type.getSimpleName()));
+        }
+
+        List<Field> declared = new ArrayList<>();
+        for (Class<?> c = type; c != Event.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+                    continue;
+                if (!isSupported(field.getType()))
+                    throw new IllegalArgumentException(String.format("Field %s.%s of type %s is not supported", type.getSimpleName(), field.getName(), field.getType().getSimpleName()));
+                field.setAccessible(true);
+                declared.add(field);
+            }
+        }
+        declared.sort(Comparator.comparing(Field::getName));
+        fields = declared.toArray(new Field[0]);
+    }
+
+    @Override
+    public void write(T event, ByteBuffer target) {
+        try {
+            for (Field field : fields) {
+                Class<?> type = field.getType();
+                if (type == int.class) {
+                    Binary.writeSignedVarInt(target, field.getInt(event));
+                } else if (type == long.class) {
+                    Binary.writeSignedVarLong(target, field.getLong(event));
+                } else if (type == boolean.class) {
+                    target.put(field.getBoolean(event) ? (byte) 1 : (byte) 0);
+                } else if (type == String.class) {
+                    Binary.writeString(target, (String) field.get(event));
+                } else {
+                    UUID value = (UUID) field.get(event);
+                    target.put(value == null ? (byte) 0 : (byte) 1);
+                    if (value != null)
+                        Binary.writeUuid(target, value);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw Guards.propagate(e);
+        }
+    }
+
+    @Override
+    public T read(ByteBuffer source) {
+        try {
+            T event = constructor.newInstance();
+            for (Field field : fields) {
+                Class<?> type = field.getType();
+                if (type == int.class) {
+                    field.setInt(event, Binary.readSignedVarInt(source));
+                } else if (type == long.class) {
+                    field.setLong(event, Binary.readSignedVarLong(source));
+                } else if (type == boolean.class) {
+                    field.setBoolean(event, source.get() != 0);
+                } else if (type == String.class) {
+                    field.set(event, Binary.readString(source));
+                } else {
+                    field.set(event, source.get() == 0 ? null : Binary.readUuid(source));
+                }
+            }
+            return event;
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw Guards.propagate(e);
+        }
+    }
+
+    private static boolean isSupported(Class<?> type) {
+        return type == int.class || type == long.class || type == boolean.class || type == String.class || type == UUID.class;
+    }
+}
@@ -0,0 +1,28 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+
+public class JavaSerializationEventCodec implements EventCodec {
+
+    @Override
+    public void encode(Event event, ByteBuffer target) {
+        try (ObjectOutputStream out = new ObjectOutputStream(new ByteBufferOutputStream(target))) {
+            out.writeObject(event);
+        } catch (IOException e) {
+            throw new EventStoreException("Cannot serialize " + event.getClass().getSimpleName(), e);
+        }
+    }
+
+    @Override
+    public Event decode(ByteBuffer source) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteBufferInputStream(source))) {
+            return (Event) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new EventStoreException("Cannot deserialize event", e);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.*;
+
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+
+// Maps every aggregate to the ordered log addresses of its events. An address packs
+// the segment index in its upper 32 bits and the offset within the segment in the lower ones.
+// The index file is a checkpoint: it is complete up to the recorded log address and
+// the store replays whatever was appended after it when it opens.
+final class AggregateIndex {
+    static final String FILE_NAME = "aggregates.idx";
+    private static final long MAGIC = 0x4147475f49445831L;
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private long checkpoint;
+
+    static long address(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    long checkpoint() {
+        return checkpoint;
+    }
+
+    int version(UUID aggregateId) {
+        Entry entry = entries.get(aggregateId);
+        return entry == null ? 0 : entry.version;
+    }
+
+    long[] addresses(UUID aggregateId) {
+        Entry entry = entries.get(aggregateId);
+        return entry == null ? new long[0] : entry.addresses();
+    }
+
+    // Only ever called by the single writer of the store.
+    void add(UUID aggregateId, int version, long address) {
+        entries.computeIfAbsent(aggregateId, id -> new Entry()).add(version, address);
+    }
+
+    // Only ever called by the single writer of the store, with the addresses of one append to the stream:
+    // a load sees either all of them or none.
+    void add(UUID aggregateId, int lastVersion, long[] addresses, int from, int count) {
+        entries.computeIfAbsent(aggregateId, id -> new Entry()).add(lastVersion, addresses, from, count);
+    }
+
+    // Drops the addresses from the given one on, for appends taken back out of the log. Only ever called by the
+    // single writer of the store, when a write fails, so going through every stream is fine.
+    void truncate(long address) {
+        for (Entry entry : entries.values()) {
+            entry.truncate(address);
+        }
+    }
+
+    // Appends an index of the part of the log that follows this one; the later index must not be used afterwards.
+    void addAll(AggregateIndex later) {
+        for (Map.Entry<UUID, Entry> e : later.entries.entrySet()) {
+            Entry entry = entries.putIfAbsent(e.getKey(), e.getValue());
+            if (entry != null)
+                entry.addAll(e.getValue());
+        }
+    }
+
+    void save(Path directory, long logEnd) {
+        Path file = directory.resolve(FILE_NAME);
+        Path temp = directory.resolve(FILE_NAME + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Files.newOutputStream(temp), crc)))) {
+            out.writeLong(MAGIC);
+            out.writeLong(logEnd);
+            out.writeInt(entries.size());
+            for (Map.Entry<UUID, Entry> e : entries.entrySet()) {
+                long[] addresses = e.getValue().addresses();
+                out.writeLong(e.getKey().getMostSignificantBits());
+                out.writeLong(e.getKey().getLeastSignificantBits());
+                out.writeInt(e.getValue().version);
+                out.writeInt(addresses.length);
+                for (long address : addresses) {
+                    out.writeLong(address);
+                }
+            }
+            out.flush();
+            out.writeLong(crc.getValue());
+        } catch (IOException e) {
+            throw new EventStoreException("Cannot write aggregate index " + file, e);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new EventStoreException("Cannot write aggregate index " + file, e);
+        }
+        checkpoint = logEnd;
+    }
+
+    // Returns an empty index, to be rebuilt from the log, when the file is missing or corrupt.
+    static AggregateIndex load(Path directory) {
+        AggregateIndex index = new AggregateIndex();
+        Path file = directory.resolve(FILE_NAME);
+        if (!Files.exists(file))
+            return index;
+
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), crc))) {
+            long length = Files.size(file);
+            if (in.readLong() != MAGIC)
+                return new AggregateIndex();
+            long checkpoint = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID aggregateId = new UUID(in.readLong(), in.readLong());
+                int version = in.readInt();
+                int size = in.readInt();
+                if (size < 0 || size > length / 8)
+                    return new AggregateIndex();
+                Entry entry = new Entry(size);
+                for (int j = 0; j < size; j++) {
+                    entry.add(version, in.readLong());
+                }
+                index.entries.put(aggregateId, entry);
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected)
+                return new AggregateIndex();
+            index.checkpoint = checkpoint;
+            return index;
+        } catch (IOException | RuntimeException e) {
+            return new AggregateIndex();
+        }
+    }
+
+    private static final class Entry {
+        private long[] addresses;
+        private volatile int size;
+        private volatile int version;
+
+        Entry() {
+            this(4);
+        }
+
+        Entry(int capacity) {
+            addresses = new long[Math.max(capacity, 1)];
+        }
+
+        void add(int version, long address) {
+            if (size == addresses.length)
+                addresses = Arrays.copyOf(addresses, size * 2);
+            addresses[size] = address;
+            this.version = version;
+            size = size + 1;
+        }
+
+        void add(int lastVersion, long[] batch, int from, int count) {
+            if (size + count > addresses.length)
+                addresses = Arrays.copyOf(addresses, Math.max(size + count, size * 2));
+            System.arraycopy(batch, from, addresses, size, count);
+            version = lastVersion;
+            size = size + count;
+        }
+
+        void addAll(Entry later) {
+            int count = later.size;
+            if (size + count > addresses.length)
+                addresses = Arrays.copyOf(addresses, Math.max(size + count, size * 2));
+            System.arraycopy(later.addresses, 0, addresses, size, count);
+            version = later.version;
+            size = size + count;
+        }
+
+        // Versions follow each other within a stream, so every address dropped takes one off the version.
+        void truncate(long address) {
+            int count = size;
+            while (count > 0 && addresses[count - 1] >= address) {
+                count--;
+            }
+            version = version - (size - count);
+            size = count;
+        }
+
+        long[] addresses() {
+            int count = size;
+            return Arrays.copyOf(addresses, count);
+        }
+    }
+}
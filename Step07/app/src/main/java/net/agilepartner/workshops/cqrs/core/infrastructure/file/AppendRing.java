@@ -0,0 +1,197 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.EventCodec;
+
+// A preallocated ring of append slots with many producers and a single consumer. A producer claims
+// the next sequence, encodes its events into the reusable buffer of the slot and publishes it; the
+// consumer takes every contiguous run of published slots at once and releases them when it has
+// copied them to the log. Slots, buffers and the per-thread completions are all reused, so once the
+// ring has warmed up an append allocates nothing on its own.
+final class AppendRing {
+    private static final int SPINS = 64;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private volatile long released = -1;
+    private volatile Thread consumer;
+    private volatile boolean consumerParked;
+
+    AppendRing(int size) {
+        if (size < 1 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("Ring size must be a power of two, not " + size);
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i - size);
+        }
+        this.mask = size - 1;
+    }
+
+    int size() {
+        return slots.length;
+    }
+
+    // Blocks while every slot is still held by the consumer.
+    long claim() {
+        int spins = 0;
+        while (true) {
+            long current = claimed.get();
+            long next = current + 1;
+            if (next - released > slots.length) {
+                spins = backOff(spins);
+            } else if (claimed.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    long lastClaimed() {
+        return claimed.get();
+    }
+
+    Slot slot(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    void publish(long sequence) {
+        slot(sequence).published = sequence;
+        if (consumerParked)
+            LockSupport.unpark(consumer);
+    }
+
+    // Consumer side. The last sequence of the run published from the given one, or one before it when there is none yet.
+    long lastPublished(long from) {
+        long sequence = from;
+        while (slot(sequence).published == sequence) {
+            sequence++;
+        }
+        return sequence - 1;
+    }
+
+    void release(long upTo) {
+        released = upTo;
+    }
+
+    // Parks the consumer until a producer publishes the given sequence or wakeConsumer() is called.
+    void awaitPublished(long sequence) {
+        consumer = Thread.currentThread();
+        for (int spins = 0; spins < SPINS; spins++) {
+            if (slot(sequence).published == sequence)
+                return;
+            Thread.yield();
+        }
+        consumerParked = true;
+        if (slot(sequence).published != sequence)
+            LockSupport.parkNanos(this, 1_000_000);
+        consumerParked = false;
+    }
+
+    void wakeConsumer() {
+        Thread thread = consumer;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    private static int backOff(int spins) {
+        if (spins < SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(1_000);
+        }
+        return spins + 1;
+    }
+
+    static final class Slot {
+        private volatile long published;
+        Completion completion;
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int[] ends = new int[4];
+        // Where the writer put each event, kept until the last one is in the log.
+        long[] addresses = new long[4];
+        int count;
+
+        Slot(long published) {
+            this.published = published;
+        }
+
+        // Encodes every event back to back; ends[i] is where the payload of the i-th event ends.
+        void encode(EventCodec codec, Iterable<? extends Event> events, int maxPayload) {
+            while (true) {
+                buffer.clear();
+                count = 0;
+                try {
+                    for (Event e : events) {
+                        if (count == ends.length)
+                            ends = Arrays.copyOf(ends, count * 2);
+                        codec.encode(e, buffer);
+                        ends[count] = buffer.position();
+                        int payloadLength = ends[count] - (count == 0 ? 0 : ends[count - 1]);
+                        if (payloadLength > maxPayload)
+                            throw new EventStoreException(String.format("Event of %d bytes does not fit in a segment", payloadLength));
+                        count++;
+                    }
+                    return;
+                } catch (BufferOverflowException e) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                }
+            }
+        }
+
+        ByteBuffer payload(int i) {
+            buffer.limit(ends[i]).position(i == 0 ? 0 : ends[i - 1]);
+            return buffer;
+        }
+    }
+
+    // The lightweight future of an append: one per producer thread, reused by every save of that thread.
+    static final class Completion {
+        private final Thread owner = Thread.currentThread();
+        UUID aggregateId;
+        Iterable<? extends Event> events;
+        int expectedVersion;
+        // Chains the completions of a run until it is durable.
+        Completion next;
+        long lastPosition;
+        private volatile boolean done;
+        private RuntimeException failure;
+
+        void reset(UUID aggregateId, Iterable<? extends Event> events, int expectedVersion) {
+            this.aggregateId = aggregateId;
+            this.events = events;
+            this.expectedVersion = expectedVersion;
+            this.next = null;
+            this.lastPosition = 0;
+            this.failure = null;
+            this.done = false;
+        }
+
+        void complete(RuntimeException failure) {
+            this.failure = failure;
+            this.events = null;
+            this.done = true;
+            LockSupport.unpark(owner);
+        }
+
+        // Returns the position of the last event appended.
+        long await() {
+            int spins = 0;
+            while (!done) {
+                if (spins++ < SPINS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            if (failure != null)
+                throw failure;
+            return lastPosition;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.nio.*;
+
+// CRC-32C (Castagnoli), which java.util.zip only has from Java 9 on. Slicing-by-8: eight lookup tables
+// let the loop consume a long at a time instead of a byte.
+final class Crc32c {
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            for (int t = 1; t < 8; t++) {
+                TABLES[t][n] = (TABLES[t - 1][n] >>> 8) ^ TABLES[0][TABLES[t - 1][n] & 0xFF];
+            }
+        }
+    }
+
+    private Crc32c() {
+    }
+
+    // Checksum of length bytes starting at offset, read with absolute gets so that the buffer position is left alone.
+    static int compute(ByteBuffer buffer, int offset, int length) {
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int crc = 0xFFFFFFFF;
+        int i = offset;
+        int end = offset + length;
+        boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+        for (; i + 8 <= end; i += 8) {
+            long word = buffer.getLong(i);
+            if (!littleEndian)
+                word = Long.reverseBytes(word);
+            int low = (int) word ^ crc;
+            int high = (int) (word >>> 32);
+            crc = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+                ^ t3[high & 0xFF] ^ t2[(high >>> 8) & 0xFF] ^ t1[(high >>> 16) & 0xFF] ^ t0[high >>> 24];
+        }
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ t0[(crc ^ buffer.get(i)) & 0xFF];
+        }
+        return ~crc;
+    }
+}
@@ -0,0 +1,52 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.util.concurrent.TimeUnit;
+
+public final class DurabilityPolicy {
+    public enum Mode { EVERY_WRITE, GROUP, OS_MANAGED }
+
+    public static final int DEFAULT_GROUP_BYTES = 1024 * 1024;
+
+    // Every save() forces the log to disk before returning.
+    public static final DurabilityPolicy EVERY_WRITE = new DurabilityPolicy(Mode.EVERY_WRITE, 0, 0);
+    // Saves return as soon as the events are in the page cache; the OS decides when to write them.
+    public static final DurabilityPolicy OS_MANAGED = new DurabilityPolicy(Mode.OS_MANAGED, 0, 0);
+
+    private final Mode mode;
+    private final long windowNanos;
+    private final int maxBatchBytes;
+
+    private DurabilityPolicy(Mode mode, long windowNanos, int maxBatchBytes) {
+        this.mode = mode;
+        this.windowNanos = windowNanos;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    // Concurrent saves within the window, or until the batch reaches maxBatchBytes, share one force.
+    public static DurabilityPolicy group(long window, TimeUnit unit) {
+        return group(window, unit, DEFAULT_GROUP_BYTES);
+    }
+
+    public static DurabilityPolicy group(long window, TimeUnit unit, int maxBatchBytes) {
+        if (window <= 0 || maxBatchBytes <= 0)
+            throw new IllegalArgumentException("Group commit window and batch size must be positive");
+        return new DurabilityPolicy(Mode.GROUP, unit.toNanos(window), maxBatchBytes);
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public long windowNanos() {
+        return windowNanos;
+    }
+
+    public int maxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.GROUP ? String.format("GROUP(%dus)", TimeUnit.NANOSECONDS.toMicros(windowNanos)) : mode.name();
+    }
+}
@@ -0,0 +1,634 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventEnvelope;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EnvelopeCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+
+public class FileEventStore implements EventStore, Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final EventCodec codec;
+    private final EventPublisher publisher;
+    private final DurabilityPolicy durability;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final AggregateIndex index;
+    private final GroupCommitter committer;
+    private final AppendRing ring;
+    private final Thread ringConsumer;
+    private final ThreadLocal<AppendRing.Completion> completions = ThreadLocal.withInitial(AppendRing.Completion::new);
+    private volatile boolean closing;
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+    private int flushedSegment;
+    private long lastPosition;
+    // Where the last write known to be durable ends; only used by the group committer thread.
+    private LogMark durable;
+
+    public FileEventStore(Path directory, EventPublisher publisher) {
+        this(directory, new JavaSerializationEventCodec(), publisher);
+    }
+
+    public FileEventStore(Path directory, EventCodec codec, EventPublisher publisher) {
+        this(directory, DEFAULT_SEGMENT_SIZE, codec, publisher);
+    }
+
+    public FileEventStore(Path directory, int segmentSize, EventPublisher publisher) {
+        this(directory, segmentSize, new JavaSerializationEventCodec(), publisher);
+    }
+
+    public FileEventStore(Path directory, int segmentSize, EventCodec codec, EventPublisher publisher) {
+        this(directory, segmentSize, codec, DurabilityPolicy.EVERY_WRITE, publisher);
+    }
+
+    public FileEventStore(Path directory, EventCodec codec, DurabilityPolicy durability, EventPublisher publisher) {
+        this(directory, DEFAULT_SEGMENT_SIZE, codec, durability, publisher);
+    }
+
+    public FileEventStore(Path directory, int segmentSize, EventCodec codec, DurabilityPolicy durability, EventPublisher publisher) {
+        this(directory, segmentSize, codec, durability, 0, publisher);
+    }
+
+    // With a ring size, single-stream saves go through an AppendRing of that many slots, drained by one writer thread.
+    public FileEventStore(Path directory, int segmentSize, EventCodec codec, DurabilityPolicy durability, int ringSize, EventPublisher publisher) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.codec = codec;
+        this.publisher = publisher;
+        this.durability = durability;
+        openSegments();
+        this.index = openIndex();
+        this.lastPosition = recoverLastPosition();
+        this.flushedSegment = activeSegment().index();
+        this.durable = mark();
+        this.committer = durability.mode() == DurabilityPolicy.Mode.GROUP
+            ? new GroupCommitter(durability, this::forceUnflushed, "group-commit-" + directory.getFileName())
+            : null;
+        this.ring = ringSize > 0 ? new AppendRing(ringSize) : null;
+        this.ringConsumer = ring != null ? new Thread(this::drainRing, "append-ring-" + directory.getFileName()) : null;
+        if (ringConsumer != null) {
+            ringConsumer.setDaemon(true);
+            ringConsumer.start();
+        }
+    }
+
+    // Returns once the events are as durable as the policy requires; under group commit
+    // the caller waits, outside the store lock, for the flush that covers its events.
+    @Override
+    public long save(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) throws OptimisticLockingException {
+        if (ring != null)
+            return saveThroughRing(aggregateId, newEvents, expectedVersion);
+        return save(Collections.singletonList(new StreamAppend(aggregateId, newEvents, expectedVersion)));
+    }
+
+    @Override
+    public long save(Collection<StreamAppend> appends) throws OptimisticLockingException {
+        List<StreamAppend> batch = new ArrayList<>(appends);
+        CompletableFuture<Void> flush = append(batch);
+        if (flush != null)
+            GroupCommitter.await(flush);
+        // On the caller thread and outside the store lock, so that the handlers hold up neither the other writers,
+        // nor the group committer, nor their own saves.
+        publish(batch);
+        return StreamAppend.lastPosition(appends);
+    }
+
+    // All the streams are checked and the whole batch is encoded before anything is written,
+    // then the batch is written back to back and made durable with a single force.
+    // Returns the flush to wait for under group commit, before the batch gets published.
+    private synchronized CompletableFuture<Void> append(List<StreamAppend> appends) {
+        StreamAppend.checkDistinct(appends);
+        List<Event> events = new ArrayList<>();
+        List<UUID> streams = new ArrayList<>();
+        for (StreamAppend append : appends) {
+            int currentVersion = index.version(append.aggregateId);
+            if (append.expectedVersion != currentVersion)
+                throw new OptimisticLockingException(String.format("Expected version %d does not match current stored version %d", append.expectedVersion, currentVersion));
+            for (Event e : append.events) {
+                events.add(e);
+                streams.add(append.aggregateId);
+            }
+        }
+        if (events.isEmpty())
+            return null;
+
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).position = lastPosition + i + 1;
+        }
+        int[] ends = encode(events);
+        int bytes = ends[ends.length - 1] + events.size() * Segment.HEADER_SIZE;
+        Segment segment = rollUnlessBatchFits(bytes);
+        LogMark start = mark();
+        long[] addresses = new long[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            scratch.limit(ends[i]);
+            if (!segment.fits(Segment.HEADER_SIZE + scratch.remaining())) {
+                segment = roll(i == 0 ? logEnd() : addresses[0]);
+            }
+            int offset = segment.append(streams.get(i), events.get(i).version, events.get(i).position, scratch, i < events.size() - 1);
+            addresses[i] = AggregateIndex.address(segment.index(), offset);
+        }
+        if (durability.mode() == DurabilityPolicy.Mode.EVERY_WRITE) {
+            try {
+                for (int i = start.segment; i < segments.size(); i++) {
+                    segments.get(i).force();
+                }
+            } catch (RuntimeException e) {
+                // A batch that cannot be made durable is taken back, so that it is neither loaded nor built upon.
+                truncate(start);
+                throw e;
+            }
+        }
+        // Loads only see the batch once every record of it is in the log, and each stream all of its part at once.
+        // Under group commit, a flush that fails takes it back out of the index along with the log.
+        for (int from = 0, to; from < events.size(); from = to) {
+            to = from + 1;
+            while (to < events.size() && streams.get(to).equals(streams.get(from))) {
+                to++;
+            }
+            index.add(streams.get(from), events.get(to - 1).version, addresses, from, to - from);
+        }
+        lastPosition += events.size();
+
+        if (durability.mode() == DurabilityPolicy.Mode.GROUP) {
+            LogMark end = mark();
+            return committer.submit(bytes, () -> durable = end);
+        }
+        return null;
+    }
+
+    // The events are encoded on the caller thread; the ring writer checks the version, writes and acknowledges.
+    private long saveThroughRing(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) {
+        if (closing)
+            throw new EventStoreException("Event store is closed");
+        AppendRing.Completion completion = completions.get();
+        long sequence = ring.claim();
+        AppendRing.Slot slot = ring.slot(sequence);
+        // A claimed slot must always be published, even empty, or the writer would wait for it forever.
+        slot.completion = null;
+        try {
+            if (closing)
+                throw new EventStoreException("Event store is closed");
+            slot.encode(codec, newEvents, segmentSize - Segment.HEADER_SIZE - Segment.FOOTER_SIZE);
+            completion.reset(aggregateId, newEvents, expectedVersion);
+            slot.completion = completion;
+        } finally {
+            ring.publish(sequence);
+        }
+        long position = completion.await();
+        // Published by the producer rather than the ring writer, so that a handler saving in turn never holds up the ring.
+        for (Event e : newEvents) {
+            publisher.publish(aggregateId, e);
+        }
+        return position;
+    }
+
+    private void drainRing() {
+        long next = 0;
+        while (true) {
+            long last = ring.lastPublished(next);
+            if (last < next) {
+                if (closing && ring.lastClaimed() < next)
+                    return;
+                ring.awaitPublished(next);
+                continue;
+            }
+            appendRun(next, last);
+            next = last + 1;
+        }
+    }
+
+    // Writes a contiguous run of the ring with one lock acquisition and makes it durable with a single force.
+    // The producers are acknowledged once the lock is released.
+    private void appendRun(long first, long last) {
+        AppendRing.Completion head = null;
+        RuntimeException failure = null;
+        synchronized (this) {
+            AppendRing.Completion tail = null;
+            int bytes = 0;
+            LogMark start = mark();
+            for (long sequence = first; sequence <= last; sequence++) {
+                AppendRing.Slot slot = ring.slot(sequence);
+                AppendRing.Completion completion = slot.completion;
+                slot.completion = null;
+                if (completion == null)
+                    continue;
+                try {
+                    bytes += appendSlot(slot, completion);
+                } catch (RuntimeException e) {
+                    completion.complete(e);
+                    continue;
+                }
+                if (head == null) {
+                    head = completion;
+                } else {
+                    tail.next = completion;
+                }
+                tail = completion;
+            }
+            ring.release(last);
+            if (head == null)
+                return;
+
+            AppendRing.Completion run = head;
+            switch (durability.mode()) {
+                case GROUP:
+                    LogMark end = mark();
+                    committer.submit(bytes, () -> {
+                        durable = end;
+                        acknowledge(run, null);
+                    }).whenComplete((ignored, error) -> {
+                        if (error != null)
+                            acknowledge(run, error instanceof RuntimeException ? (RuntimeException) error : new EventStoreException("Cannot flush the event store", error));
+                    });
+                    return;
+                case EVERY_WRITE:
+                    try {
+                        for (int i = start.segment; i < segments.size(); i++) {
+                            segments.get(i).force();
+                        }
+                    } catch (RuntimeException e) {
+                        // As with a locked save, the run is taken back rather than left to be loaded and built upon.
+                        // Nothing may escape the ring writer, or the producers would never be woken up.
+                        failure = e;
+                        try {
+                            truncate(start);
+                        } catch (RuntimeException suppressed) {
+                            e.addSuppressed(suppressed);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        acknowledge(head, failure);
+    }
+
+    private int appendSlot(AppendRing.Slot slot, AppendRing.Completion completion) {
+        int currentVersion = index.version(completion.aggregateId);
+        if (completion.expectedVersion != currentVersion)
+            throw new OptimisticLockingException(String.format("Expected version %d does not match current stored version %d", completion.expectedVersion, currentVersion));
+        int bytes = slot.count == 0 ? 0 : slot.ends[slot.count - 1] + slot.count * Segment.HEADER_SIZE;
+        Segment segment = rollUnlessBatchFits(bytes);
+        if (slot.addresses.length < slot.count)
+            slot.addresses = new long[slot.ends.length];
+        int i = 0;
+        int version = 0;
+        for (Event e : completion.events) {
+            ByteBuffer payload = slot.payload(i);
+            if (!segment.fits(Segment.HEADER_SIZE + payload.remaining())) {
+                segment = roll(i == 0 ? logEnd() : slot.addresses[0]);
+            }
+            e.position = ++lastPosition;
+            int offset = segment.append(completion.aggregateId, e.version, e.position, payload, i + 1 < slot.count);
+            slot.addresses[i++] = AggregateIndex.address(segment.index(), offset);
+            completion.lastPosition = e.position;
+            version = e.version;
+        }
+        // Loads only see the append once every record of it is in the log, and then all of it at once.
+        if (i > 0)
+            index.add(completion.aggregateId, version, slot.addresses, 0, i);
+        return bytes;
+    }
+
+    // Wakes up the producers of the run, which then publish their own events.
+    private void acknowledge(AppendRing.Completion run, RuntimeException failure) {
+        AppendRing.Completion completion = run;
+        while (completion != null) {
+            AppendRing.Completion next = completion.next;
+            completion.complete(failure);
+            completion = next;
+        }
+    }
+
+    private void publish(List<StreamAppend> appends) {
+        for (StreamAppend append : appends) {
+            for (Event e : append.events) {
+                publisher.publish(append.aggregateId, e);
+            }
+        }
+    }
+
+    // Called by the group committer thread only. Segments before the active one were forced when rolled.
+    // When the flush fails, everything appended after the last durable write is taken back, like a batch
+    // that cannot be forced under EVERY_WRITE, and the writes still queued fail with the flushed ones.
+    private void forceUnflushed() {
+        int last = segments.size() - 1;
+        try {
+            for (int i = flushedSegment; i <= last; i++) {
+                segments.get(i).force();
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                committer.failQueued(e);
+                truncate(durable);
+            }
+            throw e;
+        }
+        flushedSegment = last;
+    }
+
+    @Override
+    public List<? extends Event> load(UUID aggregateId) {
+        return load(aggregateId, 0);
+    }
+
+    @Override
+    public List<? extends Event> load(UUID aggregateId, int fromVersion) {
+        long[] addresses = index.addresses(aggregateId);
+        int from = firstAtOrAbove(addresses, fromVersion);
+        List<Event> aggregateEvents = new ArrayList<>(addresses.length - from);
+        for (int i = from; i < addresses.length; i++) {
+            aggregateEvents.add(read(segments.get(AggregateIndex.segmentOf(addresses[i])), AggregateIndex.offsetOf(addresses[i])));
+        }
+        return aggregateEvents;
+    }
+
+    @Override
+    public List<EventEnvelope> loadEnvelopes(UUID aggregateId, int fromVersion) {
+        long[] addresses = index.addresses(aggregateId);
+        int from = firstAtOrAbove(addresses, fromVersion);
+        List<EventEnvelope> envelopes = new ArrayList<>(addresses.length - from);
+        for (int i = from; i < addresses.length; i++) {
+            envelopes.add(readEnvelope(segments.get(AggregateIndex.segmentOf(addresses[i])), AggregateIndex.offsetOf(addresses[i])));
+        }
+        return envelopes;
+    }
+
+    // Binary search on the versions found in the record headers, without decoding any payload.
+    private int firstAtOrAbove(long[] addresses, int fromVersion) {
+        int low = 0;
+        int high = addresses.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            Segment segment = segments.get(AggregateIndex.segmentOf(addresses[middle]));
+            if (segment.version(AggregateIndex.offsetOf(addresses[middle])) < fromVersion) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public EventCursor readAll(long fromPosition) {
+        return new LogCursor(fromPosition);
+    }
+
+    @Override
+    public EnvelopeCursor readAllEnvelopes(long fromPosition) {
+        return new EnvelopeLogCursor(fromPosition);
+    }
+
+    private Event read(Segment segment, int offset) {
+        Event event = codec.decode(segment.payload(offset));
+        event.position = segment.position(offset);
+        return event;
+    }
+
+    // Segments are never unmapped while the store is in use, so the envelope can keep a view of the record.
+    private EventEnvelope readEnvelope(Segment segment, int offset) {
+        return codec.decodeEnvelope(segment.payload(offset), segment.position(offset));
+    }
+
+    // Lets the ring writer append what was submitted before the store closes.
+    @Override
+    public void close() {
+        closing = true;
+        if (ringConsumer != null) {
+            ring.wakeConsumer();
+            try {
+                ringConsumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // The committer may need the store lock to take back a failed flush, so it is not closed under it.
+        if (committer != null)
+            committer.close();
+        synchronized (this) {
+            index.save(directory, logEnd());
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    private void openSegments() {
+        try {
+            Files.createDirectories(directory);
+            List<Integer> indexes;
+            try (Stream<Path> files = Files.list(directory)) {
+                indexes = files
+                    .filter(p -> p.getFileName().toString().endsWith(".log"))
+                    .map(Segment::indexOf)
+                    .sorted()
+                    .collect(Collectors.toList());
+            }
+            for (int index : indexes) {
+                segments.add(Segment.open(directory, index, segmentSize));
+            }
+        } catch (IOException e) {
+            throw new EventStoreException("Cannot open event store in " + directory, e);
+        }
+        if (segments.isEmpty())
+            segments.add(Segment.open(directory, 0, segmentSize));
+    }
+
+    // Indexes what was appended after the checkpoint of the index file, or the whole log when the index is rebuilt.
+    private AggregateIndex openIndex() {
+        AggregateIndex index = AggregateIndex.load(directory);
+        if (index.checkpoint() > logEnd())
+            index = new AggregateIndex();
+        new IndexBuilder(ForkJoinPool.commonPool()).catchUp(index, segments);
+        return index;
+    }
+
+    private long recoverLastPosition() {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).limit() > 0)
+                return segments.get(i).lastPosition();
+        }
+        return 0;
+    }
+
+    // Index of the last segment starting at or before the position; an empty segment starts after every position.
+    private int segmentContaining(long position) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            long first = segments.get(middle).firstPosition();
+            if (first != 0 && first <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private long logEnd() {
+        Segment active = activeSegment();
+        return AggregateIndex.address(active.index(), active.limit());
+    }
+
+    private Segment activeSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private LogMark mark() {
+        Segment active = activeSegment();
+        return new LogMark(active.index(), active.limit(), active.lastPosition(), lastPosition);
+    }
+
+    // Takes back everything appended from the mark on, from the log and from the index.
+    // A roll saved the index with some of it, so the index file is saved again then.
+    private void truncate(LogMark mark) {
+        int last = segments.size() - 1;
+        for (int i = mark.segment; i <= last; i++) {
+            segments.get(i).truncate(i == mark.segment ? mark.limit : 0, i == mark.segment ? mark.segmentLastPosition : 0);
+        }
+        index.truncate(AggregateIndex.address(mark.segment, mark.limit));
+        lastPosition = mark.lastPosition;
+        if (mark.segment < last)
+            index.save(directory, logEnd());
+    }
+
+    // The checkpoint is where the records not yet in the index start, so that they are indexed again on restart.
+    // Recovery drops a batch that was not entirely written, which only works within a segment: a batch starts
+    // in a fresh segment when the active one cannot take all of it. Only a batch larger than a segment is split.
+    private Segment rollUnlessBatchFits(int bytes) {
+        Segment segment = activeSegment();
+        if (!segment.fits(bytes) && segment.limit() > 0)
+            return roll(logEnd());
+        return segment;
+    }
+
+    private Segment roll(long checkpoint) {
+        Segment current = activeSegment();
+        current.seal();
+        current.force();
+        index.save(directory, checkpoint);
+        Segment next = Segment.open(directory, current.index() + 1, segmentSize);
+        segments.add(next);
+        return next;
+    }
+
+    // Encodes the whole batch before touching the log, so that a failing event leaves no partial write behind.
+    private int[] encode(List<Event> events) {
+        int[] ends = new int[events.size()];
+        while (true) {
+            scratch.clear();
+            try {
+                for (int i = 0; i < events.size(); i++) {
+                    codec.encode(events.get(i), scratch);
+                    ends[i] = scratch.position();
+                    int payloadLength = ends[i] - (i == 0 ? 0 : ends[i - 1]);
+                    if (Segment.HEADER_SIZE + payloadLength > segmentSize - Segment.FOOTER_SIZE)
+                        throw new EventStoreException(String.format("Event of %d bytes does not fit in a segment of %d bytes", payloadLength, segmentSize));
+                }
+                scratch.flip();
+                return ends;
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+    }
+
+    private static final class LogMark {
+        final int segment;
+        final int limit;
+        final long segmentLastPosition;
+        final long lastPosition;
+
+        LogMark(int segment, int limit, long segmentLastPosition, long lastPosition) {
+            this.segment = segment;
+            this.limit = limit;
+            this.segmentLastPosition = segmentLastPosition;
+            this.lastPosition = lastPosition;
+        }
+    }
+
+    private abstract class LogWalk<T> implements Iterator<T> {
+        private final long fromPosition;
+        private int segment;
+        private int offset;
+
+        LogWalk(long fromPosition) {
+            this.fromPosition = fromPosition;
+            this.segment = segmentContaining(fromPosition);
+        }
+
+        // Follows the log as it grows: whatever was appended by the time hasNext() is called is returned.
+        @Override
+        public boolean hasNext() {
+            while (true) {
+                Segment current = segments.get(segment);
+                if (offset < current.limit()) {
+                    if (current.position(offset) >= fromPosition)
+                        return true;
+                    offset = current.next(offset);
+                } else if (segment + 1 < segments.size()) {
+                    segment++;
+                    offset = 0;
+                } else {
+                    return false;
+                }
+            }
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Segment current = segments.get(segment);
+            T item = readAt(current, offset);
+            offset = current.next(offset);
+            return item;
+        }
+
+        abstract T readAt(Segment segment, int offset);
+
+        public void close() {
+        }
+    }
+
+    private final class LogCursor extends LogWalk<Event> implements EventCursor {
+        LogCursor(long fromPosition) {
+            super(fromPosition);
+        }
+
+        @Override
+        Event readAt(Segment segment, int offset) {
+            return read(segment, offset);
+        }
+    }
+
+    private final class EnvelopeLogCursor extends LogWalk<EventEnvelope> implements EnvelopeCursor {
+        EnvelopeLogCursor(long fromPosition) {
+            super(fromPosition);
+        }
+
+        @Override
+        EventEnvelope readAt(Segment segment, int offset) {
+            return readEnvelope(segment, offset);
+        }
+    }
+}
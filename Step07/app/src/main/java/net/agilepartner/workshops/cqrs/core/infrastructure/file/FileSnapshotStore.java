@@ -0,0 +1,58 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.UUID;
+
+import net.agilepartner.workshops.cqrs.core.Snapshot;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.SnapshotStore;
+
+// One Java-serialized file per aggregate, replaced atomically by every save.
+public class FileSnapshotStore implements SnapshotStore {
+    private final Path directory;
+
+    public FileSnapshotStore(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new EventStoreException("Cannot open snapshot store in " + directory, e);
+        }
+    }
+
+    @Override
+    public Snapshot load(UUID aggregateId) {
+        Path file = fileOf(aggregateId);
+        if (!Files.exists(file))
+            return null;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return (Snapshot) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // A snapshot is only a shortcut: when it cannot be read the aggregate is replayed from its events.
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void save(Snapshot snapshot) {
+        Snapshot current = load(snapshot.aggregateId);
+        if (current != null && current.version >= snapshot.version)
+            return;
+
+        Path file = fileOf(snapshot.aggregateId);
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeObject(snapshot);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new EventStoreException("Cannot write snapshot " + file, e);
+        }
+    }
+
+    private Path fileOf(UUID aggregateId) {
+        return directory.resolve(aggregateId + ".snapshot");
+    }
+}
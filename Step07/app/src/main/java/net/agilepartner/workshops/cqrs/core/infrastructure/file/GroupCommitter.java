@@ -0,0 +1,151 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import net.agilepartner.workshops.cqrs.core.Guards;
+
+// Batches the writes appended within a window into a single flush. Writes are submitted
+// in log order and their completion callbacks run in that same order once the flush is done.
+final class GroupCommitter implements Closeable {
+    private final DurabilityPolicy policy;
+    private final Runnable flush;
+    private final Lock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final List<Write> queue = new ArrayList<>();
+    private final Thread thread;
+    private long queuedBytes;
+    private long firstQueuedAt;
+    private boolean running = true;
+
+    GroupCommitter(DurabilityPolicy policy, Runnable flush, String name) {
+        this.policy = policy;
+        this.flush = flush;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    CompletableFuture<Void> submit(int bytes, Runnable onDurable) {
+        Write write = new Write(onDurable);
+        lock.lock();
+        try {
+            if (!running)
+                throw new IllegalStateException("Group committer is closed");
+            if (queue.isEmpty())
+                firstQueuedAt = System.nanoTime();
+            queue.add(write);
+            queuedBytes += bytes;
+            if (queue.size() == 1 || queuedBytes >= policy.maxBatchBytes())
+                pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        return write.completion;
+    }
+
+    // Fails the writes not taken into a flush yet, once the log they were appended to has been taken back.
+    void failQueued(RuntimeException failure) {
+        List<Write> failed;
+        lock.lock();
+        try {
+            failed = new ArrayList<>(queue);
+            queue.clear();
+            queuedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+        for (Write write : failed) {
+            write.complete(failure);
+        }
+    }
+
+    static void await(CompletableFuture<Void> completion) {
+        try {
+            completion.join();
+        } catch (CompletionException e) {
+            throw Guards.propagate(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Write> batch;
+        while ((batch = nextBatch()) != null) {
+            RuntimeException failure = null;
+            try {
+                flush.run();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            for (Write write : batch) {
+                write.complete(failure);
+            }
+        }
+    }
+
+    private List<Write> nextBatch() {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (!running)
+                    return null;
+                pending.awaitUninterruptibly();
+            }
+            long deadline = firstQueuedAt + policy.windowNanos();
+            long remaining;
+            while (running && queuedBytes < policy.maxBatchBytes() && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    pending.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            List<Write> batch = new ArrayList<>(queue);
+            queue.clear();
+            queuedBytes = 0;
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Write {
+        final Runnable onDurable;
+        final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+        Write(Runnable onDurable) {
+            this.onDurable = onDurable;
+        }
+
+        void complete(RuntimeException flushFailure) {
+            if (flushFailure != null) {
+                completion.completeExceptionally(flushFailure);
+                return;
+            }
+            try {
+                onDurable.run();
+                completion.complete(null);
+            } catch (RuntimeException e) {
+                completion.completeExceptionally(e);
+            }
+        }
+    }
+}
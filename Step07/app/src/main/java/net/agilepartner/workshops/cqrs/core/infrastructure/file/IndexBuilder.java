@@ -0,0 +1,44 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Indexes the log from the checkpoint of an index on. Every segment is scanned into its own partial index
+// on a fork/join pool, and the partials are merged in segment order as they complete, so the addresses
+// of every aggregate stay in version order whatever the order the scans finish in.
+final class IndexBuilder {
+    private final ForkJoinPool pool;
+
+    IndexBuilder(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    void catchUp(AggregateIndex index, List<Segment> segments) {
+        long checkpoint = index.checkpoint();
+        int first = AggregateIndex.segmentOf(checkpoint);
+        if (first >= segments.size())
+            return;
+        // Partial indexes only pay for their merge when they are built at the same time.
+        if (first == segments.size() - 1 || pool.getParallelism() == 1) {
+            for (int i = first; i < segments.size(); i++) {
+                scan(segments.get(i), i == first ? AggregateIndex.offsetOf(checkpoint) : 0, index);
+            }
+            return;
+        }
+
+        List<ForkJoinTask<AggregateIndex>> partials = new ArrayList<>();
+        for (int i = first; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            int from = i == first ? AggregateIndex.offsetOf(checkpoint) : 0;
+            partials.add(pool.submit(() -> scan(segment, from, new AggregateIndex())));
+        }
+        for (ForkJoinTask<AggregateIndex> partial : partials) {
+            index.addAll(partial.join());
+        }
+    }
+
+    private static AggregateIndex scan(Segment segment, int from, AggregateIndex index) {
+        segment.forEach(from, (offset, msb, lsb, version, position) -> index.add(new UUID(msb, lsb), version, AggregateIndex.address(segment.index(), offset)));
+        return index;
+    }
+}
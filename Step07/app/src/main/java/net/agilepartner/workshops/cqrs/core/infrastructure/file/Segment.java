@@ -0,0 +1,237 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.UUID;
+
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+
+// A fixed-size, memory-mapped log file. Records are laid out back to back:
+// [int record length][int crc][byte flags][long aggregate msb][long aggregate lsb][int version][long position][payload]
+// The CRC-32C covers the record from the flags on. The records of one append are a batch: all but the last
+// are flagged CONTINUED. The file is zero-filled when created, so a zero length marks the end of the log.
+// A segment that is full gets sealed with a footer in its last bytes, which tells where its records end:
+// [long magic][int limit][long last position][int crc]
+final class Segment implements Closeable {
+    static final int HEADER_SIZE = 4 + 4 + 1 + 8 + 8 + 4 + 8;
+    static final int FOOTER_SIZE = 8 + 4 + 8 + 4;
+    private static final byte CONTINUED = 1;
+    private static final long SEALED = 0x5345414C45445345L;
+
+    private final int index;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private volatile int limit;
+    private volatile long lastPosition;
+    private boolean sealed;
+
+    private Segment(int index, Path path, FileChannel channel, MappedByteBuffer buffer, boolean created) {
+        this.index = index;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        if (!created) {
+            this.sealed = readFooter();
+            if (!sealed)
+                this.limit = recover();
+        }
+    }
+
+    static Segment open(Path directory, int index, int size) {
+        Path path = directory.resolve(fileName(index));
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = channel.size() == 0;
+            long length = Math.max(channel.size(), size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            return new Segment(index, path, channel, buffer, created);
+        } catch (IOException e) {
+            throw new EventStoreException("Cannot open segment " + path, e);
+        }
+    }
+
+    static String fileName(int index) {
+        return String.format("%010d.log", index);
+    }
+
+    static int indexOf(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - ".log".length()));
+    }
+
+    int index() {
+        return index;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int capacity() {
+        return buffer.capacity() - FOOTER_SIZE;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    // Zero when the segment is empty, positions start at one.
+    long firstPosition() {
+        return limit == 0 ? 0 : position(0);
+    }
+
+    long lastPosition() {
+        return lastPosition;
+    }
+
+    int version(int offset) {
+        return buffer.getInt(offset + 25);
+    }
+
+    long position(int offset) {
+        return buffer.getLong(offset + 29);
+    }
+
+    int next(int offset) {
+        return offset + buffer.getInt(offset);
+    }
+
+    boolean fits(int bytes) {
+        return (long) limit + bytes <= capacity();
+    }
+
+    // Only ever called by the single writer of the store. The batch goes on when continued is set.
+    int append(UUID aggregateId, int version, long position, ByteBuffer payload, boolean continued) {
+        int offset = limit;
+        int length = HEADER_SIZE + payload.remaining();
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset + 8);
+        target.put(continued ? CONTINUED : 0);
+        target.putLong(aggregateId.getMostSignificantBits());
+        target.putLong(aggregateId.getLeastSignificantBits());
+        target.putInt(version);
+        target.putLong(position);
+        target.put(payload);
+        buffer.putInt(offset + 4, Crc32c.compute(buffer, offset + 8, length - 8));
+        buffer.putInt(offset, length);
+        lastPosition = position;
+        limit = offset + length;
+        return offset;
+    }
+
+    void forEach(int from, RecordVisitor visitor) {
+        int end = limit;
+        int offset = from;
+        while (offset < end) {
+            int length = buffer.getInt(offset);
+            visitor.visit(offset, buffer.getLong(offset + 9), buffer.getLong(offset + 17), version(offset), position(offset));
+            offset += length;
+        }
+    }
+
+    ByteBuffer payload(int offset) {
+        int length = buffer.getInt(offset);
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length);
+        payload.position(offset + HEADER_SIZE);
+        return payload.slice().asReadOnlyBuffer();
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    // Takes back the records from end on, and the footer when sealed, for a batch that could not be made durable.
+    // Only ever called by the single writer of the store.
+    void truncate(int end, long lastPosition) {
+        int zeroed = sealed ? buffer.capacity() : limit;
+        for (int i = end; i < zeroed; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        this.lastPosition = lastPosition;
+        this.limit = end;
+        this.sealed = false;
+    }
+
+    // Written once the segment is full, so that opening the store trusts it without scanning its records.
+    void seal() {
+        int footer = capacity();
+        buffer.putLong(footer, SEALED);
+        buffer.putInt(footer + 8, limit);
+        buffer.putLong(footer + 12, lastPosition);
+        buffer.putInt(footer + 20, Crc32c.compute(buffer, footer, 20));
+        sealed = true;
+    }
+
+    @Override
+    public void close() {
+        try {
+            force();
+            channel.close();
+        } catch (IOException e) {
+            throw new EventStoreException("Cannot close segment " + path, e);
+        }
+    }
+
+    private boolean readFooter() {
+        int footer = capacity();
+        if (footer < 0 || buffer.getLong(footer) != SEALED || buffer.getInt(footer + 20) != Crc32c.compute(buffer, footer, 20))
+            return false;
+        int sealedLimit = buffer.getInt(footer + 8);
+        if (sealedLimit < 0 || sealedLimit > footer)
+            return false;
+        limit = sealedLimit;
+        lastPosition = buffer.getLong(footer + 12);
+        return true;
+    }
+
+    // Keeps the records up to the end of the last complete batch whose checksums all match, and zeroes
+    // whatever follows, so that a torn write can neither be read nor come back once the log grows again.
+    private int recover() {
+        int offset = 0;
+        int end = 0;
+        long batchPosition = 0;
+        while (offset + HEADER_SIZE <= capacity()) {
+            int length = buffer.getInt(offset);
+            if (length < HEADER_SIZE || offset + length > capacity() || buffer.getInt(offset + 4) != Crc32c.compute(buffer, offset + 8, length - 8))
+                break;
+            offset += length;
+            if (buffer.get(offset - length + 8) != CONTINUED) {
+                end = offset;
+                batchPosition = position(offset - length);
+            }
+        }
+        lastPosition = batchPosition;
+        if (!isZero(end, capacity())) {
+            for (int i = end; i < capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            force();
+        }
+        return end;
+    }
+
+    private boolean isZero(int from, int to) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            if (buffer.getLong(i) != 0)
+                return false;
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    interface RecordVisitor {
+        void visit(int offset, long mostSigBits, long leastSigBits, int version, long position);
+    }
+}
@@ -0,0 +1,341 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.jdbc;
+
+import java.io.Closeable;
+import java.nio.*;
+import java.sql.*;
+import java.util.*;
+
+import javax.sql.DataSource;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+
+// Events are rows of a single table. The unique (aggregate_id, version) constraint is what guarantees
+// optimistic concurrency between processes: the version check below only produces a readable message.
+// Positions are not identity values, which are handed out at insert time and lost on rollback: every save
+// locks the single row of the event_positions table until it commits, and numbers its events from there.
+// Positions then follow each other with no gap and are committed in order, whichever process writes them,
+// so a reader never skips a position that commits late. The price is that saves to the store take turns.
+// Writes go through one connection whose prepared statements are reused; reads borrow their own.
+public class JdbcEventStore implements EventStore, Closeable {
+    public static final String SCHEMA =
+        "CREATE TABLE IF NOT EXISTS events (" +
+        "position BIGINT PRIMARY KEY, " +
+        "aggregate_id BINARY(16) NOT NULL, " +
+        "version INT NOT NULL, " +
+        "payload VARBINARY(65535) NOT NULL, " +
+        "CONSTRAINT events_stream UNIQUE (aggregate_id, version))";
+    public static final String POSITIONS_SCHEMA =
+        "CREATE TABLE IF NOT EXISTS event_positions (" +
+        "id INT PRIMARY KEY, " +
+        "last_position BIGINT NOT NULL)";
+    // Carries on from the events already stored, when the table of positions comes after them.
+    private static final String POSITIONS_ROW =
+        "INSERT INTO event_positions SELECT 0, last_position FROM (SELECT COALESCE(MAX(position), 0) AS last_position FROM events) stored " +
+        "WHERE NOT EXISTS (SELECT 1 FROM event_positions)";
+    private static final String INSERT = "INSERT INTO events (position, aggregate_id, version, payload) VALUES (?, ?, ?, ?)";
+    private static final String CURRENT_VERSION = "SELECT MAX(version) FROM events WHERE aggregate_id = ?";
+    private static final String LOCK_LAST_POSITION = "SELECT last_position FROM event_positions WHERE id = 0 FOR UPDATE";
+    private static final String UPDATE_LAST_POSITION = "UPDATE event_positions SET last_position = ? WHERE id = 0";
+    private static final String LOAD = "SELECT position, payload FROM events WHERE aggregate_id = ? AND version >= ? ORDER BY version";
+    private static final String READ_ALL = "SELECT position, payload FROM events WHERE position >= ? ORDER BY position";
+    private static final int FETCH_SIZE = 256;
+
+    private final DataSource dataSource;
+    private final EventCodec codec;
+    private final EventPublisher publisher;
+    private final boolean batchInserts;
+    private final Connection writer;
+    private final PreparedStatement insert;
+    private final PreparedStatement currentVersion;
+    private final PreparedStatement lockLastPosition;
+    private final PreparedStatement updateLastPosition;
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+
+    public JdbcEventStore(DataSource dataSource, EventCodec codec, EventPublisher publisher) {
+        this(dataSource, codec, publisher, true);
+    }
+
+    public JdbcEventStore(DataSource dataSource, EventCodec codec, EventPublisher publisher, boolean batchInserts) {
+        this.dataSource = dataSource;
+        this.codec = codec;
+        this.publisher = publisher;
+        this.batchInserts = batchInserts;
+        try {
+            this.writer = dataSource.getConnection();
+            this.writer.setAutoCommit(false);
+            this.insert = writer.prepareStatement(INSERT);
+            this.currentVersion = writer.prepareStatement(CURRENT_VERSION);
+            this.lockLastPosition = writer.prepareStatement(LOCK_LAST_POSITION);
+            this.updateLastPosition = writer.prepareStatement(UPDATE_LAST_POSITION);
+        } catch (SQLException e) {
+            throw new EventStoreException("Cannot connect to the event store database", e);
+        }
+    }
+
+    // Creates the tables with the DDL of H2; other databases need their own.
+    public static void createSchema(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(SCHEMA);
+            statement.execute(POSITIONS_SCHEMA);
+            statement.execute(POSITIONS_ROW);
+        } catch (SQLException e) {
+            throw new EventStoreException("Cannot create the events table", e);
+        }
+    }
+
+    @Override
+    public long save(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) throws OptimisticLockingException {
+        return save(Collections.singletonList(new StreamAppend(aggregateId, newEvents, expectedVersion)));
+    }
+
+    // All the streams are written in one transaction, which holds the lock on the last position until it ends.
+    @Override
+    public synchronized long save(Collection<StreamAppend> appends) throws OptimisticLockingException {
+        StreamAppend.checkDistinct(appends);
+        try {
+            long position = lockLastPosition();
+            boolean empty = true;
+            for (StreamAppend append : appends) {
+                int current = currentVersion(toBytes(append.aggregateId));
+                if (append.expectedVersion != current)
+                    throw new OptimisticLockingException(String.format("Expected version %d does not match current stored version %d", append.expectedVersion, current));
+                empty &= append.events.isEmpty();
+            }
+            if (empty) {
+                rollback();
+                return 0;
+            }
+
+            for (StreamAppend append : appends) {
+                byte[] id = toBytes(append.aggregateId);
+                for (Event e : append.events) {
+                    e.position = ++position;
+                    insert.setLong(1, e.position);
+                    insert.setBytes(2, id);
+                    insert.setInt(3, e.version);
+                    insert.setBytes(4, encode(e));
+                    if (batchInserts) {
+                        insert.addBatch();
+                    } else {
+                        insert.executeUpdate();
+                    }
+                }
+            }
+            if (batchInserts)
+                insert.executeBatch();
+            updateLastPosition.setLong(1, position);
+            updateLastPosition.executeUpdate();
+            writer.commit();
+        } catch (SQLException e) {
+            rollback();
+            if (isDuplicateKey(e))
+                throw conflict(appends);
+            throw new EventStoreException("Cannot save events of aggregates " + ids(appends), e);
+        } catch (RuntimeException e) {
+            rollback();
+            throw e;
+        }
+
+        for (StreamAppend append : appends) {
+            for (Event e : append.events) {
+                publisher.publish(append.aggregateId, e);
+            }
+        }
+        return StreamAppend.lastPosition(appends);
+    }
+
+    @Override
+    public List<? extends Event> load(UUID aggregateId) {
+        return load(aggregateId, 0);
+    }
+
+    // Rows are decoded as they are fetched rather than read into memory first.
+    @Override
+    public List<? extends Event> load(UUID aggregateId, int fromVersion) {
+        try (Connection connection = dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(LOAD)) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setBytes(1, toBytes(aggregateId));
+            statement.setInt(2, fromVersion);
+            List<Event> events = new ArrayList<>();
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    events.add(decode(rows));
+                }
+            }
+            return events;
+        } catch (SQLException e) {
+            throw new EventStoreException("Cannot load events of aggregate " + aggregateId, e);
+        }
+    }
+
+    // The cursor holds a connection and an open result set until it is closed.
+    @Override
+    public EventCursor readAll(long fromPosition) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(READ_ALL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setLong(1, fromPosition);
+            return new RowCursor(connection, statement.executeQuery());
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            throw new EventStoreException("Cannot read events from position " + fromPosition, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (SQLException e) {
+            throw new EventStoreException("Cannot close the event store connection", e);
+        }
+    }
+
+    private int currentVersion(byte[] id) throws SQLException {
+        currentVersion.setBytes(1, id);
+        try (ResultSet rows = currentVersion.executeQuery()) {
+            return rows.next() ? rows.getInt(1) : 0;
+        }
+    }
+
+    // Another writer got in between the version check and the insert; reports the first stream that moved.
+    private OptimisticLockingException conflict(Collection<StreamAppend> appends) {
+        StreamAppend first = appends.iterator().next();
+        for (StreamAppend append : appends) {
+            String current = currentVersionOrUnknown(toBytes(append.aggregateId));
+            if (!current.equals(Integer.toString(append.expectedVersion)))
+                return new OptimisticLockingException(String.format("Expected version %d does not match current stored version %s", append.expectedVersion, current));
+        }
+        return new OptimisticLockingException(String.format("Expected version %d does not match current stored version %s", first.expectedVersion, currentVersionOrUnknown(toBytes(first.aggregateId))));
+    }
+
+    private static String ids(Collection<StreamAppend> appends) {
+        StringJoiner ids = new StringJoiner(", ");
+        for (StreamAppend append : appends) {
+            ids.add(append.aggregateId.toString());
+        }
+        return ids.toString();
+    }
+
+    private String currentVersionOrUnknown(byte[] id) {
+        try {
+            int version = currentVersion(id);
+            writer.commit();
+            return Integer.toString(version);
+        } catch (SQLException e) {
+            return "unknown";
+        }
+    }
+
+    // Other writers wait on the row until this transaction commits or rolls back.
+    private long lockLastPosition() throws SQLException {
+        try (ResultSet rows = lockLastPosition.executeQuery()) {
+            if (!rows.next())
+                throw new EventStoreException("The event_positions table has no row; create the schema with createSchema()");
+            return rows.getLong(1);
+        }
+    }
+
+    private Event decode(ResultSet rows) throws SQLException {
+        Event event = codec.decode(ByteBuffer.wrap(rows.getBytes(2)));
+        event.position = rows.getLong(1);
+        return event;
+    }
+
+    private byte[] encode(Event event) {
+        while (true) {
+            scratch.clear();
+            try {
+                codec.encode(event, scratch);
+                return Arrays.copyOf(scratch.array(), scratch.position());
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+    }
+
+    // Also drops the rows a failed save left in the batch of the reused insert, or the next save would commit them.
+    private void rollback() {
+        try {
+            insert.clearBatch();
+            writer.rollback();
+        } catch (SQLException e) {
+            // The original failure is what the caller needs to see.
+        }
+    }
+
+    // Integrity constraint violations share the SQLSTATE class 23; batches chain the cause.
+    private static boolean isDuplicateKey(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            if (cause instanceof SQLIntegrityConstraintViolationException || (cause.getSQLState() != null && cause.getSQLState().startsWith("23")))
+                return true;
+        }
+        return false;
+    }
+
+    private static byte[] toBytes(UUID id) {
+        return ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array();
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Nothing more can be done.
+        }
+    }
+
+    private final class RowCursor implements EventCursor {
+        private final Connection connection;
+        private final ResultSet rows;
+        private boolean fetched;
+        private boolean available;
+
+        RowCursor(Connection connection, ResultSet rows) {
+            this.connection = connection;
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!fetched) {
+                try {
+                    available = rows.next();
+                } catch (SQLException e) {
+                    throw new EventStoreException("Cannot read the next event", e);
+                }
+                fetched = true;
+            }
+            return available;
+        }
+
+        @Override
+        public Event next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            fetched = false;
+            try {
+                return decode(rows);
+            } catch (SQLException e) {
+                throw new EventStoreException("Cannot read the next event", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(rows);
+            closeQuietly(connection);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+// A concurrent map keyed on UUIDs that keeps both halves of every key inline in a long array next to an array
+// of values, with linear probing, so an entry costs twenty bytes a slot instead of a UUID and a node: 27 to 40
+// bytes an entry as the load of a table goes from three quarters down to a half on resize.
+// Keys are spread over stripes, each one a table guarded by a StampedLock used as a seqlock: writers take
+// the write lock, readers probe the table optimistically and only take the read lock when a write got
+// in the way. Null values are not supported: an empty slot is one without a value.
+public final class ConcurrentUuidMap<V> {
+    private static final int STRIPE_BITS = 6;
+    private static final float MAX_LOAD = 0.75f;
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    public ConcurrentUuidMap() {
+        this(1024);
+    }
+
+    public ConcurrentUuidMap(int expectedSize) {
+        int slots = Integer.highestOneBit(Math.max(8, (int) (expectedSize / MAX_LOAD / stripes.length) + 1) * 2 - 1);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(slots);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(UUID key) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        Stripe stripe = stripeOf(hash);
+        StampedLock lock = stripe.lock;
+        long stamp = lock.tryOptimisticRead();
+        Object value = stripe.table.get(msb, lsb, hash);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = stripe.table.get(msb, lsb, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return (V) value;
+    }
+
+    // Returns the previous value, or null.
+    @SuppressWarnings("unchecked")
+    public V put(UUID key, V value) {
+        Objects.requireNonNull(value);
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        Stripe stripe = stripeOf(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return (V) stripe.put(msb, lsb, hash, value);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    // The function runs under the lock of the stripe, so it must not use the map.
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(UUID key, Function<UUID, ? extends V> function) {
+        V existing = get(key);
+        if (existing != null)
+            return existing;
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        Stripe stripe = stripeOf(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            Object value = stripe.table.get(msb, lsb, hash);
+            if (value == null) {
+                value = Objects.requireNonNull(function.apply(key));
+                stripe.put(msb, lsb, hash, value);
+            }
+            return (V) value;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    // Returns the removed value, or null.
+    @SuppressWarnings("unchecked")
+    public V remove(UUID key) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        Stripe stripe = stripeOf(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return (V) stripe.remove(msb, lsb, hash, null);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    // Only removes the entry while it maps to this very value.
+    public boolean remove(UUID key, V value) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        Stripe stripe = stripeOf(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return stripe.remove(msb, lsb, hash, value) != null;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    // A copy of the values, consistent within each stripe.
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> values = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                for (Object value : stripe.table.values) {
+                    if (value != null)
+                        values.add((V) value);
+                }
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return values;
+    }
+
+    // The bytes taken by the tables, not counting the values themselves nor the object headers.
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            Table table = stripe.table;
+            bytes += table.keys.length * 8L + table.values.length * (long) REFERENCE_SIZE;
+        }
+        return bytes;
+    }
+
+    private static final int REFERENCE_SIZE = referenceSize();
+
+    // Compressed references are the default below 32 GB of heap.
+    private static int referenceSize() {
+        return Runtime.getRuntime().maxMemory() < (32L << 30) ? 4 : 8;
+    }
+
+    private Stripe stripeOf(int hash) {
+        return stripes[hash >>> (32 - STRIPE_BITS)];
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return (int) h;
+    }
+
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        // Replaced as a whole on resize, so that an optimistic reader always sees keys and values of the same size.
+        volatile Table table;
+        volatile int size;
+
+        Stripe(int slots) {
+            this.table = new Table(slots);
+        }
+
+        // Called under the write lock.
+        Object put(long msb, long lsb, int hash, Object value) {
+            Table current = table;
+            int slot = current.slotOf(msb, lsb, hash);
+            if (slot >= 0) {
+                Object previous = current.values[slot];
+                current.values[slot] = value;
+                return previous;
+            }
+            if (size + 1 > current.values.length * MAX_LOAD)
+                current = resize(current);
+            current.insert(msb, lsb, hash, value);
+            size++;
+            return null;
+        }
+
+        // Called under the write lock. Removes the entry unless expected is given and is not its value.
+        Object remove(long msb, long lsb, int hash, Object expected) {
+            Table current = table;
+            int slot = current.slotOf(msb, lsb, hash);
+            if (slot < 0 || (expected != null && current.values[slot] != expected))
+                return null;
+            Object previous = current.values[slot];
+            current.delete(slot);
+            size--;
+            return previous;
+        }
+
+        private Table resize(Table current) {
+            // Growing by half keeps the load between a half and three quarters.
+            Table resized = new Table(current.values.length + current.values.length / 2);
+            for (int slot = 0; slot < current.values.length; slot++) {
+                Object value = current.values[slot];
+                if (value != null) {
+                    long msb = current.keys[slot * 2];
+                    long lsb = current.keys[slot * 2 + 1];
+                    resized.insert(msb, lsb, hash(msb, lsb), value);
+                }
+            }
+            table = resized;
+            return resized;
+        }
+    }
+
+    // Any number of slots, so that a resize can grow the table by half rather than double it. The home slot of a key
+    // scales the hash bits the stripe did not use to the length of the table.
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+
+        Table(int slots) {
+            this.keys = new long[slots * 2];
+            this.values = new Object[slots];
+        }
+
+        int home(int hash) {
+            return (int) (((hash << STRIPE_BITS) & 0xFFFFFFFFL) * values.length >>> 32);
+        }
+
+        int next(int slot) {
+            return slot + 1 == values.length ? 0 : slot + 1;
+        }
+
+        // How far the slot is from the given home slot, going forward and wrapping around.
+        int distance(int home, int slot) {
+            return slot >= home ? slot - home : slot - home + values.length;
+        }
+
+        // May run while a writer changes the table: the probe is bounded so that a torn read ends, and the
+        // caller validates what it found.
+        Object get(long msb, long lsb, int hash) {
+            int slot = home(hash);
+            for (int probes = 0; probes < values.length; probes++) {
+                Object value = values[slot];
+                if (value == null)
+                    return null;
+                if (keys[slot * 2] == msb && keys[slot * 2 + 1] == lsb)
+                    return value;
+                slot = next(slot);
+            }
+            return null;
+        }
+
+        int slotOf(long msb, long lsb, int hash) {
+            for (int slot = home(hash); values[slot] != null; slot = next(slot)) {
+                if (keys[slot * 2] == msb && keys[slot * 2 + 1] == lsb)
+                    return slot;
+            }
+            return -1;
+        }
+
+        void insert(long msb, long lsb, int hash, Object value) {
+            int slot = home(hash);
+            while (values[slot] != null) {
+                slot = next(slot);
+            }
+            keys[slot * 2] = msb;
+            keys[slot * 2 + 1] = lsb;
+            values[slot] = value;
+        }
+
+        // Backward shift: the entries following the hole move into it whenever that keeps them reachable
+        // from their home slot, so the table never needs tombstones.
+        void delete(int slot) {
+            int hole = slot;
+            for (int next = next(hole); values[next] != null; next = next(next)) {
+                int home = home(hash(keys[next * 2], keys[next * 2 + 1]));
+                if (distance(home, next) >= distance(hole, next)) {
+                    keys[hole * 2] = keys[next * 2];
+                    keys[hole * 2 + 1] = keys[next * 2 + 1];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+            }
+            values[hole] = null;
+        }
+    }
+}
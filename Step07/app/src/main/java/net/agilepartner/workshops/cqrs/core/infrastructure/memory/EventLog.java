@@ -0,0 +1,166 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+
+// Append-only array of events. There is a single writer at a time; readers take the size
+// once and never look past it, so they need no lock. Growing copies into a new array and
+// leaves the old one, which still holds everything below the size its readers saw, untouched.
+// Writers claim the log by swapping its version for CLAIMED, so that checking the expected
+// version and taking the right to append are one atomic step. The archiver claims it as ARCHIVING
+// instead, which writers wait out rather than take for a version mismatch. An archived log has dropped
+// its events, which then live in cold storage, and cannot be claimed until it is restored.
+final class EventLog {
+    private static final int CLAIMED = -1;
+    private static final int ARCHIVED = -2;
+    private static final int ARCHIVING = -3;
+
+    private final UUID aggregateId;
+    private final int number;
+    private final AtomicInteger version = new AtomicInteger();
+    private volatile Event[] events = new Event[4];
+    private volatile int size;
+
+    EventLog(UUID aggregateId, int number) {
+        this.aggregateId = aggregateId;
+        this.number = number;
+    }
+
+    UUID aggregateId() {
+        return aggregateId;
+    }
+
+    int number() {
+        return number;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Null when the log is archived.
+    Event get(int index) {
+        Event[] snapshot = events;
+        return snapshot == null ? null : snapshot[index];
+    }
+
+    boolean tryClaim(int expectedVersion) {
+        return expectedVersion >= 0 && version.compareAndSet(expectedVersion, CLAIMED);
+    }
+
+    boolean tryClaimForArchive(int expectedVersion) {
+        return expectedVersion >= 0 && version.compareAndSet(expectedVersion, ARCHIVING);
+    }
+
+    void release(int newVersion) {
+        version.set(newVersion);
+    }
+
+    // Being copied to cold storage, or already gone there.
+    boolean isArchivedOrArchiving() {
+        int current = version.get();
+        return current == ARCHIVED || current == ARCHIVING;
+    }
+
+    // While a claim is held this is the version of the last event appended so far.
+    int version() {
+        int current = version.get();
+        if (current >= 0)
+            return current;
+        Event last = last();
+        return last == null ? 0 : last.version;
+    }
+
+    Event last() {
+        int count = size;
+        Event[] snapshot = events;
+        return count == 0 || snapshot == null ? null : snapshot[count - 1];
+    }
+
+    // Must be called by the archiver holding the claim, once the events are safe in cold storage.
+    void archive() {
+        events = null;
+        version.set(ARCHIVED);
+    }
+
+    // Must be called while no one else can reach the log for writing.
+    void restore(List<? extends Event> archived) {
+        Event[] restored = archived.toArray(new Event[Math.max(archived.size(), 4)]);
+        size = archived.size();
+        events = restored;
+        version.set(archived.isEmpty() ? 0 : archived.get(archived.size() - 1).version);
+    }
+
+    // A read-only view of the events appended so far, or null when the log is archived.
+    // Nothing is copied and later appends are not visible.
+    List<Event> view() {
+        int count = size;
+        Event[] snapshot = events;
+        return snapshot == null ? null : view(snapshot, 0, count);
+    }
+
+    // Versions increase along a stream, so the first event at or above fromVersion is found by binary search.
+    List<Event> viewFromVersion(int fromVersion) {
+        int count = size;
+        Event[] snapshot = events;
+        if (snapshot == null)
+            return null;
+        return view(snapshot, firstAtOrAbove(snapshot, count, fromVersion), count);
+    }
+
+    static int firstAtOrAbove(List<? extends Event> events, int fromVersion) {
+        int low = 0;
+        int high = events.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (events.get(middle).version < fromVersion) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int firstAtOrAbove(Event[] events, int count, int fromVersion) {
+        return firstAtOrAbove(view(events, 0, count), fromVersion);
+    }
+
+    private static List<Event> view(Event[] events, int from, int to) {
+        return from >= to ? Collections.emptyList() : new View(events, from, to);
+    }
+
+    void append(Event event) {
+        Event[] current = events;
+        if (size == current.length)
+            events = current = Arrays.copyOf(current, size * 2);
+        current[size] = event;
+        size = size + 1;
+    }
+
+    private static final class View extends AbstractList<Event> implements RandomAccess {
+        private final Event[] events;
+        private final int from;
+        private final int size;
+
+        View(Event[] events, int from, int to) {
+            this.events = events;
+            this.from = from;
+            this.size = to - from;
+        }
+
+        @Override
+        public Event get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return events[from + index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+
+// The store-wide order of events. Every position holds the number of its stream and the index
+// of the event within it rather than the event itself, so that archiving a stream frees its events.
+// Writers reserve a contiguous range of positions with a single atomic add and fill their slots
+// without any lock; a slot stays zero until its writer has set it, and readers stop there.
+final class GlobalLog {
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final AtomicLong reserved = new AtomicLong();
+    private final AtomicInteger lastStream = new AtomicInteger();
+    private volatile AtomicLongArray[] positions = new AtomicLongArray[16];
+    @SuppressWarnings("unchecked")
+    private volatile AtomicReferenceArray<EventLog>[] streams = (AtomicReferenceArray<EventLog>[]) new AtomicReferenceArray<?>[16];
+
+    // Stream numbers start at one, so that a written slot is never zero.
+    EventLog newStream(UUID aggregateId) {
+        int number = lastStream.incrementAndGet();
+        EventLog stream = new EventLog(aggregateId, number);
+        streamChunk(number >>> CHUNK_BITS, true).set(number & (CHUNK_SIZE - 1), stream);
+        return stream;
+    }
+
+    EventLog stream(int number) {
+        return streamChunk(number >>> CHUNK_BITS, false).get(number & (CHUNK_SIZE - 1));
+    }
+
+    // Returns the first of count positions, which start at one.
+    long reserve(int count) {
+        return reserved.getAndAdd(count) + 1;
+    }
+
+    // Appends the events of every claimed stream under one contiguous range of count positions, the last of which is returned.
+    long append(EventLog[] streams, List<StreamAppend> appends, int count) {
+        long position = reserve(count);
+        for (int i = 0; i < streams.length; i++) {
+            for (Event e : appends.get(i).events) {
+                e.position = position++;
+                streams[i].append(e);
+                set(e.position, streams[i].number(), streams[i].size() - 1);
+            }
+        }
+        return position - 1;
+    }
+
+    void set(long position, int stream, int index) {
+        long slot = position - 1;
+        positionChunk((int) (slot >>> CHUNK_BITS), true).set((int) (slot & (CHUNK_SIZE - 1)), ((long) stream << 32) | index);
+    }
+
+    // Zero when the position has not been written yet.
+    long get(long position) {
+        long slot = position - 1;
+        AtomicLongArray chunk = positionChunk((int) (slot >>> CHUNK_BITS), false);
+        return chunk == null ? 0 : chunk.get((int) (slot & (CHUNK_SIZE - 1)));
+    }
+
+    static int streamOf(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    static int indexOf(long entry) {
+        return (int) entry;
+    }
+
+    private AtomicLongArray positionChunk(int index, boolean create) {
+        AtomicLongArray[] current = positions;
+        if (index < current.length && current[index] != null)
+            return current[index];
+        if (!create)
+            return null;
+        synchronized (this) {
+            current = positions;
+            if (index >= current.length)
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            if (current[index] == null)
+                current[index] = new AtomicLongArray(CHUNK_SIZE);
+            positions = current;
+            return current[index];
+        }
+    }
+
+    private AtomicReferenceArray<EventLog> streamChunk(int index, boolean create) {
+        AtomicReferenceArray<EventLog>[] current = streams;
+        if (index < current.length && current[index] != null)
+            return current[index];
+        if (!create)
+            return null;
+        synchronized (this) {
+            current = streams;
+            if (index >= current.length)
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            if (current[index] == null)
+                current[index] = new AtomicReferenceArray<>(CHUNK_SIZE);
+            streams = current;
+            return current[index];
+        }
+    }
+}
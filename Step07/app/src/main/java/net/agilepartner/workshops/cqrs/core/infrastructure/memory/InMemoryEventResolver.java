@@ -25,6 +25,11 @@ public class InMemoryEventResolver implements EventResolver {
         return concreteHandlers;
     }
 
+    @Override
+    public boolean hasHandlersFor(Class<?> evtClass) {
+        return eventHandlers.containsKey(evtClass.getSimpleName());
+    }
+
     @Override
     public <T extends Event> void register(EventHandler<T> handler, Class<?> evtClass) {
         List<EventHandler<?>> handlers;
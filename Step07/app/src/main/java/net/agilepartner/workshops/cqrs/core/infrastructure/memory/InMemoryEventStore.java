@@ -2,44 +2,229 @@ package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Predicate;
 
 import net.agilepartner.workshops.cqrs.core.Event;
 import net.agilepartner.workshops.cqrs.core.EventPublisher;
-import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
 import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.core.infrastructure.archive.*;
 
-public class InMemoryEventStore implements EventStore {
+public class InMemoryEventStore implements ArchivableEventStore {
 
-    private final Map<UUID, List<Event>> events = new ConcurrentHashMap<>();
+    private final ConcurrentUuidMap<EventLog> streams = new ConcurrentUuidMap<>();
+    private final GlobalLog log = new GlobalLog();
     private final EventPublisher publisher;
+    private final ColdStorage coldStorage;
 
     public InMemoryEventStore(EventPublisher publisher) {
+        this(publisher, null);
+    }
+
+    public InMemoryEventStore(EventPublisher publisher, ColdStorage coldStorage) {
         this.publisher = publisher;
+        this.coldStorage = coldStorage;
     }
 
+    // The expected version check and the right to append are taken in one compare-and-set on the stream,
+    // so saves on one aggregate are linearizable and saves on different aggregates never wait for each other.
     @Override
-    public void save(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) throws OptimisticLockingException {
-        List<Event> existingEvents;
-        int currentVersion = 0;
-        if (events.containsKey(aggregateId)) {
-            existingEvents = events.get(aggregateId);
-            currentVersion = existingEvents.get(existingEvents.size() - 1).version;
-        } else {
-            existingEvents = new ArrayList<>();
-            events.put(aggregateId, existingEvents);
+    public long save(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) throws OptimisticLockingException {
+        EventLog stream = claim(aggregateId, expectedVersion);
+        int version = expectedVersion;
+        try {
+            List<Event> events = new ArrayList<>();
+            for (Event e : newEvents) {
+                events.add(e);
+            }
+            if (events.isEmpty())
+                return 0;
+
+            long position = log.reserve(events.size());
+            for (Event e : events) {
+                e.position = position++;
+                stream.append(e);
+                log.set(e.position, stream.number(), stream.size() - 1);
+                version = e.version;
+            }
+            for (Event e : events) {
+                publisher.publish(aggregateId, e);
+            }
+            return position - 1;
+        } finally {
+            stream.release(version);
         }
-        if (expectedVersion != currentVersion)
-            throw new OptimisticLockingException(String.format("Expected version %d does not match current stored version %d", expectedVersion, currentVersion));
+    }
+
+    // Every stream is claimed before anything is appended, and a mismatch on any of them releases
+    // the claims already taken, so either all the streams are appended to or none is.
+    @Override
+    public long save(Collection<StreamAppend> appends) throws OptimisticLockingException {
+        StreamAppend.checkDistinct(appends);
+        List<StreamAppend> batch = new ArrayList<>(appends);
+        EventLog[] claimed = new EventLog[batch.size()];
+        int[] versions = new int[batch.size()];
+        try {
+            int count = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                StreamAppend append = batch.get(i);
+                claimed[i] = claim(append.aggregateId, append.expectedVersion);
+                versions[i] = append.expectedVersion;
+                count += append.events.size();
+            }
+            if (count == 0)
+                return 0;
+
+            long lastPosition = log.append(claimed, batch, count);
+            for (int i = 0; i < batch.size(); i++) {
+                versions[i] = lastVersion(batch.get(i));
+            }
+            for (StreamAppend append : batch) {
+                for (Event e : append.events) {
+                    publisher.publish(append.aggregateId, e);
+                }
+            }
+            return lastPosition;
+        } finally {
+            for (int i = 0; i < claimed.length; i++) {
+                if (claimed[i] != null)
+                    claimed[i].release(versions[i]);
+            }
+        }
+    }
+
+    static int lastVersion(StreamAppend append) {
+        List<? extends Event> events = append.events;
+        return events.isEmpty() ? append.expectedVersion : events.get(events.size() - 1).version;
+    }
 
-        for (Event e : newEvents) {
-            existingEvents.add(e);
-            publisher.publish(aggregateId, e);
+    private EventLog claim(UUID aggregateId, int expectedVersion) {
+        EventLog stream = hotStream(aggregateId);
+        while (!stream.tryClaim(expectedVersion)) {
+            if (!stream.isArchivedOrArchiving())
+                throw new OptimisticLockingException(String.format("Expected version %d does not match current stored version %d", expectedVersion, stream.version()));
+            // Being moved to cold storage: wait until it is gone from the hot streams and bring it back,
+            // or until the archiver gives it back when the copy failed.
+            Thread.yield();
+            stream = hotStream(aggregateId);
         }
+        return stream;
+    }
+
+    @Override
+    public EventCursor readAll(long fromPosition) {
+        return new LogCursor(Math.max(fromPosition, 1));
     }
 
     @Override
     public List<? extends Event> load(UUID aggregateId) {
-        List<? extends Event> aggregateEvents = events.getOrDefault(aggregateId, new ArrayList<>());
-        return new ArrayList<>(aggregateEvents);
+        EventLog stream = streams.get(aggregateId);
+        List<Event> events = stream == null ? null : stream.view();
+        return events != null ? events : loadArchived(aggregateId, 0);
+    }
+
+    @Override
+    public List<? extends Event> load(UUID aggregateId, int fromVersion) {
+        EventLog stream = streams.get(aggregateId);
+        List<Event> events = stream == null ? null : stream.viewFromVersion(fromVersion);
+        return events != null ? events : loadArchived(aggregateId, fromVersion);
+    }
+
+    // Streams are checked one at a time; a stream being written to is skipped until the next run.
+    @Override
+    public int archive(Predicate<Event> lastEvent) {
+        if (coldStorage == null)
+            throw new IllegalStateException("No cold storage to archive to");
+        int archived = 0;
+        for (EventLog stream : streams.values()) {
+            Event last = stream.last();
+            if (last == null || !lastEvent.test(last) || !stream.tryClaimForArchive(last.version))
+                continue;
+            try {
+                coldStorage.put(stream.aggregateId(), stream.view());
+            } catch (RuntimeException e) {
+                stream.release(last.version);
+                throw e;
+            }
+            stream.archive();
+            streams.remove(stream.aggregateId(), stream);
+            archived++;
+        }
+        return archived;
+    }
+
+    public int hotStreams() {
+        return streams.size();
+    }
+
+    private EventLog hotStream(UUID aggregateId) {
+        return streams.computeIfAbsent(aggregateId, this::newOrRestoredStream);
+    }
+
+    // An archived stream comes back into the log it was archived from, so that its positions stay valid.
+    // The cold copy is left behind: the hot stream takes precedence and the next archive replaces it.
+    private EventLog newOrRestoredStream(UUID aggregateId) {
+        List<Event> archived = coldStorage == null ? null : coldStorage.load(aggregateId);
+        if (archived == null)
+            return log.newStream(aggregateId);
+        EventLog stream = log.stream(GlobalLog.streamOf(log.get(archived.get(0).position)));
+        stream.restore(archived);
+        return stream;
+    }
+
+    private List<? extends Event> loadArchived(UUID aggregateId, int fromVersion) {
+        List<Event> archived = coldStorage == null ? null : coldStorage.load(aggregateId);
+        if (archived == null) {
+            // Restored since we looked at the hot streams.
+            EventLog stream = streams.get(aggregateId);
+            List<Event> events = stream == null ? null : stream.viewFromVersion(fromVersion);
+            return events == null ? Collections.emptyList() : events;
+        }
+        return Collections.unmodifiableList(archived.subList(EventLog.firstAtOrAbove(archived, fromVersion), archived.size()));
+    }
+
+    private final class LogCursor implements EventCursor {
+        private long next;
+        private int coldStream;
+        private List<Event> coldEvents;
+
+        LogCursor(long fromPosition) {
+            this.next = fromPosition;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return log.get(next) != 0;
+        }
+
+        @Override
+        public Event next() {
+            long entry = log.get(next);
+            if (entry == 0)
+                throw new NoSuchElementException();
+            next++;
+            return resolve(log.stream(GlobalLog.streamOf(entry)), GlobalLog.indexOf(entry));
+        }
+
+        // An archived stream is put in cold storage before it drops its events and gets them back
+        // before it can change again, so one of the two always has the event.
+        private Event resolve(EventLog stream, int index) {
+            while (true) {
+                Event event = stream.get(index);
+                if (event != null)
+                    return event;
+                if (coldStream != stream.number() || coldEvents == null || index >= coldEvents.size()) {
+                    coldEvents = coldStorage.load(stream.aggregateId());
+                    coldStream = stream.number();
+                }
+                if (coldEvents != null && index < coldEvents.size())
+                    return coldEvents.get(index);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
     }
 }
@@ -15,7 +15,8 @@ public class InMemoryRepository<T extends AggregateRoot> implements Repository<T
     }
 
     @Override
-    public void save(T aggregate) {
+    public long save(T aggregate) {
         map.putIfAbsent(aggregate.getId(), aggregate);
+        return 0;
     }
 }
@@ -0,0 +1,22 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.agilepartner.workshops.cqrs.core.Snapshot;
+import net.agilepartner.workshops.cqrs.core.infrastructure.SnapshotStore;
+
+public class InMemorySnapshotStore implements SnapshotStore {
+
+    private final Map<UUID, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    @Override
+    public Snapshot load(UUID aggregateId) {
+        return snapshots.get(aggregateId);
+    }
+
+    @Override
+    public void save(Snapshot snapshot) {
+        snapshots.merge(snapshot.aggregateId, snapshot, (current, candidate) -> candidate.version > current.version ? candidate : current);
+    }
+}
@@ -0,0 +1,333 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventEnvelope;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EnvelopeCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+
+// Keeps encoded events in direct buffers outside of the Java heap, so the garbage collector only
+// ever sees a few objects per stream whatever the number of events. Events are decoded on load.
+// Records are laid out back to back in fixed-size arenas: [int length][int version][long position][payload]
+// and addressed by the arena index in the upper 32 bits and the offset in the lower ones.
+public class OffHeapEventStore implements EventStore {
+    public static final int DEFAULT_ARENA_SIZE = 64 * 1024 * 1024;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int POSITION_CHUNK_BITS = 16;
+    private static final int POSITION_CHUNK_SIZE = 1 << POSITION_CHUNK_BITS;
+
+    private final EventCodec codec;
+    private final EventPublisher publisher;
+    private final int arenaSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private final ConcurrentUuidMap<Integer> index = new ConcurrentUuidMap<>();
+    private long[][] streamAddresses = new long[1024][];
+    private int[] streamSizes = new int[1024];
+    private int[] streamVersions = new int[1024];
+    private int streams;
+    private long[][] positions = new long[16][];
+    private long lastPosition;
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+
+    public OffHeapEventStore(EventCodec codec, EventPublisher publisher) {
+        this(codec, DEFAULT_ARENA_SIZE, publisher);
+    }
+
+    public OffHeapEventStore(EventCodec codec, int arenaSize, EventPublisher publisher) {
+        this.codec = codec;
+        this.arenaSize = arenaSize;
+        this.publisher = publisher;
+        this.arenas.add(ByteBuffer.allocateDirect(arenaSize));
+    }
+
+    @Override
+    public long save(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) throws OptimisticLockingException {
+        return save(Collections.singletonList(new StreamAppend(aggregateId, newEvents, expectedVersion)));
+    }
+
+    @Override
+    public long save(Collection<StreamAppend> appends) throws OptimisticLockingException {
+        StreamAppend.checkDistinct(appends);
+        List<Event> events = new ArrayList<>();
+        for (StreamAppend append : appends) {
+            events.addAll(append.events);
+        }
+
+        long position;
+        lock.writeLock().lock();
+        try {
+            for (StreamAppend append : appends) {
+                Integer stream = index.get(append.aggregateId);
+                int currentVersion = stream == null ? 0 : streamVersions[stream];
+                if (append.expectedVersion != currentVersion)
+                    throw new OptimisticLockingException(String.format("Expected version %d does not match current stored version %d", append.expectedVersion, currentVersion));
+            }
+            if (events.isEmpty())
+                return 0;
+
+            int[] ends = encode(events);
+            int start = 0;
+            int i = 0;
+            for (StreamAppend append : appends) {
+                if (append.events.isEmpty())
+                    continue;
+                Integer stream = index.get(append.aggregateId);
+                if (stream == null)
+                    stream = newStream(append.aggregateId);
+                for (Event e : append.events) {
+                    e.position = ++lastPosition;
+                    scratch.limit(ends[i]).position(start);
+                    long address = append(e.version, e.position, scratch);
+                    addToStream(stream, e.version, address);
+                    addPosition(e.position, address);
+                    start = ends[i++];
+                }
+            }
+            position = lastPosition;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // Once the lock is released, so that readers and writers never wait on the handlers.
+        for (StreamAppend append : appends) {
+            for (Event e : append.events) {
+                publisher.publish(append.aggregateId, e);
+            }
+        }
+        return position;
+    }
+
+    @Override
+    public List<? extends Event> load(UUID aggregateId) {
+        return load(aggregateId, 0);
+    }
+
+    @Override
+    public List<? extends Event> load(UUID aggregateId, int fromVersion) {
+        lock.readLock().lock();
+        try {
+            Integer stream = index.get(aggregateId);
+            if (stream == null)
+                return Collections.emptyList();
+            long[] addresses = streamAddresses[stream];
+            int size = streamSizes[stream];
+            int from = firstAtOrAbove(addresses, size, fromVersion);
+            List<Event> events = new ArrayList<>(size - from);
+            for (int i = from; i < size; i++) {
+                events.add(read(addresses[i]));
+            }
+            return events;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<EventEnvelope> loadEnvelopes(UUID aggregateId, int fromVersion) {
+        lock.readLock().lock();
+        try {
+            Integer stream = index.get(aggregateId);
+            if (stream == null)
+                return Collections.emptyList();
+            long[] addresses = streamAddresses[stream];
+            int size = streamSizes[stream];
+            int from = firstAtOrAbove(addresses, size, fromVersion);
+            List<EventEnvelope> envelopes = new ArrayList<>(size - from);
+            for (int i = from; i < size; i++) {
+                envelopes.add(readEnvelope(addresses[i]));
+            }
+            return envelopes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public EventCursor readAll(long fromPosition) {
+        return new EventCursor() {
+            private long next = Math.max(fromPosition, 1);
+
+            @Override
+            public boolean hasNext() {
+                lock.readLock().lock();
+                try {
+                    return next <= lastPosition;
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public Event next() {
+                lock.readLock().lock();
+                try {
+                    if (next > lastPosition)
+                        throw new NoSuchElementException();
+                    return read(addressOf(next++));
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public EnvelopeCursor readAllEnvelopes(long fromPosition) {
+        return new EnvelopeCursor() {
+            private long next = Math.max(fromPosition, 1);
+
+            @Override
+            public boolean hasNext() {
+                lock.readLock().lock();
+                try {
+                    return next <= lastPosition;
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public EventEnvelope next() {
+                lock.readLock().lock();
+                try {
+                    if (next > lastPosition)
+                        throw new NoSuchElementException();
+                    return readEnvelope(addressOf(next++));
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    // Bytes held outside of the heap, for monitoring.
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) arenas.size() * arenaSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long addressOf(long position) {
+        return positions[(int) ((position - 1) >>> POSITION_CHUNK_BITS)][(int) ((position - 1) & (POSITION_CHUNK_SIZE - 1))];
+    }
+
+    private Event read(long address) {
+        ByteBuffer arena = arenas.get((int) (address >>> 32)).duplicate();
+        int offset = (int) address;
+        int length = arena.getInt(offset);
+        arena.limit(offset + length).position(offset + HEADER_SIZE);
+        Event event = codec.decode(arena.slice());
+        event.position = arena.getLong(offset + 8);
+        return event;
+    }
+
+    // Arenas are only ever appended to, so the envelope can keep a view of the record after the lock is released.
+    private EventEnvelope readEnvelope(long address) {
+        ByteBuffer arena = arenas.get((int) (address >>> 32)).duplicate();
+        int offset = (int) address;
+        int length = arena.getInt(offset);
+        arena.limit(offset + length).position(offset + HEADER_SIZE);
+        return codec.decodeEnvelope(arena.slice(), arena.getLong(offset + 8));
+    }
+
+    private long append(int version, long position, ByteBuffer payload) {
+        int length = HEADER_SIZE + payload.remaining();
+        ByteBuffer arena = arenas.get(arenas.size() - 1);
+        if (arena.remaining() < length) {
+            arena = ByteBuffer.allocateDirect(arenaSize);
+            arenas.add(arena);
+        }
+        int offset = arena.position();
+        arena.putInt(length);
+        arena.putInt(version);
+        arena.putLong(position);
+        arena.put(payload);
+        return ((long) (arenas.size() - 1) << 32) | offset;
+    }
+
+    private int newStream(UUID aggregateId) {
+        int stream = streams++;
+        if (stream == streamSizes.length) {
+            streamAddresses = Arrays.copyOf(streamAddresses, stream * 2);
+            streamSizes = Arrays.copyOf(streamSizes, stream * 2);
+            streamVersions = Arrays.copyOf(streamVersions, stream * 2);
+        }
+        streamAddresses[stream] = new long[4];
+        index.put(aggregateId, stream);
+        return stream;
+    }
+
+    private void addToStream(int stream, int version, long address) {
+        long[] addresses = streamAddresses[stream];
+        int size = streamSizes[stream];
+        if (size == addresses.length)
+            addresses = streamAddresses[stream] = Arrays.copyOf(addresses, size * 2);
+        addresses[size] = address;
+        streamSizes[stream] = size + 1;
+        streamVersions[stream] = version;
+    }
+
+    private void addPosition(long position, long address) {
+        int chunk = (int) ((position - 1) >>> POSITION_CHUNK_BITS);
+        if (chunk == positions.length)
+            positions = Arrays.copyOf(positions, chunk * 2);
+        if (positions[chunk] == null)
+            positions[chunk] = new long[POSITION_CHUNK_SIZE];
+        positions[chunk][(int) ((position - 1) & (POSITION_CHUNK_SIZE - 1))] = address;
+    }
+
+    private int firstAtOrAbove(long[] addresses, int size, int fromVersion) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            long address = addresses[middle];
+            if (arenas.get((int) (address >>> 32)).getInt((int) address + 4) < fromVersion) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Encodes the whole batch before touching the arenas, so that a failing event leaves no partial write behind.
+    private int[] encode(List<Event> events) {
+        int[] ends = new int[events.size()];
+        while (true) {
+            scratch.clear();
+            try {
+                for (int i = 0; i < events.size(); i++) {
+                    codec.encode(events.get(i), scratch);
+                    ends[i] = scratch.position();
+                    int payloadLength = ends[i] - (i == 0 ? 0 : ends[i - 1]);
+                    if (HEADER_SIZE + payloadLength > arenaSize)
+                        throw new EventStoreException(String.format("Event of %d bytes does not fit in an arena of %d bytes", payloadLength, arenaSize));
+                }
+                return ends;
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+import net.agilepartner.workshops.cqrs.core.Guards;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+
+// Hashes every aggregate to one of N partitions. A partition owns the index and the logs of its streams
+// and a single writer thread fed by a bounded queue, so the appends to an aggregate are applied in the
+// order they were submitted and partitions write in parallel. The partitions only share the store-wide
+// order of events, which costs every append one atomic add.
+public class PartitionedEventStore implements EventStore, Closeable {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final int MAX_BATCH = 256;
+
+    private final GlobalLog log = new GlobalLog();
+    private final Partition[] partitions;
+    private final EventPublisher publisher;
+
+    public PartitionedEventStore(int partitionCount, EventPublisher publisher) {
+        this(partitionCount, DEFAULT_QUEUE_CAPACITY, publisher);
+    }
+
+    public PartitionedEventStore(int partitionCount, int queueCapacity, EventPublisher publisher) {
+        if (partitionCount < 1)
+            throw new IllegalArgumentException("At least one partition is required");
+        this.publisher = publisher;
+        this.partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i, queueCapacity);
+        }
+    }
+
+    public int partitionCount() {
+        return partitions.length;
+    }
+
+    @Override
+    public long save(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) throws OptimisticLockingException {
+        return save(Collections.singletonList(new StreamAppend(aggregateId, newEvents, expectedVersion)));
+    }
+
+    // An append spanning several partitions is applied by the writer of the first one. It claims the streams
+    // of the other partitions the way InMemoryEventStore does, so it stays all or none while their writers go on;
+    // a save racing with it on one of those streams fails with an OptimisticLockingException.
+    @Override
+    public long save(Collection<StreamAppend> appends) throws OptimisticLockingException {
+        StreamAppend.checkDistinct(appends);
+        if (appends.isEmpty())
+            return 0;
+        return partitionOf(appends.iterator().next().aggregateId).submit(new ArrayList<>(appends));
+    }
+
+    @Override
+    public List<? extends Event> load(UUID aggregateId) {
+        EventLog stream = partitionOf(aggregateId).streams.get(aggregateId);
+        return stream == null ? Collections.emptyList() : stream.view();
+    }
+
+    @Override
+    public List<? extends Event> load(UUID aggregateId, int fromVersion) {
+        EventLog stream = partitionOf(aggregateId).streams.get(aggregateId);
+        return stream == null ? Collections.emptyList() : stream.viewFromVersion(fromVersion);
+    }
+
+    @Override
+    public EventCursor readAll(long fromPosition) {
+        return new LogCursor(Math.max(fromPosition, 1));
+    }
+
+    // Waits for the writers to apply what is already queued; saves submitted afterwards are refused.
+    @Override
+    public void close() {
+        for (Partition partition : partitions) {
+            partition.close();
+        }
+    }
+
+    private Partition partitionOf(UUID aggregateId) {
+        return partitions[Math.floorMod(aggregateId.hashCode(), partitions.length)];
+    }
+
+    // Runs on the writer thread of a partition.
+    private long apply(List<StreamAppend> batch) {
+        EventLog[] claimed = new EventLog[batch.size()];
+        int[] versions = new int[batch.size()];
+        try {
+            int count = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                StreamAppend append = batch.get(i);
+                EventLog stream = partitionOf(append.aggregateId).stream(append.aggregateId);
+                if (!stream.tryClaim(append.expectedVersion))
+                    throw new OptimisticLockingException(String.format("Expected version %d does not match current stored version %d", append.expectedVersion, stream.version()));
+                claimed[i] = stream;
+                versions[i] = append.expectedVersion;
+                count += append.events.size();
+            }
+            if (count == 0)
+                return 0;
+
+            long lastPosition = log.append(claimed, batch, count);
+            for (int i = 0; i < batch.size(); i++) {
+                versions[i] = InMemoryEventStore.lastVersion(batch.get(i));
+            }
+            return lastPosition;
+        } finally {
+            for (int i = 0; i < claimed.length; i++) {
+                if (claimed[i] != null)
+                    claimed[i].release(versions[i]);
+            }
+        }
+    }
+
+    private final class Partition implements Runnable {
+        private final ConcurrentUuidMap<EventLog> streams = new ConcurrentUuidMap<>();
+        private final BlockingQueue<Request> queue;
+        private final Thread writer;
+        private volatile boolean closed;
+
+        Partition(int index, int queueCapacity) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.writer = new Thread(this, "partition-writer-" + index);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        EventLog stream(UUID aggregateId) {
+            return streams.computeIfAbsent(aggregateId, log::newStream);
+        }
+
+        // Blocks while the queue is full, then until the writer has applied the appends, which are published
+        // on the caller thread: a handler saving to this partition would otherwise wait on its own writer.
+        long submit(List<StreamAppend> appends) {
+            if (closed)
+                throw new EventStoreException("Event store is closed");
+            Request request = new Request(appends);
+            try {
+                queue.put(request);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EventStoreException("Interrupted while queuing appends", e);
+            }
+            // Queued after close() drained the queue: nobody else will ever complete it.
+            if (closed && queue.remove(request))
+                throw new EventStoreException("Event store is closed");
+            long lastPosition;
+            try {
+                lastPosition = request.done.join();
+            } catch (CompletionException e) {
+                throw Guards.propagate(e.getCause());
+            }
+            for (StreamAppend append : appends) {
+                for (Event e : append.events) {
+                    publisher.publish(append.aggregateId, e);
+                }
+            }
+            return lastPosition;
+        }
+
+        @Override
+        public void run() {
+            List<Request> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (int i = 0; i < batch.size(); i++) {
+                    Request request = batch.get(i);
+                    if (request == Request.STOP) {
+                        refuse(batch.subList(i + 1, batch.size()));
+                        return;
+                    }
+                    try {
+                        request.done.complete(apply(request.appends));
+                    } catch (RuntimeException e) {
+                        request.done.completeExceptionally(e);
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        void close() {
+            closed = true;
+            try {
+                queue.put(Request.STOP);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                writer.interrupt();
+            }
+            List<Request> pending = new ArrayList<>();
+            queue.drainTo(pending);
+            refuse(pending);
+        }
+
+        private void refuse(List<Request> requests) {
+            for (Request request : requests) {
+                request.done.completeExceptionally(new EventStoreException("Event store is closed"));
+            }
+        }
+    }
+
+    private static final class Request {
+        static final Request STOP = new Request(Collections.emptyList());
+
+        final List<StreamAppend> appends;
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        Request(List<StreamAppend> appends) {
+            this.appends = appends;
+        }
+    }
+
+    private final class LogCursor implements EventCursor {
+        private long next;
+
+        LogCursor(long fromPosition) {
+            this.next = fromPosition;
+        }
+
+        // Stops at the first position not written yet, even when a faster partition has written further.
+        @Override
+        public boolean hasNext() {
+            return log.get(next) != 0;
+        }
+
+        @Override
+        public Event next() {
+            long entry = log.get(next);
+            if (entry == 0)
+                throw new NoSuchElementException();
+            next++;
+            return log.stream(GlobalLog.streamOf(entry)).get(GlobalLog.indexOf(entry));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -11,9 +11,9 @@ public class CheckInventoryItemInHandler implements CommandHandler<CheckInventor
     } 
 
     @Override
-    public void handle(CheckInventoryItemIn command) throws InventoryItemDeactivatedException  {
+    public long handle(CheckInventoryItemIn command) throws InventoryItemDeactivatedException  {
         InventoryItem item = repository.getById(command.aggregateId);
         item.checkIn(command.quantity);
-        repository.save(item);
+        return repository.save(item);
     }
 }
\ No newline at end of file
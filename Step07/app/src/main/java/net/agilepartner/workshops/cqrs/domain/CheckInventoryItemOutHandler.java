@@ -11,9 +11,9 @@ public class CheckInventoryItemOutHandler implements CommandHandler<CheckInvento
     }
 
     @Override
-    public void handle(CheckInventoryItemOut command) throws NotEnoughStockException, InventoryItemDeactivatedException  {
+    public long handle(CheckInventoryItemOut command) throws NotEnoughStockException, InventoryItemDeactivatedException  {
         InventoryItem item = repository.getById(command.aggregateId);
         item.checkOut(command.quantity);
-        repository.save(item);
+        return repository.save(item);
     }
 }
\ No newline at end of file
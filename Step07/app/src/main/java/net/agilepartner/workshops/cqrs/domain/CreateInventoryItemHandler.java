@@ -11,8 +11,8 @@ public class CreateInventoryItemHandler implements CommandHandler<CreateInventor
     } 
 
     @Override
-    public void handle(CreateInventoryItem command) {
+    public long handle(CreateInventoryItem command) {
         InventoryItem item = InventoryItem.create(command.aggregateId, command.name, command.initialQuantity);
-        repository.save(item);
+        return repository.save(item);
     }
 }
\ No newline at end of file
@@ -11,9 +11,9 @@ public class DeactivateInventoryItemHandler implements CommandHandler<Deactivate
     } 
 
     @Override
-    public void handle(DeactivateInventoryItem command) {
+    public long handle(DeactivateInventoryItem command) {
         InventoryItem item = repository.getById(command.aggregateId);
         item.deactivate();;
-        repository.save(item);
+        return repository.save(item);
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package net.agilepartner.workshops.cqrs.domain;
 
+import java.io.Serializable;
 import java.util.UUID;
 
 import net.agilepartner.workshops.cqrs.core.AggregateRoot;
@@ -52,35 +53,58 @@ public class InventoryItem extends AggregateRoot {
             raise(InventoryItemDeactivated.create(id));
     }
 
+    @Override
+    protected Serializable snapshotState() {
+        return new State(name, stock, active);
+    }
+
+    @Override
+    protected void restoreSnapshotState(Serializable snapshotState) {
+        State state = (State) snapshotState;
+        this.name = state.name;
+        this.stock = state.stock;
+        this.active = state.active;
+    }
+
     private void checkActivated() throws InventoryItemDeactivatedException {
         if (!active)
             throw new InventoryItemDeactivatedException(String.format("Inventory Item %s (id %s) is deactivated", name, id.toString()));
     }
 
-    @SuppressWarnings("unused")
-    private void apply(InventoryItemCreated evt) {
+    // Package-private rather than private, so that the generated InventoryItemApplyDispatcher can call them directly.
+    void apply(InventoryItemCreated evt) {
         this.name = evt.name;
         this.stock = evt.quantity;
         this.active = true;
     }
 
-    @SuppressWarnings("unused")
-    private void apply(InventoryItemRenamed evt) {
+    void apply(InventoryItemRenamed evt) {
         this.name = evt.name;
     }
 
-    @SuppressWarnings("unused")
-    private void apply(InventoryItemCheckedIn evt) {
+    void apply(InventoryItemCheckedIn evt) {
         this.stock += evt.quantity;
     }
 
-    @SuppressWarnings("unused")
-    private void apply(InventoryItemCheckedOut evt) {
+    void apply(InventoryItemCheckedOut evt) {
         this.stock -= evt.quantity;
     }
 
-    @SuppressWarnings("unused")
-    private void apply(InventoryItemDeactivated evt) {
+    void apply(InventoryItemDeactivated evt) {
         this.active = false;
     }
-}
\ No newline at end of file
+
+    private static final class State implements Serializable {
+        private final String name;
+        private final int stock;
+        private final Boolean active;
+
+        State(String name, int stock, Boolean active) {
+            this.name = name;
+            this.stock = stock;
+            this.active = active;
+        }
+
+        private static final long serialVersionUID = 4390124470734587011L;
+    }
+}
@@ -0,0 +1,17 @@
+package net.agilepartner.workshops.cqrs.domain;
+
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.EventTypeRegistry;
+
+public final class InventoryItemEvents {
+    private InventoryItemEvents() {}
+
+    // Type ids are persisted with every event: never reuse or renumber them.
+    public static EventTypeRegistry register(EventTypeRegistry registry) {
+        registry.register(1, InventoryItemCreated.class);
+        registry.register(2, InventoryItemRenamed.class);
+        registry.register(3, InventoryItemCheckedIn.class);
+        registry.register(4, InventoryItemCheckedOut.class);
+        registry.register(5, InventoryItemDeactivated.class);
+        return registry;
+    }
+}
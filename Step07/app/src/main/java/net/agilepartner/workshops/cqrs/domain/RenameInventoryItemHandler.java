@@ -11,9 +11,9 @@ public class RenameInventoryItemHandler implements CommandHandler<RenameInventor
     } 
 
     @Override
-    public void handle(RenameInventoryItem command) throws InventoryItemDeactivatedException  {
+    public long handle(RenameInventoryItem command) throws InventoryItemDeactivatedException  {
         InventoryItem item = repository.getById(command.aggregateId);
         item.rename(command.name);
-        repository.save(item);
+        return repository.save(item);
     }
 }
\ No newline at end of file
@@ -4,10 +4,16 @@ import java.util.*;
 import java.util.concurrent.*;
 
 import net.agilepartner.workshops.cqrs.core.*;
+import net.agilepartner.workshops.cqrs.core.infrastructure.CatchUpSubscription;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.PositionWatermark;
+import net.agilepartner.workshops.cqrs.core.infrastructure.Subscriptions;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.ConcurrentUuidMap;
 import net.agilepartner.workshops.cqrs.domain.*;
 
 public class InventoryView {
-    private final Map<UUID, InventoryItemReadModel> inventory = new ConcurrentHashMap<>();
+    private final ConcurrentUuidMap<InventoryItemReadModel> inventory = new ConcurrentUuidMap<>();
+    private final PositionWatermark processed = new PositionWatermark();
 
     public final InventoryItemCreatedHandler createdHandler = new InventoryItemCreatedHandler();
     public final InventoryItemRenamedHandler renamedHandler = new InventoryItemRenamedHandler();
@@ -19,6 +25,45 @@ public class InventoryView {
         return inventory.get(aggregateId);
     }
 
+    // Feeds the view through a subscription to the store, which delivers every event once and in position order,
+    // so that the processed position never passes an event the view has not applied. Concurrent saves publish out
+    // of position order, which is why the handlers, when registered directly, leave the processed position alone.
+    public CatchUpSubscription subscribe(Subscriptions subscriptions, EventStore eventStore) {
+        return subscriptions.subscribe(eventStore, processed.position() + 1, new EventPublisher() {
+            @Override
+            public <T extends Event> void publish(UUID aggregateId, T event) {
+                apply(event);
+                processed.advanceTo(event.position);
+            }
+        });
+    }
+
+    private void apply(Event event) {
+        if (event instanceof InventoryItemCreated) {
+            createdHandler.handle((InventoryItemCreated) event);
+        } else if (event instanceof InventoryItemRenamed) {
+            renamedHandler.handle((InventoryItemRenamed) event);
+        } else if (event instanceof InventoryItemCheckedIn) {
+            checkedInHandler.handle((InventoryItemCheckedIn) event);
+        } else if (event instanceof InventoryItemCheckedOut) {
+            checkedOutHandler.handle((InventoryItemCheckedOut) event);
+        } else if (event instanceof InventoryItemDeactivated) {
+            deactivatedHandler.handle((InventoryItemDeactivated) event);
+        }
+    }
+
+    // Reads the item once the subscription has delivered the commit position returned by the dispatcher, so that
+    // a client sees its own writes.
+    public InventoryItemReadModel get(UUID aggregateId, long position, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!processed.await(position, timeout, unit))
+            throw new TimeoutException(String.format("View has processed position %d, not %d yet", processed.position(), position));
+        return inventory.get(aggregateId);
+    }
+
+    public long processedPosition() {
+        return processed.position();
+    }
+
     class InventoryItemCreatedHandler implements EventHandler<InventoryItemCreated> {
         @Override
         public void handle(InventoryItemCreated event) {
@@ -0,0 +1,124 @@
+package net.agilepartner.workshops.cqrs.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import javax.tools.Diagnostic;
+
+// Generates, next to every concrete AggregateRoot subclass declaring apply methods, an ApplyDispatcher comparing
+// the class of an event with the parameter type of each apply method and calling the matching one directly, so
+// that the JIT sees plain monomorphic calls it can inline. Aggregates with a private apply method are left to the
+// method handles of AggregateRoot, as the generated code could not call it.
+@SupportedAnnotationTypes("*")
+public class ApplyDispatcherProcessor extends AbstractProcessor {
+    private static final String AGGREGATE_ROOT = "net.agilepartner.workshops.cqrs.core.AggregateRoot";
+    private static final String EVENT = "net.agilepartner.workshops.cqrs.core.Event";
+    private static final String DISPATCHER = "net.agilepartner.workshops.cqrs.core.ApplyDispatcher";
+    private static final String SUFFIX = "ApplyDispatcher";
+
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Elements elements = processingEnv.getElementUtils();
+        TypeElement aggregateRoot = elements.getTypeElement(AGGREGATE_ROOT);
+        TypeElement event = elements.getTypeElement(EVENT);
+        if (aggregateRoot == null || event == null)
+            return false;
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            visit(type, aggregateRoot, event);
+        }
+        // Never claims anything, since it looks at every type rather than at an annotation.
+        return false;
+    }
+
+    private void visit(TypeElement type, TypeElement aggregateRoot, TypeElement event) {
+        Types types = processingEnv.getTypeUtils();
+        if (type.getKind() == ElementKind.CLASS && !type.getModifiers().contains(Modifier.ABSTRACT)
+                && types.isSubtype(types.erasure(type.asType()), types.erasure(aggregateRoot.asType())))
+            generate(type, event);
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            visit(nested, aggregateRoot, event);
+        }
+    }
+
+    private void generate(TypeElement aggregate, TypeElement event) {
+        Types types = processingEnv.getTypeUtils();
+        String packageName = processingEnv.getElementUtils().getPackageOf(aggregate).getQualifiedName().toString();
+        Set<String> eventTypes = new LinkedHashSet<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(aggregate.getEnclosedElements())) {
+            if (!method.getSimpleName().contentEquals("apply") || method.getParameters().size() != 1)
+                continue;
+            TypeMirror parameter = types.erasure(method.getParameters().get(0).asType());
+            if (parameter.getKind() != TypeKind.DECLARED || !types.isSubtype(parameter, types.erasure(event.asType())))
+                continue;
+            TypeElement eventType = (TypeElement) types.asElement(parameter);
+            if (method.getModifiers().contains(Modifier.PRIVATE) || !accessibleFrom(packageName, eventType)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "No apply dispatcher generated for " + aggregate.getQualifiedName() + ": " + method + " cannot be called from outside the class", method);
+                return;
+            }
+            eventTypes.add(eventType.getQualifiedName().toString());
+        }
+        if (eventTypes.isEmpty() || !accessibleFrom(packageName, aggregate))
+            return;
+
+        String binaryName = binaryName(aggregate);
+        String simpleName = binaryName.substring(packageName.isEmpty() ? 0 : packageName.length() + 1).replace('$', '_') + SUFFIX;
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        if (!generated.add(qualifiedName))
+            return;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, aggregate).openWriter()) {
+            writer.write(source(packageName, simpleName, aggregate.getQualifiedName().toString(), eventTypes));
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + qualifiedName + ": " + e.getMessage(), aggregate);
+        }
+    }
+
+    private static String source(String packageName, String simpleName, String aggregate, Collection<String> eventTypes) {
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+        source.append("// Generated by ").append(ApplyDispatcherProcessor.class.getSimpleName()).append(" from the apply methods of ").append(aggregate).append(".\n");
+        source.append("public final class ").append(simpleName).append(" implements ").append(DISPATCHER).append("<").append(aggregate).append("> {\n");
+        source.append("    @Override\n");
+        source.append("    public boolean apply(").append(aggregate).append(" aggregate, ").append(EVENT).append(" event) {\n");
+        source.append("        Class<?> type = event.getClass();\n");
+        for (String eventType : eventTypes) {
+            source.append("        if (type == ").append(eventType).append(".class) {\n");
+            source.append("            aggregate.apply((").append(eventType).append(") event);\n");
+            source.append("            return true;\n");
+            source.append("        }\n");
+        }
+        source.append("        return false;\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    // Neither the type nor any type enclosing it is private, nor only visible in its package when that is another one.
+    private boolean accessibleFrom(String packageName, TypeElement type) {
+        boolean samePackage = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().contentEquals(packageName);
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || (!samePackage && !modifiers.contains(Modifier.PUBLIC)))
+                return false;
+        }
+        return true;
+    }
+
+    private String binaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+}
@@ -0,0 +1,50 @@
+package net.agilepartner.workshops.cqrs;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+public class Benchmarks {
+
+    public static int intProperty(String name, int defaultValue) {
+        return Integer.getInteger("benchmark." + name, defaultValue);
+    }
+
+    public static long measure(Runnable runnable) {
+        long start = System.nanoTime();
+        runnable.run();
+        return System.nanoTime() - start;
+    }
+
+    public static void report(String name, long operations, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.println(String.format("%-60s %,14.0f ops/s %,12.1f us/op", name, operations / seconds, nanos / 1000.0 / operations));
+    }
+
+    public static void report(String name, String value) {
+        System.out.println(String.format("%-60s %s", name, value));
+    }
+
+    // Per live thread, so that the work handed over to background threads is counted too.
+    public static Map<Long, Long> allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0)
+                allocated.put(ids[i], bytes[i]);
+        }
+        return allocated;
+    }
+
+    // Threads that ended in the meantime are not counted, nor the bogus readings of a thread that is ending.
+    public static long allocatedSince(Map<Long, Long> before) {
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : allocatedBytes().entrySet()) {
+            long bytes = thread.getValue() - before.getOrDefault(thread.getKey(), 0L);
+            if (bytes > 0)
+                total += bytes;
+        }
+        return total;
+    }
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -62,6 +63,59 @@ public class End2EndTests {
         assertEquals(0, oranges.quantity);
     }
 
+    @Test
+    public void readYourWritesFromASubscribedView() throws Exception {
+        InventoryView view = new InventoryView();
+        Subscriptions subscriptions = new Subscriptions(new NoopPublisher());
+        EventStore eventStore = new InMemoryEventStore(subscriptions);
+        CommandDispatcher dispatcher = buildCommandDispatcher(new EventStoreAwareRepository<InventoryItem>(eventStore, aggregateId -> new InventoryItem(aggregateId)));
+        CreateInventoryItem createBanana = CreateInventoryItem.create(Fruits.Banana, 7);
+        long position = dispatcher.dispatch(createBanana);
+
+        // Catches up on the banana first, then follows the saves in position order.
+        CatchUpSubscription subscription = view.subscribe(subscriptions, eventStore);
+        try {
+            assertEquals(7, view.get(createBanana.aggregateId, position, 5, TimeUnit.SECONDS).quantity);
+
+            position = dispatcher.dispatch(CheckInventoryItemIn.create(createBanana.aggregateId, 3));
+            assertEquals(10, view.get(createBanana.aggregateId, position, 5, TimeUnit.SECONDS).quantity);
+
+            try {
+                view.get(createBanana.aggregateId, position + 1, 10, TimeUnit.MILLISECONDS);
+                Assert.fail("Should have raised TimeoutException");
+            } catch (TimeoutException e) { }
+        } finally {
+            subscription.close();
+        }
+    }
+
+    // Concurrent saves publish out of position order: the view must not report a position it has skipped events below.
+    @Test
+    public void readYourWritesUnderConcurrentSaves() throws Exception {
+        InventoryView view = new InventoryView();
+        Subscriptions subscriptions = new Subscriptions(new NoopPublisher());
+        EventStore eventStore = new InMemoryEventStore(subscriptions);
+        CommandDispatcher dispatcher = buildCommandDispatcher(new EventStoreAwareRepository<InventoryItem>(eventStore, aggregateId -> new InventoryItem(aggregateId)));
+        view.subscribe(subscriptions, eventStore);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                CreateInventoryItem create = CreateInventoryItem.create(Fruits.Apple, 0);
+                dispatcher.dispatch(create);
+                for (int quantity = 1; quantity <= 200; quantity++) {
+                    long position = dispatcher.dispatch(CheckInventoryItemIn.create(create.aggregateId, 1));
+                    assertEquals(quantity, view.get(create.aggregateId, position, 5, TimeUnit.SECONDS).quantity);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
     private EventPublisher buildEventPublisher(InventoryView view) {
         EventResolver eventResolver = new InMemoryEventResolver();
         eventResolver.register(view.createdHandler, InventoryItemCreated.class);
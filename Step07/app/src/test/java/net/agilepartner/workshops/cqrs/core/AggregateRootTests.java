@@ -3,6 +3,7 @@ package net.agilepartner.workshops.cqrs.core;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.UUID;
 
 import org.junit.Test;
@@ -75,4 +76,50 @@ public class AggregateRootTests {
 		assertEquals(2, aggregate.version);
 		assertEquals(name2, aggregate.getName());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void loadFromEnvelopesOnlyDecodesAppliedEvents() {
+		//Arrange
+		UUID id = UUID.randomUUID();
+		NameChanged evt = new NameChanged(id, "DDD rocks!");
+		evt.version = 1;
+		EventEnvelope unhandled = new EventEnvelope(Event.class, id, 2, 2) {
+			@Override
+			protected Event decode() {
+				throw new AssertionError("Should not have been decoded");
+			}
+		};
+
+		//Act
+		MyAggregate aggregate = new MyAggregate(id);
+		aggregate.loadFromEnvelopes(Arrays.asList(EventEnvelope.of(evt), unhandled));
+
+		//Assert
+		assertEquals(2, aggregate.version);
+		assertEquals("DDD rocks!", aggregate.getName());
+	}
+
+	@Test
+	public void eventsWithoutApplyMethodOnlyMoveTheVersion() {
+		//Arrange
+		UUID id = UUID.randomUUID();
+		NameChanged renamed = new NameChanged(id, "DDD rocks!");
+		renamed.version = 1;
+		Event unhandled = new Event() {
+			private static final long serialVersionUID = 1L;
+		};
+		unhandled.version = 2;
+		NameChanged anonymousSubclass = new NameChanged(id, "CQRS/ES rocks even more!") {
+			private static final long serialVersionUID = 1L;
+		};
+		anonymousSubclass.version = 3;
+
+		//Act
+		MyAggregate aggregate = new MyAggregate(id);
+		aggregate.loadFromHistory(Arrays.asList(renamed, unhandled, anonymousSubclass));
+
+		//Assert
+		assertEquals(3, aggregate.version);
+		assertEquals("CQRS/ES rocks even more!", aggregate.getName());
+	}
+}
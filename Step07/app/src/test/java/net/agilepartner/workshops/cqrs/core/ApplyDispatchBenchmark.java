@@ -0,0 +1,131 @@
+package net.agilepartner.workshops.cqrs.core;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class ApplyDispatchBenchmark {
+
+    private final int events = Benchmarks.intProperty("events", 1_000_000);
+    private final int rounds = Benchmarks.intProperty("rounds", 5);
+    private final int streams = Benchmarks.intProperty("streams", 20);
+    private final int streamLength = Benchmarks.intProperty("streamLength", 100_000);
+
+    @Test
+    public void eventsAppliedPerSecond() {
+        UUID id = UUID.randomUUID();
+        List<Event> renames = new ArrayList<>(events);
+        List<Event> unhandled = new ArrayList<>(events);
+        for (int version = 1; version <= events; version++) {
+            Event renamed = new NameChanged(id, "Name " + (version % 100));
+            renamed.version = version;
+            renames.add(renamed);
+            Event other = new Unhandled();
+            other.version = version;
+            unhandled.add(other);
+        }
+        int[] checksum = new int[1];
+
+        for (int round = 0; round < rounds; round++) {
+            Benchmarks.report("reflective lookup and invoke per event", events, Benchmarks.measure(() -> {
+                MyAggregate aggregate = new MyAggregate(id);
+                for (Event e : renames) {
+                    applyReflectively(aggregate, e);
+                }
+                checksum[0] += aggregate.getName().length();
+            }));
+            Benchmarks.report("cached method handle, loadFromHistory", events, Benchmarks.measure(() -> {
+                MyAggregate aggregate = new MyAggregate(id);
+                aggregate.loadFromHistory(renames);
+                checksum[0] += aggregate.getName().length() + aggregate.getVersion();
+            }));
+            Benchmarks.report("cached method handle, no apply method", events, Benchmarks.measure(() -> {
+                MyAggregate aggregate = new MyAggregate(id);
+                aggregate.loadFromHistory(unhandled);
+                checksum[0] += aggregate.getVersion();
+            }));
+        }
+        Benchmarks.report("checksum", String.valueOf(checksum[0]));
+    }
+
+    @Test
+    public void replayOfLongInventoryItemStreams() {
+        List<List<Event>> histories = new ArrayList<>();
+        for (int s = 0; s < streams; s++) {
+            histories.add(inventoryItemHistory(UUID.randomUUID()));
+        }
+        long events = (long) streams * streamLength;
+        ApplyMethods generated = ApplyMethods.of(InventoryItem.class);
+        ApplyMethods handlesOnly = new ApplyMethods(InventoryItem.class, false);
+        if (!generated.hasGeneratedDispatcher())
+            throw new IllegalStateException("No generated dispatcher for InventoryItem, is the annotation processor on the build?");
+        int[] checksum = new int[1];
+
+        for (int round = 0; round < rounds; round++) {
+            Benchmarks.report("InventoryItem replay, method handles", events, Benchmarks.measure(() -> {
+                for (List<Event> history : histories) {
+                    InventoryItem item = new InventoryItem(history.get(0).aggregateId);
+                    for (Event e : history) {
+                        handlesOnly.apply(item, e);
+                    }
+                    checksum[0] += item.getVersion();
+                }
+            }));
+            Benchmarks.report("InventoryItem replay, generated dispatcher", events, Benchmarks.measure(() -> {
+                for (List<Event> history : histories) {
+                    InventoryItem item = new InventoryItem(history.get(0).aggregateId);
+                    for (Event e : history) {
+                        generated.apply(item, e);
+                    }
+                    checksum[0] += item.getVersion();
+                }
+            }));
+            Benchmarks.report("InventoryItem replay, loadFromHistory", events, Benchmarks.measure(() -> {
+                for (List<Event> history : histories) {
+                    InventoryItem item = new InventoryItem(history.get(0).aggregateId);
+                    item.loadFromHistory(history);
+                    checksum[0] += item.getVersion();
+                }
+            }));
+        }
+        Benchmarks.report("checksum", String.valueOf(checksum[0]));
+    }
+
+    // Created, then check ins, check outs and renames, so that every event type but one gets dispatched to.
+    private List<Event> inventoryItemHistory(UUID id) {
+        List<Event> history = new ArrayList<>(streamLength);
+        history.add(InventoryItemCreated.create(id, "Granny Smith apple", 10));
+        for (int version = 2; version <= streamLength; version++) {
+            switch (version % 4) {
+                case 0: history.add(InventoryItemCheckedIn.create(id, 3)); break;
+                case 1: history.add(InventoryItemCheckedOut.create(id, 2)); break;
+                case 2: history.add(InventoryItemRenamed.create(id, "Granny Smith apple, lot " + version)); break;
+                default: history.add(InventoryItemCheckedOut.create(id, 1)); break;
+            }
+        }
+        for (int i = 0; i < history.size(); i++) {
+            history.get(i).version = i + 1;
+        }
+        return history;
+    }
+
+    // What AggregateRoot did for every event before apply methods were cached, without the stack trace it printed
+    // when an event had no apply method.
+    private static void applyReflectively(AggregateRoot aggregate, Event event) {
+        try {
+            Method method = aggregate.getClass().getDeclaredMethod("apply", event.getClass());
+            method.setAccessible(true);
+            method.invoke(aggregate, event);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static class Unhandled extends Event {
+        private static final long serialVersionUID = 1L;
+    }
+}
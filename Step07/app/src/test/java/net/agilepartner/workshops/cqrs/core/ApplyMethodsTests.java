@@ -0,0 +1,58 @@
+package net.agilepartner.workshops.cqrs.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.domain.InventoryItem;
+
+public class ApplyMethodsTests {
+
+	@Test
+	public void generatedDispatcherIsPickedUpWhenApplyMethodsAreNotPrivate() {
+		assertTrue(ApplyMethods.of(InventoryItem.class).hasGeneratedDispatcher());
+		assertTrue(ApplyMethods.of(Counter.class).hasGeneratedDispatcher());
+		assertFalse(ApplyMethods.of(MyAggregate.class).hasGeneratedDispatcher());
+	}
+
+	@Test
+	public void generatedDispatcherLeavesAnonymousEventsToMethodHandles() {
+		//Arrange
+		UUID id = UUID.randomUUID();
+		NameChanged renamed = new NameChanged(id, "DDD rocks!");
+		renamed.version = 1;
+		NameChanged anonymousSubclass = new NameChanged(id, "CQRS/ES rocks even more!") {
+			private static final long serialVersionUID = 1L;
+		};
+		anonymousSubclass.version = 2;
+		Event unhandled = new Event() {
+			private static final long serialVersionUID = 1L;
+		};
+		unhandled.version = 3;
+
+		//Act
+		Counter counter = new Counter(id);
+		counter.loadFromHistory(Arrays.asList(renamed, anonymousSubclass, unhandled));
+
+		//Assert
+		assertEquals(2, counter.renames);
+		assertEquals(3, counter.getVersion());
+	}
+
+	static class Counter extends AggregateRoot {
+		int renames;
+
+		Counter(UUID id) {
+			super(id);
+		}
+
+		void apply(NameChanged evt) {
+			renames++;
+		}
+	}
+}
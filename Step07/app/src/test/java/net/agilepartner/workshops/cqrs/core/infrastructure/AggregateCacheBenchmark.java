@@ -0,0 +1,80 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.InMemoryEventStore;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+// Check ins on items picked along a Zipf distribution, so that a few hot items get most of the commands.
+public class AggregateCacheBenchmark {
+
+    private final int items = Benchmarks.intProperty("items", 10_000);
+    private final int historyLength = Benchmarks.intProperty("historyLength", 200);
+    private final int capacity = Benchmarks.intProperty("capacity", 1_000);
+    private final int commands = Benchmarks.intProperty("commands", 200_000);
+    private final int rounds = Benchmarks.intProperty("rounds", 3);
+
+    @Test
+    public void checkInsOnZipfDistributedItems() throws Exception {
+        EventStore eventStore = new InMemoryEventStore(new NoopPublisher());
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            eventStore.save(id, history(id), 0);
+        }
+        int[] picks = zipf(commands, items, new Random(42));
+
+        for (int round = 0; round < rounds; round++) {
+            run("no cache", new EventStoreAwareRepository<>(eventStore, id -> new InventoryItem(id)), null, ids, picks);
+            AggregateCache<InventoryItem> cache = new AggregateCache<>(InventoryItem.class, capacity);
+            run(String.format("W-TinyLFU cache of %,d", capacity), new EventStoreAwareRepository<>(eventStore, id -> new InventoryItem(id), cache), cache, ids, picks);
+        }
+    }
+
+    private void run(String name, EventStoreAwareRepository<InventoryItem> repository, AggregateCache<InventoryItem> cache, List<UUID> ids, int[] picks) throws Exception {
+        long start = System.nanoTime();
+        for (int pick : picks) {
+            InventoryItem item = repository.getById(ids.get(pick));
+            item.checkIn(1);
+            repository.save(item);
+        }
+        Benchmarks.report(String.format("getById, checkIn, save, %s", name), picks.length, System.nanoTime() - start);
+        if (cache != null)
+            Benchmarks.report(String.format("  %s", name), String.format("hit rate %.1f%%, %,d evictions, %,d ms of hydration saved",
+                cache.hitRate() * 100, cache.evictions(), cache.hydrationNanosSaved() / 1_000_000));
+    }
+
+    private List<Event> history(UUID id) {
+        List<Event> history = new ArrayList<>();
+        history.add(InventoryItemCreated.create(id, "Granny Smith apple", 0));
+        for (int version = 2; version <= historyLength; version++) {
+            history.add(version % 2 == 0 ? InventoryItemCheckedIn.create(id, 2) : InventoryItemCheckedOut.create(id, 1));
+        }
+        for (int i = 0; i < history.size(); i++) {
+            history.get(i).version = i + 1;
+        }
+        return history;
+    }
+
+    // Item k is picked with a probability proportional to 1 / (k + 1).
+    private static int[] zipf(int count, int items, Random random) {
+        double[] cumulative = new double[items];
+        double sum = 0;
+        for (int k = 0; k < items; k++) {
+            sum += 1.0 / (k + 1);
+            cumulative[k] = sum;
+        }
+        int[] picks = new int[count];
+        for (int i = 0; i < count; i++) {
+            int k = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            picks[i] = Math.min(k < 0 ? -k - 1 : k, items - 1);
+        }
+        return picks;
+    }
+}
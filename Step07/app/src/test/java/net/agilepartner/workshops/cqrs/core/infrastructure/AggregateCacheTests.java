@@ -0,0 +1,79 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.core.MyAggregate;
+
+public class AggregateCacheTests {
+
+    @Test
+    public void anAggregateIsHandedOutOnceUntilPutBack() {
+        AggregateCache<MyAggregate> cache = new AggregateCache<>(MyAggregate.class, 10);
+        MyAggregate aggregate = named(UUID.randomUUID(), 1);
+        cache.put(aggregate);
+
+        assertSame(aggregate, cache.take(aggregate.getId()));
+        assertNull(cache.take(aggregate.getId()));
+        cache.put(aggregate);
+        assertSame(aggregate, cache.take(aggregate.getId()));
+
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(2.0 / 3, cache.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void keepsTheMostRecentVersionHandedBack() {
+        AggregateCache<MyAggregate> cache = new AggregateCache<>(MyAggregate.class, 10);
+        UUID id = UUID.randomUUID();
+        MyAggregate older = named(id, 2);
+        MyAggregate newer = named(id, 3);
+
+        cache.put(newer);
+        cache.put(older);
+
+        assertSame(newer, cache.take(id));
+    }
+
+    @Test
+    public void frequentlyUsedAggregatesSurviveAScan() {
+        AggregateCache<MyAggregate> cache = new AggregateCache<>(MyAggregate.class, 100);
+        List<MyAggregate> hot = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            hot.add(named(new UUID(0, i), 1));
+        }
+        for (int round = 0; round < 10; round++) {
+            for (MyAggregate aggregate : hot) {
+                cache.take(aggregate.getId());
+                cache.put(aggregate);
+            }
+        }
+        for (int i = 0; i < 1_000; i++) {
+            MyAggregate cold = named(new UUID(1, i), 1);
+            cache.take(cold.getId());
+            cache.put(cold);
+        }
+
+        for (MyAggregate aggregate : hot) {
+            assertNotNull(cache.take(aggregate.getId()));
+        }
+        assertEquals(100, cache.size());
+        assertEquals(950, cache.evictions());
+    }
+
+    private static MyAggregate named(UUID id, int times) {
+        MyAggregate aggregate = new MyAggregate(id);
+        for (int i = 0; i < times; i++) {
+            aggregate.changeName("Name " + i);
+        }
+        aggregate.markChangesAsCommitted();
+        return aggregate;
+    }
+}
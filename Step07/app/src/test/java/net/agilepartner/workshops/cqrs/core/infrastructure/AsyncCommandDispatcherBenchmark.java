@@ -0,0 +1,121 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.CommandDispatcher;
+import net.agilepartner.workshops.cqrs.core.DomainException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.InMemoryCommandResolver;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.InMemoryEventStore;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+// Check ins dispatched from as many threads as workers, either straight through the SimpleCommandDispatcher, retrying
+// on an OptimisticLockingException, or through the lanes of the AsyncCommandDispatcher. The items are either picked
+// uniformly from many, or from a handful of hot ones that the threads keep colliding on.
+public class AsyncCommandDispatcherBenchmark {
+
+    private final int items = Benchmarks.intProperty("items", 1_000);
+    private final int hotItems = Benchmarks.intProperty("hotItems", 4);
+    private final int commands = Benchmarks.intProperty("commands", 50_000);
+    private final int rounds = Benchmarks.intProperty("rounds", 3);
+
+    @Test
+    public void checkInsAcrossWorkerCounts() throws Exception {
+        for (int round = 0; round < rounds; round++) {
+            for (int workers : new int[] { 1, 2, 4, 8 }) {
+                for (int itemCount : new int[] { items, hotItems }) {
+                    String distribution = itemCount == hotItems ? String.format("%d hot items", itemCount) : String.format("%,d items", itemCount);
+                    synchronous(workers, itemCount, distribution);
+                    lanes(workers, itemCount, distribution);
+                }
+            }
+        }
+    }
+
+    private void synchronous(int threads, int itemCount, String distribution) throws Exception {
+        List<CheckInventoryItemIn> checkIns = checkIns(itemCount);
+        CommandDispatcher dispatcher = dispatcher(checkIns);
+        AtomicLong conflicts = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            futures.add(pool.submit(() -> {
+                for (int i = first; i < checkIns.size(); i += threads) {
+                    while (true) {
+                        try {
+                            dispatcher.dispatch(checkIns.get(i));
+                            break;
+                        } catch (OptimisticLockingException e) {
+                            conflicts.incrementAndGet();
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long nanos = System.nanoTime() - start;
+        pool.shutdown();
+        String name = String.format("SimpleCommandDispatcher, %d threads, %s", threads, distribution);
+        Benchmarks.report(name, checkIns.size(), nanos);
+        Benchmarks.report(name, String.format("%,d optimistic locking conflicts retried", conflicts.get()));
+    }
+
+    private void lanes(int workers, int itemCount, String distribution) throws Exception {
+        List<CheckInventoryItemIn> checkIns = checkIns(itemCount);
+        AsyncCommandDispatcher async = new AsyncCommandDispatcher(dispatcher(checkIns), workers);
+        long start = System.nanoTime();
+        List<CompletableFuture<Long>> futures = new ArrayList<>(checkIns.size());
+        for (CheckInventoryItemIn checkIn : checkIns) {
+            futures.add(async.dispatch(checkIn));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        long nanos = System.nanoTime() - start;
+        async.close();
+        Benchmarks.report(String.format("AsyncCommandDispatcher, %d workers, %s", workers, distribution), checkIns.size(), nanos);
+    }
+
+    // A fresh store with the items created, and a cache big enough for all of them, so that every run replays the
+    // same amount of history however long the streams of the hot items get.
+    private CommandDispatcher dispatcher(List<CheckInventoryItemIn> checkIns) throws DomainException {
+        EventStore eventStore = new InMemoryEventStore(new NoopPublisher());
+        Set<UUID> created = new HashSet<>();
+        for (CheckInventoryItemIn checkIn : checkIns) {
+            if (created.add(checkIn.aggregateId))
+                eventStore.save(checkIn.aggregateId, Arrays.asList(created(checkIn.aggregateId)), 0);
+        }
+        EventStoreAwareRepository<InventoryItem> repository = new EventStoreAwareRepository<>(eventStore,
+                id -> new InventoryItem(id), new AggregateCache<>(InventoryItem.class, Math.max(2, created.size() * 2)));
+        CommandResolver resolver = InMemoryCommandResolver.getInstance();
+        resolver.register(new CheckInventoryItemInHandler(repository), CheckInventoryItemIn.class);
+        return new SimpleCommandDispatcher(resolver);
+    }
+
+    private List<CheckInventoryItemIn> checkIns(int itemCount) {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < itemCount; i++) {
+            ids.add(UUID.randomUUID());
+        }
+        Random random = new Random(42);
+        List<CheckInventoryItemIn> checkIns = new ArrayList<>(commands);
+        for (int i = 0; i < commands; i++) {
+            checkIns.add(CheckInventoryItemIn.create(ids.get(random.nextInt(itemCount)), 1));
+        }
+        return checkIns;
+    }
+
+    private static InventoryItemCreated created(UUID id) {
+        InventoryItemCreated created = InventoryItemCreated.create(id, "Granny Smith apple", 0);
+        created.version = 1;
+        return created;
+    }
+}
@@ -0,0 +1,191 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.core.Command;
+import net.agilepartner.workshops.cqrs.core.CommandDispatcher;
+import net.agilepartner.workshops.cqrs.core.DomainException;
+
+public class AsyncCommandDispatcherTests {
+    private final Map<UUID, List<Integer>> handled = new ConcurrentHashMap<>();
+    private final Map<UUID, AtomicInteger> running = new ConcurrentHashMap<>();
+    private final AtomicInteger overlaps = new AtomicInteger();
+    private final AtomicInteger positions = new AtomicInteger();
+    private final AsyncCommandDispatcher async = new AsyncCommandDispatcher(recording(), 4);
+
+    @After
+    public void close() throws InterruptedException {
+        async.close();
+        assertTrue(async.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void runsTheCommandsOfAnAggregateOneAtATimeInOrder() throws Exception {
+        List<UUID> ids = Arrays.asList(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int sequence = 0; sequence < 500; sequence++) {
+            for (UUID id : ids) {
+                futures.add(async.dispatch(new Numbered(id, sequence)));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, overlaps.get());
+        for (UUID id : ids) {
+            List<Integer> sequences = handled.get(id);
+            assertEquals(500, sequences.size());
+            for (int i = 0; i < sequences.size(); i++) {
+                assertEquals(i, (int) sequences.get(i));
+            }
+        }
+        assertEquals(0, async.busyLanes());
+    }
+
+    @Test
+    public void runsTheCommandsOfDifferentAggregatesInParallel() throws Exception {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        CompletableFuture<Long> one = async.dispatch(new Blocking(first, bothRunning));
+        CompletableFuture<Long> two = async.dispatch(new Blocking(second, bothRunning));
+
+        one.get(10, TimeUnit.SECONDS);
+        two.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void completesExceptionallyWhenTheHandlerThrowsAndRunsTheNextCommand() throws Exception {
+        UUID id = UUID.randomUUID();
+
+        CompletableFuture<Long> failed = async.dispatch(new Failing(id));
+        CompletableFuture<Long> next = async.dispatch(new Numbered(id, 0));
+
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("Should have failed with the DomainException of the handler");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DomainException);
+        }
+        assertTrue(next.get(10, TimeUnit.SECONDS) > 0);
+        assertEquals(Arrays.asList(0), handled.get(id));
+    }
+
+    @Test
+    public void runsCommandsWithoutAggregateId() throws Exception {
+        long position = async.dispatch(new Numbered(null, 0)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, position);
+        assertEquals(0, async.busyLanes());
+    }
+
+    @Test
+    public void rejectsCommandsOnceClosed() throws Exception {
+        UUID id = UUID.randomUUID();
+        CompletableFuture<Long> dispatched = async.dispatch(new Numbered(id, 0));
+        async.close();
+
+        assertRejected(async.dispatch(new Numbered(UUID.randomUUID(), 1)));
+        assertRejected(async.dispatch(new Numbered(null, 2)));
+        assertTrue(dispatched.get(10, TimeUnit.SECONDS) > 0);
+        assertEquals(Arrays.asList(0), handled.get(id));
+    }
+
+    @Test
+    public void rejectsCommandsForABusyAggregateOnceClosed() throws Exception {
+        UUID id = UUID.randomUUID();
+        CountDownLatch gate = new CountDownLatch(2);
+        CompletableFuture<Long> running = async.dispatch(new Blocking(id, gate));
+        CompletableFuture<Long> queued = async.dispatch(new Numbered(id, 0));
+        async.close();
+
+        assertRejected(async.dispatch(new Numbered(id, 1)));
+        gate.countDown();
+        assertTrue(running.get(10, TimeUnit.SECONDS) > 0);
+        assertTrue(queued.get(10, TimeUnit.SECONDS) > 0);
+        assertEquals(Arrays.asList(0), handled.get(id));
+        assertTrue(async.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, async.busyLanes());
+    }
+
+    private static void assertRejected(CompletableFuture<Long> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private CommandDispatcher recording() {
+        return new CommandDispatcher() {
+            @Override
+            public <T extends Command> long dispatch(T command) throws DomainException {
+                if (command instanceof Failing)
+                    throw new DomainException("Failing on purpose");
+                if (command instanceof Blocking)
+                    return block((Blocking) command);
+                AtomicInteger concurrent = command.aggregateId == null ? new AtomicInteger()
+                        : running.computeIfAbsent(command.aggregateId, id -> new AtomicInteger());
+                if (concurrent.incrementAndGet() > 1)
+                    overlaps.incrementAndGet();
+                if (command.aggregateId != null)
+                    handled.computeIfAbsent(command.aggregateId, id -> new ArrayList<>()).add(((Numbered) command).sequence);
+                concurrent.decrementAndGet();
+                return positions.incrementAndGet();
+            }
+        };
+    }
+
+    // Only returns once the latch is down, counted down by the other blocking command or by the test.
+    private long block(Blocking command) throws DomainException {
+        command.bothRunning.countDown();
+        try {
+            if (!command.bothRunning.await(10, TimeUnit.SECONDS))
+                throw new DomainException("The other command never ran");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return positions.incrementAndGet();
+    }
+
+    static class Numbered extends Command {
+        private static final long serialVersionUID = 1L;
+        final int sequence;
+
+        Numbered(UUID aggregateId, int sequence) {
+            this.id = UUID.randomUUID();
+            this.aggregateId = aggregateId;
+            this.sequence = sequence;
+        }
+    }
+
+    static class Failing extends Command {
+        private static final long serialVersionUID = 1L;
+
+        Failing(UUID aggregateId) {
+            this.id = UUID.randomUUID();
+            this.aggregateId = aggregateId;
+        }
+    }
+
+    static class Blocking extends Command {
+        private static final long serialVersionUID = 1L;
+        final transient CountDownLatch bothRunning;
+
+        Blocking(UUID aggregateId, CountDownLatch bothRunning) {
+            this.id = UUID.randomUUID();
+            this.aggregateId = aggregateId;
+            this.bothRunning = bothRunning;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+
+public class CommandDedupBenchmark {
+
+    private final int commands = Benchmarks.intProperty("commands", 10_000_000);
+    private final int capacity = Benchmarks.intProperty("capacity", 1_000_000);
+
+    // One command in a hundred is a retry of a recent one.
+    @Test
+    public void addIdsWithRetries() {
+        for (double falsePositiveRate : new double[] { 0.1, 0.01, 0.001 }) {
+            ProcessedCommandIds processed = new ProcessedCommandIds(capacity, falsePositiveRate, 1, TimeUnit.HOURS);
+            Random random = new Random(42);
+            UUID[] recent = new UUID[1024];
+            long nanos = Benchmarks.measure(() -> {
+                for (int i = 0; i < commands; i++) {
+                    UUID id = i % 100 == 99 ? recent[random.nextInt(recent.length)] : new UUID(random.nextLong(), random.nextLong());
+                    if (id == null)
+                        continue;
+                    processed.add(id);
+                    recent[i & (recent.length - 1)] = id;
+                }
+            });
+            String name = String.format("capacity %,d, false positive rate %.3f", capacity, falsePositiveRate);
+            Benchmarks.report(name, commands, nanos);
+            Benchmarks.report(name, String.format("observed false positive rate %.4f, %,d duplicates, %d rotations, %,d KB",
+                processed.observedFalsePositiveRate(), processed.duplicates(), processed.rotations(), processed.memoryBytes() >> 10));
+        }
+    }
+}
@@ -2,18 +2,29 @@ package net.agilepartner.workshops.cqrs.core.infrastructure;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.verify;
 
-import java.util.UUID;
+import java.util.*;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
 import net.agilepartner.workshops.cqrs.core.Event;
 import net.agilepartner.workshops.cqrs.core.MyAggregate;
 import net.agilepartner.workshops.cqrs.core.Repository;
+import net.agilepartner.workshops.cqrs.core.Snapshot;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.InMemoryEventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.InMemorySnapshotStore;
+import net.agilepartner.workshops.cqrs.domain.InventoryItem;
+import net.agilepartner.workshops.cqrs.domain.InventoryItemDeactivatedException;
+import net.agilepartner.workshops.cqrs.domain.NotEnoughStockException;
 
 @RunWith(SpringRunner.class)
 public class EventStoreAwareRepositoryTests {
@@ -71,4 +82,132 @@ public class EventStoreAwareRepositoryTests {
         assertEquals(4, aggregate.getOriginalVersion());
         verify(eventStore).save(aggregateId, events, 2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void hydrateFromSnapshotAndTail() throws InventoryItemDeactivatedException, NotEnoughStockException {
+        SnapshotStore snapshotStore = new InMemorySnapshotStore();
+        Repository<InventoryItem> repository = new EventStoreAwareRepository<>(
+            new InMemoryEventStore(new NoopPublisher()),
+            id -> new InventoryItem(id),
+            snapshotStore,
+            SnapshotPolicy.everyNEvents(10));
+
+        UUID aggregateId = UUID.randomUUID();
+        repository.save(InventoryItem.create(aggregateId, "Apple", 0));
+        for (int i = 0; i < 25; i++) {
+            InventoryItem item = repository.getById(aggregateId);
+            item.checkIn(2);
+            repository.save(item);
+        }
+
+        Snapshot snapshot = snapshotStore.load(aggregateId);
+        assertEquals(20, snapshot.version);
+
+        InventoryItem item = repository.getById(aggregateId);
+        assertEquals(26, item.getVersion());
+        item.checkOut(50);
+        try {
+            item.checkOut(1);
+            fail("Should have raised NotEnoughStockException");
+        } catch (NotEnoughStockException e) { }
+    }
+
+    @Test
+    public void saveAllCommitsEveryAggregateOrNone() throws InventoryItemDeactivatedException, NotEnoughStockException {
+        EventStoreAwareRepository<InventoryItem> repository = new EventStoreAwareRepository<>(
+            new InMemoryEventStore(new NoopPublisher()),
+            id -> new InventoryItem(id));
+
+        InventoryItem source = InventoryItem.create(UUID.randomUUID(), "Apple", 10);
+        InventoryItem target = InventoryItem.create(UUID.randomUUID(), "Apple", 0);
+        repository.saveAll(Arrays.asList(source, target));
+
+        source.checkOut(4);
+        target.checkIn(4);
+        InventoryItem concurrent = repository.getById(target.getId());
+        concurrent.checkIn(1);
+        repository.save(concurrent);
+        try {
+            repository.saveAll(Arrays.asList(source, target));
+            fail("Should have raised OptimisticLockingException");
+        } catch (OptimisticLockingException e) { }
+        assertEquals(1, repository.getById(source.getId()).getVersion());
+
+        source = repository.getById(source.getId());
+        target = repository.getById(target.getId());
+        source.checkOut(4);
+        target.checkIn(4);
+        repository.saveAll(Arrays.asList(source, target));
+        assertEquals(2, repository.getById(source.getId()).getVersion());
+        assertEquals(3, repository.getById(target.getId()).getVersion());
+        assertEquals(2, source.getOriginalVersion());
+    }
+
+    @Test
+    public void aggregateWithoutSnapshotSupportIsReplayed() {
+        SnapshotStore snapshotStore = new InMemorySnapshotStore();
+        Repository<MyAggregate> repository = new EventStoreAwareRepository<>(
+            new InMemoryEventStore(new NoopPublisher()),
+            id -> new MyAggregate(id),
+            snapshotStore,
+            SnapshotPolicy.everyNEvents(1));
+
+        UUID aggregateId = UUID.randomUUID();
+        repository.save(new MyAggregate(aggregateId, "first name"));
+
+        assertNull(snapshotStore.load(aggregateId));
+        assertEquals("first name", repository.getById(aggregateId).getName());
+    }
+
+    @Test
+    public void cachedAggregateOnlyReplaysTheEventsItMissed() throws InventoryItemDeactivatedException, NotEnoughStockException {
+        EventStore store = new InMemoryEventStore(new NoopPublisher());
+        AggregateCache<InventoryItem> cache = new AggregateCache<>(InventoryItem.class, 100);
+        EventStoreAwareRepository<InventoryItem> repository = new EventStoreAwareRepository<>(store, id -> new InventoryItem(id), cache);
+        Repository<InventoryItem> otherWriter = new EventStoreAwareRepository<>(store, id -> new InventoryItem(id));
+
+        UUID aggregateId = UUID.randomUUID();
+        InventoryItem created = InventoryItem.create(aggregateId, "Apple", 5);
+        repository.save(created);
+        InventoryItem item = repository.getById(aggregateId);
+        assertSame(created, item);
+        item.checkIn(5);
+        repository.save(item);
+
+        InventoryItem elsewhere = otherWriter.getById(aggregateId);
+        elsewhere.checkOut(8);
+        otherWriter.save(elsewhere);
+
+        item = repository.getById(aggregateId);
+        assertEquals(3, item.getVersion());
+        try {
+            item.checkOut(3);
+            fail("Should have raised NotEnoughStockException");
+        } catch (NotEnoughStockException e) { }
+        assertEquals(2, cache.hits());
+        assertEquals(0, cache.misses());
+
+        // Held by the failed command, so the next one hydrates its own.
+        assertNotSame(item, repository.getById(aggregateId));
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void cacheOnlyKeepsAggregatesOfItsType() {
+        EventStore store = new InMemoryEventStore(new NoopPublisher());
+        AggregateCache<InventoryItem> cache = new AggregateCache<>(InventoryItem.class, 100);
+        int[] created = new int[1];
+        EventStoreAwareRepository<InventoryItem> repository = new EventStoreAwareRepository<>(store, id -> {
+            created[0]++;
+            return new InventoryItem(id);
+        }, cache);
+        assertEquals(0, created[0]);
+
+        UUID itemId = UUID.randomUUID();
+        UUID otherId = UUID.randomUUID();
+        repository.saveAll(Arrays.asList(InventoryItem.create(itemId, "Apple", 5), new MyAggregate(otherId, "first name")));
+
+        assertEquals(1, cache.size());
+        assertEquals(0, created[0]);
+    }
+}
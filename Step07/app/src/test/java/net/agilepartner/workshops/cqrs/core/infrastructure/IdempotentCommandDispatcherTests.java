@@ -0,0 +1,68 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.core.Command;
+import net.agilepartner.workshops.cqrs.core.CommandDispatcher;
+import net.agilepartner.workshops.cqrs.core.DomainException;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class IdempotentCommandDispatcherTests {
+    private int handled;
+    private boolean failing;
+
+    private final IdempotentCommandDispatcher dispatcher = new IdempotentCommandDispatcher(new CommandDispatcherStub(), new ProcessedCommandIds(1000, 0.01, 1, TimeUnit.MINUTES));
+
+    @Test
+    public void retriedCommandIsRejected() throws DomainException {
+        CheckInventoryItemIn command = CheckInventoryItemIn.create(UUID.randomUUID(), 5);
+        dispatcher.dispatch(command);
+
+        try {
+            dispatcher.dispatch(command);
+            Assert.fail("Should have raised DuplicateCommandException");
+        } catch (DuplicateCommandException e) { }
+        assertEquals(1, handled);
+
+        dispatcher.dispatch(CheckInventoryItemIn.create(command.aggregateId, 5));
+        assertEquals(2, handled);
+    }
+
+    @Test
+    public void failedCommandCanBeRetried() throws DomainException {
+        CheckInventoryItemOut command = CheckInventoryItemOut.create(UUID.randomUUID(), 5);
+        failing = true;
+        try {
+            dispatcher.dispatch(command);
+            Assert.fail("Should have raised NotEnoughStockException");
+        } catch (NotEnoughStockException e) { }
+
+        failing = false;
+        dispatcher.dispatch(command);
+        assertEquals(1, handled);
+    }
+
+    @Test
+    public void commandWithoutIdIsAlwaysDispatched() throws DomainException {
+        CheckInventoryItemIn command = CheckInventoryItemIn.create(UUID.randomUUID(), 5);
+        command.id = null;
+        dispatcher.dispatch(command);
+        dispatcher.dispatch(command);
+        assertEquals(2, handled);
+    }
+
+    private class CommandDispatcherStub implements CommandDispatcher {
+        @Override
+        public <T extends Command> long dispatch(T command) throws DomainException {
+            if (failing)
+                throw new NotEnoughStockException("Not enough stock");
+            return ++handled;
+        }
+    }
+}
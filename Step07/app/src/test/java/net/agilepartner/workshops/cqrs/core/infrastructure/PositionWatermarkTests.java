@@ -0,0 +1,49 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+public class PositionWatermarkTests {
+
+    @Test
+    public void neverMovesBackwards() {
+        PositionWatermark watermark = new PositionWatermark();
+        watermark.advanceTo(5);
+        watermark.advanceTo(3);
+        assertEquals(5, watermark.position());
+    }
+
+    @Test
+    public void awaitReturnsOnceThePositionIsReached() throws Exception {
+        PositionWatermark watermark = new PositionWatermark();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<Future<Boolean>> waiters = new ArrayList<>();
+        for (long position = 1; position <= 3; position++) {
+            long target = position * 10;
+            waiters.add(executor.submit(() -> watermark.await(target, 10, TimeUnit.SECONDS)));
+        }
+
+        watermark.advanceTo(20);
+        assertTrue(waiters.get(0).get(5, TimeUnit.SECONDS));
+        assertTrue(waiters.get(1).get(5, TimeUnit.SECONDS));
+        assertFalse(waiters.get(2).isDone());
+
+        watermark.advanceTo(30);
+        assertTrue(waiters.get(2).get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void awaitTimesOut() throws InterruptedException {
+        PositionWatermark watermark = new PositionWatermark();
+        watermark.advanceTo(1);
+        assertTrue(watermark.await(1, 0, TimeUnit.MILLISECONDS));
+        assertFalse(watermark.await(2, 10, TimeUnit.MILLISECONDS));
+    }
+}
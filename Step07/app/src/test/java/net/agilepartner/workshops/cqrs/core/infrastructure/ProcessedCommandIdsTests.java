@@ -0,0 +1,73 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ProcessedCommandIdsTests {
+    private long now;
+
+    @Test
+    public void rejectsAnIdAddedWithinTheWindow() {
+        ProcessedCommandIds processed = new ProcessedCommandIds(100, 0.01, 10, TimeUnit.SECONDS, () -> now);
+        UUID id = UUID.randomUUID();
+
+        assertTrue(processed.add(id));
+        now += TimeUnit.SECONDS.toNanos(15);
+        assertTrue(processed.add(UUID.randomUUID()));
+        assertFalse(processed.add(id));
+        assertEquals(1, processed.duplicates());
+
+        // Gone once two generations have gone by.
+        now += TimeUnit.SECONDS.toNanos(10);
+        assertTrue(processed.add(UUID.randomUUID()));
+        assertTrue(processed.add(id));
+        assertEquals(2, processed.rotations());
+    }
+
+    @Test
+    public void removedIdCanBeAddedAgain() {
+        ProcessedCommandIds processed = new ProcessedCommandIds(100, 0.01, 10, TimeUnit.SECONDS, () -> now);
+        UUID id = UUID.randomUUID();
+
+        assertTrue(processed.add(id));
+        processed.remove(id);
+        assertTrue(processed.add(id));
+        assertFalse(processed.add(id));
+    }
+
+    @Test
+    public void memoryStaysTheSameWhateverTheNumberOfIds() {
+        ProcessedCommandIds processed = new ProcessedCommandIds(1000, 0.01, 1, TimeUnit.HOURS, () -> now);
+        long memory = processed.memoryBytes();
+        List<UUID> recent = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            UUID id = UUID.randomUUID();
+            assertTrue(processed.add(id));
+            recent.add(id);
+            if (recent.size() > 1000)
+                recent.remove(0);
+        }
+        assertEquals(memory, processed.memoryBytes());
+        // A full generation rotates early: the last capacity ids are remembered at least.
+        for (UUID id : recent) {
+            assertFalse(processed.add(id));
+        }
+    }
+
+    @Test
+    public void observedFalsePositiveRateIsCloseToTheConfiguredOne() {
+        ProcessedCommandIds processed = new ProcessedCommandIds(10_000, 0.01, 1, TimeUnit.HOURS, () -> now);
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(processed.add(UUID.randomUUID()));
+        }
+        double observed = processed.observedFalsePositiveRate();
+        assertTrue("Observed " + observed, observed > 0.001 && observed < 0.02);
+        assertEquals(0, processed.duplicates());
+    }
+}
@@ -25,8 +25,9 @@ public class SimpleCommandDispatcherTests {
     public class MyCommandHandler implements CommandHandler<MyCommand> {
 
         @Override
-        public void handle(MyCommand command) throws DomainException {
+        public long handle(MyCommand command) throws DomainException {
             handlerCalled = true;
+            return 0;
         }
         
     }
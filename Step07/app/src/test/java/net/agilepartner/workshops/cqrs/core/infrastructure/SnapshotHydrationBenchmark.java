@@ -0,0 +1,68 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class SnapshotHydrationBenchmark {
+
+    private final int snapshotInterval = Benchmarks.intProperty("snapshotInterval", 100);
+    private final int iterations = Benchmarks.intProperty("iterations", 50);
+
+    @Test
+    public void hydrationLatencyByStreamLength() {
+        for (int length : new int[] { 100, 1_000, 10_000, 100_000 }) {
+            run(length);
+        }
+    }
+
+    private void run(int length) {
+        EventStore eventStore = new InMemoryEventStore(new NoopPublisher());
+        UUID aggregateId = UUID.randomUUID();
+        List<Event> events = history(aggregateId, length);
+        eventStore.save(aggregateId, events, 0);
+
+        // The snapshot the policy would have left behind: at the last multiple of the interval before the head.
+        SnapshotStore snapshotStore = new InMemorySnapshotStore();
+        InventoryItem item = new InventoryItem(aggregateId);
+        item.loadFromHistory(events.subList(0, (length - 1) / snapshotInterval * snapshotInterval));
+        if (item.getVersion() > 0)
+            snapshotStore.save(item.takeSnapshot());
+
+        measure(String.format("getById of %,d events without snapshots", length),
+            new EventStoreAwareRepository<>(eventStore, id -> new InventoryItem(id)), aggregateId, length);
+        measure(String.format("getById of %,d events with snapshots every %d", length, snapshotInterval),
+            new EventStoreAwareRepository<>(eventStore, id -> new InventoryItem(id), snapshotStore, SnapshotPolicy.everyNEvents(snapshotInterval)), aggregateId, length);
+    }
+
+    private void measure(String name, EventStoreAwareRepository<InventoryItem> repository, UUID aggregateId, int length) {
+        for (int i = 0; i < iterations; i++) {
+            repository.getById(aggregateId);
+        }
+        long nanos = Benchmarks.measure(() -> {
+            for (int i = 0; i < iterations; i++) {
+                if (repository.getById(aggregateId).getVersion() != length)
+                    throw new IllegalStateException("Unexpected version");
+            }
+        });
+        Benchmarks.report(name, iterations, nanos);
+    }
+
+    private static List<Event> history(UUID aggregateId, int length) {
+        List<Event> events = new ArrayList<>(length);
+        events.add(InventoryItemCreated.create(aggregateId, "Apple", 0));
+        for (int i = 1; i < length; i++) {
+            events.add(i % 2 == 1 ? InventoryItemCheckedIn.create(aggregateId, 2) : InventoryItemCheckedOut.create(aggregateId, 1));
+        }
+        for (int i = 0; i < length; i++) {
+            events.get(i).version = i + 1;
+        }
+        return events;
+    }
+}
@@ -0,0 +1,114 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.InMemoryEventStore;
+import net.agilepartner.workshops.cqrs.domain.InventoryItemCheckedIn;
+
+public class SubscriptionsTests {
+    private final Subscriptions subscriptions = new Subscriptions(new NoopPublisher());
+    private final EventStore eventStore = new InMemoryEventStore(subscriptions);
+
+    @Test
+    public void replaysFromThePositionAskedForThenDeliversLive() {
+        UUID aggregateId = UUID.randomUUID();
+        for (int version = 1; version <= 10; version++) {
+            eventStore.save(aggregateId, Arrays.asList(checkedIn(aggregateId, version)), version - 1);
+        }
+        List<Long> positions = new ArrayList<>();
+
+        CatchUpSubscription subscription = subscriptions.subscribe(eventStore, 4, 3, recording(positions));
+        assertTrue(subscription.isLive());
+        assertEquals(7, subscription.replayed());
+        assertEquals(3, subscription.batches());
+        assertEquals(10, subscription.position());
+
+        eventStore.save(aggregateId, Arrays.asList(checkedIn(aggregateId, 11)), 10);
+        assertEquals(Arrays.asList(4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L), positions);
+
+        subscription.close();
+        eventStore.save(aggregateId, Arrays.asList(checkedIn(aggregateId, 12)), 11);
+        assertEquals(8, positions.size());
+        assertEquals(0, subscriptions.size());
+    }
+
+    @Test
+    public void noGapNorDuplicateWhenSubscribingWhileWritersRun() throws Exception {
+        int writers = 4;
+        int eventsPerWriter = 5_000;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Long> positions = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(writers);
+        try {
+            List<Future<?>> saves = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                saves.add(executor.submit(() -> {
+                    UUID aggregateId = UUID.randomUUID();
+                    for (int version = 1; version <= eventsPerWriter; version++) {
+                        eventStore.save(aggregateId, Arrays.asList(checkedIn(aggregateId, version)), version - 1);
+                        if (version == eventsPerWriter / 10)
+                            started.countDown();
+                    }
+                }));
+            }
+            started.await(30, TimeUnit.SECONDS);
+            CatchUpSubscription subscription = subscriptions.subscribe(eventStore, 1, 64, recording(positions));
+            for (Future<?> save : saves) {
+                save.get(30, TimeUnit.SECONDS);
+            }
+
+            assertEquals(writers * eventsPerWriter, subscription.position());
+            assertEquals(writers * eventsPerWriter, positions.size());
+            for (int i = 0; i < positions.size(); i++) {
+                assertEquals(i + 1, (long) positions.get(i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void subscriberFailingDuringReplayIsNotKept() {
+        UUID aggregateId = UUID.randomUUID();
+        eventStore.save(aggregateId, Arrays.asList(checkedIn(aggregateId, 1)), 0);
+        EventPublisher failing = new EventPublisher() {
+            @Override
+            public <T extends Event> void publish(UUID id, T event) {
+                throw new IllegalStateException("Projection is broken");
+            }
+        };
+
+        try {
+            subscriptions.subscribe(eventStore, 1, failing);
+            fail("Expected the failure of the subscriber");
+        } catch (IllegalStateException e) {
+            assertEquals(0, subscriptions.size());
+        }
+        eventStore.save(aggregateId, Arrays.asList(checkedIn(aggregateId, 2)), 1);
+    }
+
+    private static EventPublisher recording(List<Long> positions) {
+        return new EventPublisher() {
+            @Override
+            public <T extends Event> void publish(UUID aggregateId, T event) {
+                positions.add(event.position);
+            }
+        };
+    }
+
+    private static Event checkedIn(UUID aggregateId, int version) {
+        Event evt = InventoryItemCheckedIn.create(aggregateId, 1);
+        evt.version = version;
+        return evt;
+    }
+}
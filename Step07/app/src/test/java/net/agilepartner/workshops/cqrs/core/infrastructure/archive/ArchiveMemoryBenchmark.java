@@ -0,0 +1,73 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.archive;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.InMemoryEventStore;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class ArchiveMemoryBenchmark {
+
+    private final int items = Benchmarks.intProperty("items", 50_000);
+    private final int eventsPerItem = Benchmarks.intProperty("eventsPerItem", 40);
+    private final int deactivatedPercent = Benchmarks.intProperty("deactivatedPercent", 80);
+
+    @Test
+    public void heapBeforeAndAfterArchiving() {
+        long baseline = usedHeapAfterGc();
+        ColdStorage coldStorage = new ColdStorage(new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry())));
+        InMemoryEventStore eventStore = new InMemoryEventStore(new NoopPublisher(), coldStorage);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            UUID aggregateId = UUID.randomUUID();
+            ids.add(aggregateId);
+            eventStore.save(aggregateId, history(aggregateId, i % 100 < deactivatedPercent), 0);
+        }
+
+        long hot = usedHeapAfterGc() - baseline;
+        long nanos = Benchmarks.measure(() -> eventStore.archive(e -> e instanceof InventoryItemDeactivated));
+        coldStorage.seal();
+        long archived = usedHeapAfterGc() - baseline;
+
+        Benchmarks.report(String.format("%,d items, %d%% deactivated", items, deactivatedPercent), String.format("%,d events", (long) items * eventsPerItem));
+        Benchmarks.report("heap before archiving", String.format("%,d MB", hot >> 20));
+        Benchmarks.report("heap after archiving", String.format("%,d MB (%d%% saved), %,d hot streams", archived >> 20, 100 - archived * 100 / hot, eventStore.hotStreams()));
+        Benchmarks.report("cold storage", coldStorage.stats().toString());
+        Benchmarks.report("archive", coldStorage.stats().streams, nanos);
+
+        int loads = Math.min(items, 1_000);
+        long coldNanos = Benchmarks.measure(() -> {
+            for (int i = 0; i < loads; i++) {
+                List<? extends Event> events = eventStore.load(ids.get(i * 100 / loads * items / 100));
+                if (events.size() != eventsPerItem)
+                    throw new IllegalStateException("Unexpected stream length " + events.size());
+            }
+        });
+        Benchmarks.report("load, hot and archived mixed", loads, coldNanos);
+    }
+
+    private List<Event> history(UUID aggregateId, boolean deactivate) {
+        List<Event> events = new ArrayList<>();
+        events.add(InventoryItemCreated.create(aggregateId, "Item " + aggregateId, 0));
+        while (events.size() < eventsPerItem - 1) {
+            events.add(events.size() % 2 == 1 ? InventoryItemCheckedIn.create(aggregateId, 3) : InventoryItemCheckedOut.create(aggregateId, 1));
+        }
+        events.add(deactivate ? InventoryItemDeactivated.create(aggregateId) : InventoryItemRenamed.create(aggregateId, "Renamed"));
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).version = i + 1;
+        }
+        return events;
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
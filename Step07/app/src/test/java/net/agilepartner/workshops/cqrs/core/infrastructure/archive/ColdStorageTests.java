@@ -0,0 +1,57 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class ColdStorageTests {
+
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void streamsSurviveSealedSegments() {
+        ColdStorage coldStorage = new ColdStorage(codec, 4096);
+        Map<UUID, List<Event>> streams = new HashMap<>();
+        long position = 1;
+        for (int i = 0; i < 100; i++) {
+            UUID aggregateId = UUID.randomUUID();
+            List<Event> stream = new ArrayList<>();
+            stream.add(event(InventoryItemCreated.create(aggregateId, "Item " + i, i), 1, position++));
+            stream.add(event(InventoryItemCheckedIn.create(aggregateId, i), 2, position++));
+            stream.add(event(InventoryItemDeactivated.create(aggregateId), 3, position += 7));
+            coldStorage.put(aggregateId, stream);
+            streams.put(aggregateId, stream);
+        }
+
+        for (Map.Entry<UUID, List<Event>> entry : streams.entrySet()) {
+            List<Event> loaded = coldStorage.load(entry.getKey());
+            assertEquals(3, loaded.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(entry.getValue().get(i).version, loaded.get(i).version);
+                assertEquals(entry.getValue().get(i).position, loaded.get(i).position);
+                assertEquals(entry.getKey(), loaded.get(i).aggregateId);
+            }
+            assertEquals(((InventoryItemCreated) entry.getValue().get(0)).name, ((InventoryItemCreated) loaded.get(0)).name);
+        }
+        assertNull(coldStorage.load(UUID.randomUUID()));
+
+        ColdStorage.Stats stats = coldStorage.stats();
+        assertEquals(100, stats.streams);
+        assertEquals(300, stats.events);
+        assertTrue(stats.storedBytes < stats.uncompressedBytes);
+    }
+
+    private static Event event(Event event, int version, long position) {
+        event.version = version;
+        event.position = position;
+        return event;
+    }
+}
@@ -0,0 +1,30 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.InMemoryEventStore;
+import net.agilepartner.workshops.cqrs.domain.InventoryItemDeactivated;
+
+public class StreamArchiverTests {
+
+    @Test
+    public void failedRunsAreRecordedAndTheScheduleGoesOn() throws InterruptedException {
+        InMemoryEventStore withoutColdStorage = new InMemoryEventStore(new NoopPublisher());
+        try (StreamArchiver archiver = new StreamArchiver(withoutColdStorage, e -> e instanceof InventoryItemDeactivated, 1, TimeUnit.MILLISECONDS)) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (archiver.failedRuns() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+
+            assertTrue(archiver.failedRuns() >= 2);
+            assertTrue(archiver.lastFailure() instanceof IllegalStateException);
+            assertEquals(0, archiver.archivedStreams());
+        }
+    }
+}
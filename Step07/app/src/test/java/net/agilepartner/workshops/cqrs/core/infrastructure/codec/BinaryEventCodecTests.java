@@ -0,0 +1,185 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventEnvelope;
+import net.agilepartner.workshops.cqrs.core.NameChanged;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class BinaryEventCodecTests {
+
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void roundTripInventoryItemEvents() {
+        UUID aggregateId = UUID.randomUUID();
+
+        InventoryItemCreated created = roundTrip(InventoryItemCreated.create(aggregateId, "Apple", 10), 1);
+        assertEquals(aggregateId, created.aggregateId);
+        assertEquals(1, created.version);
+        assertEquals("Apple", created.name);
+        assertEquals(10, created.quantity);
+
+        InventoryItemRenamed renamed = roundTrip(InventoryItemRenamed.create(aggregateId, "Pomme \u00e0 cidre \uD83C\uDF4F"), 2);
+        assertEquals("Pomme \u00e0 cidre \uD83C\uDF4F", renamed.name);
+
+        InventoryItemCheckedIn checkedIn = roundTrip(InventoryItemCheckedIn.create(aggregateId, 300), 3);
+        assertEquals(300, checkedIn.quantity);
+
+        InventoryItemCheckedOut checkedOut = roundTrip(InventoryItemCheckedOut.create(aggregateId, -5), 4);
+        assertEquals(-5, checkedOut.quantity);
+
+        InventoryItemDeactivated deactivated = roundTrip(InventoryItemDeactivated.create(aggregateId), 70000);
+        assertEquals(aggregateId, deactivated.aggregateId);
+        assertEquals(70000, deactivated.version);
+    }
+
+    @Test
+    public void roundTripNullString() {
+        InventoryItemRenamed renamed = roundTrip(InventoryItemRenamed.create(UUID.randomUUID(), null), 1);
+        assertNull(renamed.name);
+    }
+
+    @Test
+    public void useDedicatedSerializer() {
+        EventTypeRegistry registry = new EventTypeRegistry();
+        registry.register(1, NameChanged.class, new EventSerializer<NameChanged>() {
+            @Override
+            public void write(NameChanged event, ByteBuffer target) {
+                Binary.writeString(target, event.name);
+            }
+
+            @Override
+            public NameChanged read(ByteBuffer source) {
+                return new NameChanged(null, Binary.readString(source));
+            }
+        });
+        EventCodec codec = new BinaryEventCodec(registry);
+        UUID aggregateId = UUID.randomUUID();
+        NameChanged evt = new NameChanged(aggregateId, "name");
+        evt.version = 3;
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        codec.encode(evt, buffer);
+        buffer.flip();
+        NameChanged decoded = (NameChanged) codec.decode(buffer);
+
+        assertEquals(aggregateId, decoded.aggregateId);
+        assertEquals(3, decoded.version);
+        assertEquals("name", decoded.name);
+    }
+
+    @Test
+    public void envelopeDecodesFieldsOnlyWhenAsked() {
+        AtomicInteger reads = new AtomicInteger();
+        EventTypeRegistry registry = new EventTypeRegistry();
+        registry.register(1, NameChanged.class, new EventSerializer<NameChanged>() {
+            @Override
+            public void write(NameChanged event, ByteBuffer target) {
+                Binary.writeString(target, event.name);
+            }
+
+            @Override
+            public NameChanged read(ByteBuffer source) {
+                reads.incrementAndGet();
+                return new NameChanged(null, Binary.readString(source));
+            }
+        });
+        EventCodec codec = new BinaryEventCodec(registry);
+        UUID aggregateId = UUID.randomUUID();
+        NameChanged evt = new NameChanged(aggregateId, "name");
+        evt.version = 3;
+
+        EventEnvelope envelope = codec.decodeEnvelope(encode(codec, evt), 42);
+        assertEquals(NameChanged.class, envelope.type);
+        assertEquals(aggregateId, envelope.aggregateId);
+        assertEquals(3, envelope.version);
+        assertEquals(42, envelope.position);
+        assertEquals(0, reads.get());
+
+        NameChanged decoded = (NameChanged) envelope.event();
+        assertEquals("name", decoded.name);
+        assertEquals(aggregateId, decoded.aggregateId);
+        assertEquals(3, decoded.version);
+        assertEquals(42, decoded.position);
+        assertSame(decoded, envelope.event());
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void envelopeOfEagerCodecCarriesTheDecodedEvent() {
+        InventoryItemCheckedIn evt = InventoryItemCheckedIn.create(UUID.randomUUID(), 7);
+        evt.version = 2;
+
+        EventEnvelope envelope = new JavaSerializationEventCodec().decodeEnvelope(encode(new JavaSerializationEventCodec(), evt), 5);
+        assertEquals(InventoryItemCheckedIn.class, envelope.type);
+        assertEquals(2, envelope.version);
+        assertEquals(5, envelope.position);
+        assertEquals(7, ((InventoryItemCheckedIn) envelope.event()).quantity);
+    }
+
+    @Test
+    public void binaryEncodingIsSmallerThanJavaSerialization() {
+        InventoryItemCheckedOut evt = InventoryItemCheckedOut.create(UUID.randomUUID(), 5);
+        evt.version = 12;
+
+        int binarySize = encode(codec, evt).remaining();
+        int javaSize = encode(new JavaSerializationEventCodec(), evt).remaining();
+
+        assertEquals(1 + 16 + 1 + 1, binarySize);
+        assertTrue(javaSize > 10 * binarySize);
+    }
+
+    @Test
+    public void varIntsUseAsFewBytesAsPossible() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        int[] values = { 0, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1 };
+        int[] sizes = { 1, 1, 2, 2, 3, 5, 5 };
+        for (int i = 0; i < values.length; i++) {
+            buffer.clear();
+            Binary.writeVarInt(buffer, values[i]);
+            assertEquals(sizes[i], buffer.position());
+            buffer.flip();
+            assertEquals(values[i], Binary.readVarInt(buffer));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void encodeUnregisteredEventFails() {
+        encode(codec, new NameChanged(UUID.randomUUID(), "name"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerSameTypeIdTwiceFails() {
+        EventTypeRegistry registry = InventoryItemEvents.register(new EventTypeRegistry());
+        registry.register(1, NameChanged.class, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerEventWithoutNoArgConstructorFails() {
+        new EventTypeRegistry().register(1, NameChanged.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Event> T roundTrip(T event, int version) {
+        event.version = version;
+        return (T) codec.decode(encode(codec, event));
+    }
+
+    private static ByteBuffer encode(EventCodec codec, Event event) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        codec.encode(event, buffer);
+        buffer.flip();
+        return buffer;
+    }
+}
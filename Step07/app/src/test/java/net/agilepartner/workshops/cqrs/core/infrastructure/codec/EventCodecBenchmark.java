@@ -0,0 +1,68 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.codec;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class EventCodecBenchmark {
+
+    private final int iterations = Benchmarks.intProperty("iterations", 200_000);
+
+    @Test
+    public void compareWithJavaSerialization() {
+        List<Event> events = sampleEvents();
+        run("JavaSerializationEventCodec", new JavaSerializationEventCodec(), events);
+        run("BinaryEventCodec", new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry())), events);
+    }
+
+    private void run(String name, EventCodec codec, List<Event> events) {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long totalSize = 0;
+        for (Event evt : events) {
+            buffer.clear();
+            codec.encode(evt, buffer);
+            totalSize += buffer.position();
+        }
+        Benchmarks.report(name + " average size", String.format("%.1f bytes/event", (double) totalSize / events.size()));
+
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long encodeNanos = Benchmarks.measure(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    buffer.clear();
+                    codec.encode(events.get(i % events.size()), buffer);
+                }
+            });
+            long decodeNanos = Benchmarks.measure(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    buffer.clear();
+                    codec.encode(events.get(i % events.size()), buffer);
+                    buffer.flip();
+                    codec.decode(buffer);
+                }
+            });
+            if (warmup == 1) {
+                Benchmarks.report(name + " encode", iterations, encodeNanos);
+                Benchmarks.report(name + " encode + decode", iterations, decodeNanos);
+            }
+        }
+    }
+
+    private static List<Event> sampleEvents() {
+        List<Event> events = new ArrayList<>();
+        UUID aggregateId = UUID.randomUUID();
+        events.add(InventoryItemCreated.create(aggregateId, "Apple", 10));
+        events.add(InventoryItemRenamed.create(aggregateId, "Green apple"));
+        events.add(InventoryItemCheckedIn.create(aggregateId, 5));
+        events.add(InventoryItemCheckedOut.create(aggregateId, 3));
+        events.add(InventoryItemDeactivated.create(aggregateId));
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).version = i + 1;
+        }
+        return events;
+    }
+}
@@ -0,0 +1,161 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.NameChanged;
+
+public class AggregateIndexTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void packSegmentAndOffsetInAddress() {
+        long address = AggregateIndex.address(7, 123456);
+        assertEquals(7, AggregateIndex.segmentOf(address));
+        assertEquals(123456, AggregateIndex.offsetOf(address));
+        assertTrue(AggregateIndex.address(1, 0) > AggregateIndex.address(0, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void saveAndLoadIndexFile() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        AggregateIndex index = new AggregateIndex();
+        index.add(first, 1, AggregateIndex.address(0, 0));
+        index.add(second, 1, AggregateIndex.address(0, 100));
+        index.add(first, 2, AggregateIndex.address(1, 0));
+        index.save(directory, AggregateIndex.address(1, 50));
+
+        AggregateIndex loaded = AggregateIndex.load(directory);
+
+        assertEquals(AggregateIndex.address(1, 50), loaded.checkpoint());
+        assertEquals(2, loaded.version(first));
+        assertArrayEquals(new long[] { AggregateIndex.address(0, 0), AggregateIndex.address(1, 0) }, loaded.addresses(first));
+        assertArrayEquals(new long[] { AggregateIndex.address(0, 100) }, loaded.addresses(second));
+    }
+
+    @Test
+    public void appendAddsAllItsAddressesAtOnce() {
+        UUID aggregateId = UUID.randomUUID();
+        AggregateIndex index = new AggregateIndex();
+        index.add(aggregateId, 1, AggregateIndex.address(0, 0));
+        long[] batch = new long[] { 42, AggregateIndex.address(0, 100), AggregateIndex.address(0, 200), AggregateIndex.address(1, 0), 42 };
+        index.add(aggregateId, 4, batch, 1, 3);
+
+        assertEquals(4, index.version(aggregateId));
+        assertArrayEquals(new long[] { AggregateIndex.address(0, 0), AggregateIndex.address(0, 100), AggregateIndex.address(0, 200), AggregateIndex.address(1, 0) }, index.addresses(aggregateId));
+    }
+
+    @Test
+    public void truncateDropsTheAddressesFromTheGivenOneOn() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        AggregateIndex index = new AggregateIndex();
+        index.add(first, 1, AggregateIndex.address(0, 0));
+        index.add(second, 1, AggregateIndex.address(0, 100));
+        index.add(first, 3, new long[] { AggregateIndex.address(0, 200), AggregateIndex.address(1, 0) }, 0, 2);
+
+        index.truncate(AggregateIndex.address(0, 100));
+
+        assertEquals(1, index.version(first));
+        assertArrayEquals(new long[] { AggregateIndex.address(0, 0) }, index.addresses(first));
+        assertEquals(0, index.version(second));
+        assertEquals(0, index.addresses(second).length);
+    }
+
+    @Test
+    public void corruptIndexFileIsIgnored() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        AggregateIndex index = new AggregateIndex();
+        index.add(UUID.randomUUID(), 1, 0);
+        index.save(directory, 42);
+        Path file = directory.resolve(AggregateIndex.FILE_NAME);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0xFF;
+        Files.write(file, bytes);
+
+        AggregateIndex loaded = AggregateIndex.load(directory);
+
+        assertEquals(0, loaded.checkpoint());
+    }
+
+    @Test
+    public void storeWritesIndexOnClose() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, new NoopPublisher())) {
+            append(eventStore, aggregateId, 1, 10);
+        }
+
+        AggregateIndex index = AggregateIndex.load(directory);
+        assertEquals(10, index.version(aggregateId));
+        assertEquals(10, index.addresses(aggregateId).length);
+    }
+
+    @Test
+    public void storeRebuildsMissingIndexFromLog() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, new NoopPublisher())) {
+            append(eventStore, aggregateId, 1, 60);
+        }
+        Files.delete(directory.resolve(AggregateIndex.FILE_NAME));
+
+        assertStream(directory, aggregateId, 60);
+    }
+
+    @Test
+    public void storeRebuildsCorruptIndexFromLog() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, new NoopPublisher())) {
+            append(eventStore, aggregateId, 1, 60);
+        }
+        Files.write(directory.resolve(AggregateIndex.FILE_NAME), new byte[] { 1, 2, 3 });
+
+        assertStream(directory, aggregateId, 60);
+    }
+
+    @Test
+    public void storeIndexesEventsAppendedAfterLastCheckpoint() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, new NoopPublisher())) {
+            append(eventStore, aggregateId, 1, 10);
+        }
+        // Not closed: simulates a crash after the checkpoint written on close
+        FileEventStore crashed = new FileEventStore(directory, 4096, new NoopPublisher());
+        append(crashed, aggregateId, 11, 20);
+
+        assertStream(directory, aggregateId, 20);
+    }
+
+    private static void append(FileEventStore eventStore, UUID aggregateId, int fromVersion, int toVersion) {
+        for (int version = fromVersion; version <= toVersion; version++) {
+            NameChanged evt = new NameChanged(aggregateId, "name " + version);
+            evt.version = version;
+            eventStore.save(aggregateId, Collections.singletonList(evt), version - 1);
+        }
+    }
+
+    private static void assertStream(Path directory, UUID aggregateId, int length) {
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, new NoopPublisher())) {
+            assertEquals(length, eventStore.load(aggregateId).size());
+            assertEquals("name " + length, ((NameChanged) eventStore.load(aggregateId).get(length - 1)).name);
+            append(eventStore, aggregateId, length + 1, length + 1);
+        }
+    }
+}
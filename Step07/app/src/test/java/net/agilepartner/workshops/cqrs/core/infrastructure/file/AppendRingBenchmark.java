@@ -0,0 +1,79 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class AppendRingBenchmark {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final int savesPerThread = Benchmarks.intProperty("savesPerThread", 50_000);
+    private final int ringSize = Benchmarks.intProperty("ringSize", 1024);
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void savesPerSecondAndAllocationPerEvent() throws Exception {
+        for (DurabilityPolicy policy : Arrays.asList(DurabilityPolicy.OS_MANAGED, DurabilityPolicy.EVERY_WRITE)) {
+            for (int threads : new int[] { 1, 4, 16 }) {
+                run(policy, 0, threads);
+                run(policy, ringSize, threads);
+            }
+        }
+    }
+
+    private void run(DurabilityPolicy policy, int ringSize, int threads) throws IOException, InterruptedException, ExecutionException {
+        int saves = policy == DurabilityPolicy.EVERY_WRITE ? savesPerThread / 10 : savesPerThread;
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), FileEventStore.DEFAULT_SEGMENT_SIZE, codec, policy, ringSize, new NoopPublisher())) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<List<Event>> events = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                UUID aggregateId = UUID.randomUUID();
+                List<Event> stream = new ArrayList<>();
+                for (int version = 1; version <= saves; version++) {
+                    Event evt = InventoryItemCheckedIn.create(aggregateId, 1);
+                    evt.version = version;
+                    stream.add(evt);
+                }
+                events.add(stream);
+            }
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<Event> stream : events) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    List<Event> single = new ArrayList<>(1);
+                    single.add(null);
+                    for (Event evt : stream) {
+                        single.set(0, evt);
+                        eventStore.save(evt.aggregateId, single, evt.version - 1);
+                    }
+                    return null;
+                }));
+            }
+            Map<Long, Long> allocatedBefore = Benchmarks.allocatedBytes();
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long nanos = System.nanoTime() - begin;
+            long allocated = Benchmarks.allocatedSince(allocatedBefore);
+            executor.shutdown();
+            String name = String.format("%s, %s, %d threads", policy, ringSize > 0 ? "ring" : "lock", threads);
+            Benchmarks.report(name, (long) threads * saves, nanos);
+            Benchmarks.report(name + " allocation", String.format("%,d bytes/event", allocated / ((long) threads * saves)));
+        }
+    }
+}
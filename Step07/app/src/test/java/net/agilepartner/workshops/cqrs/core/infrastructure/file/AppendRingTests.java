@@ -0,0 +1,126 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class AppendRingTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void ringSizeMustBeAPowerOfTwo() {
+        try {
+            new AppendRing(12);
+            Assert.fail("Should have raised IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    @Test
+    public void concurrentProducersWrapAroundTheRing() throws Exception {
+        for (DurabilityPolicy policy : Arrays.asList(DurabilityPolicy.EVERY_WRITE, DurabilityPolicy.group(200, TimeUnit.MICROSECONDS), DurabilityPolicy.OS_MANAGED)) {
+            Path directory = folder.newFolder().toPath();
+            List<UUID> aggregates = new ArrayList<>();
+            try (FileEventStore eventStore = new FileEventStore(directory, 64 * 1024, codec, policy, 4, new NoopPublisher())) {
+                ExecutorService executor = Executors.newFixedThreadPool(8);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    UUID aggregateId = UUID.randomUUID();
+                    aggregates.add(aggregateId);
+                    futures.add(executor.submit(() -> {
+                        for (int version = 1; version <= 100; version++) {
+                            eventStore.save(aggregateId, Collections.singletonList(checkedIn(aggregateId, version)), version - 1);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                executor.shutdown();
+            }
+
+            try (FileEventStore eventStore = new FileEventStore(directory, 64 * 1024, codec, policy, new NoopPublisher())) {
+                for (UUID aggregateId : aggregates) {
+                    List<? extends Event> events = eventStore.load(aggregateId);
+                    assertEquals(100, events.size());
+                    assertEquals(100, events.get(99).version);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void loadsNeverSeePartOfAnAppend() throws Exception {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), 64 * 1024, codec, DurabilityPolicy.OS_MANAGED, 8, new NoopPublisher())) {
+            UUID aggregateId = UUID.randomUUID();
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<?> producer = executor.submit(() -> {
+                for (int version = 0; version < 3 * 500; version += 3) {
+                    eventStore.save(aggregateId, Arrays.asList(checkedIn(aggregateId, version + 1), checkedIn(aggregateId, version + 2), checkedIn(aggregateId, version + 3)), version);
+                }
+                return null;
+            });
+            while (!producer.isDone()) {
+                int size = eventStore.load(aggregateId).size();
+                assertEquals("Loaded " + size + " events", 0, size % 3);
+            }
+            producer.get();
+            executor.shutdown();
+            assertEquals(3 * 500, eventStore.load(aggregateId).size());
+        }
+    }
+
+    @Test
+    public void versionConflictIsReportedToItsProducerOnly() throws IOException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), 64 * 1024, codec, DurabilityPolicy.EVERY_WRITE, 8, new NoopPublisher())) {
+            UUID aggregateId = UUID.randomUUID();
+            Event first = checkedIn(aggregateId, 1);
+            eventStore.save(aggregateId, Collections.singletonList(first), 0);
+            try {
+                eventStore.save(aggregateId, Collections.singletonList(checkedIn(aggregateId, 1)), 0);
+                Assert.fail("Should have raised OptimisticLockingException");
+            } catch (OptimisticLockingException e) { }
+            eventStore.save(aggregateId, Collections.singletonList(checkedIn(aggregateId, 2)), 1);
+
+            List<? extends Event> events = eventStore.load(aggregateId);
+            assertEquals(2, events.size());
+            assertEquals(first.position, events.get(0).position);
+        }
+    }
+
+    @Test
+    public void closedStoreRefusesRingAppends() throws IOException {
+        FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), 64 * 1024, codec, DurabilityPolicy.OS_MANAGED, 8, new NoopPublisher());
+        eventStore.close();
+        UUID aggregateId = UUID.randomUUID();
+        try {
+            eventStore.save(aggregateId, Collections.singletonList(checkedIn(aggregateId, 1)), 0);
+            Assert.fail("Should have raised EventStoreException");
+        } catch (EventStoreException e) { }
+    }
+
+    private static Event checkedIn(UUID aggregateId, int version) {
+        Event evt = InventoryItemCheckedIn.create(aggregateId, 1);
+        evt.version = version;
+        return evt;
+    }
+}
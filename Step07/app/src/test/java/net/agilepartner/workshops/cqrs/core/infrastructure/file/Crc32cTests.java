@@ -0,0 +1,44 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Crc32cTests {
+
+    @Test
+    public void matchesKnownCheckValues() {
+        assertEquals(0xE3069283, Crc32c.compute(ByteBuffer.wrap("123456789".getBytes(StandardCharsets.US_ASCII)), 0, 9));
+        assertEquals(0x8A9136AA, Crc32c.compute(ByteBuffer.wrap(new byte[32]), 0, 32));
+        assertEquals(0, Crc32c.compute(ByteBuffer.allocate(0), 0, 0));
+    }
+
+    @Test
+    public void slicedLoopAgreesWithBytewiseDefinitionAtAnyOffsetAndByteOrder() {
+        Random random = new Random(42);
+        byte[] bytes = new byte[300];
+        random.nextBytes(bytes);
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length = 0; length < bytes.length - offset; length += 7) {
+                int expected = bytewise(bytes, offset, length);
+                assertEquals(expected, Crc32c.compute(ByteBuffer.wrap(bytes), offset, length));
+                assertEquals(expected, Crc32c.compute(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), offset, length));
+            }
+        }
+    }
+
+    private static int bytewise(byte[] bytes, int offset, int length) {
+        int crc = 0xFFFFFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= bytes[i] & 0xFF;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+            }
+        }
+        return ~crc;
+    }
+}
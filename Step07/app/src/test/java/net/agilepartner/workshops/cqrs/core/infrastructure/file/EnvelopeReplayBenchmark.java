@@ -0,0 +1,111 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.*;
+import net.agilepartner.workshops.cqrs.core.infrastructure.*;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+// Nine events out of ten are renames, which neither the aggregate nor the projection below looks at.
+public class EnvelopeReplayBenchmark {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final int items = Benchmarks.intProperty("items", 1_000);
+    private final int eventsPerItem = Benchmarks.intProperty("eventsPerItem", 1_000);
+    private final int rounds = Benchmarks.intProperty("rounds", 5);
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void replayWhenMostPayloadsAreSkipped() throws IOException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), FileEventStore.DEFAULT_SEGMENT_SIZE, codec, DurabilityPolicy.OS_MANAGED, new NoopPublisher())) {
+            List<UUID> ids = fill(eventStore);
+            long events = (long) items * eventsPerItem;
+            int[] stock = new int[1];
+
+            EventResolver resolver = new InMemoryEventResolver();
+            resolver.register((EventHandler<InventoryItemCheckedIn>) e -> stock[0] += e.quantity, InventoryItemCheckedIn.class);
+            InMemoryEventPublisher projection = new InMemoryEventPublisher(resolver);
+
+            for (int round = 0; round < rounds; round++) {
+                Benchmarks.report("aggregate replay, every event decoded", events, Benchmarks.measure(() -> {
+                    for (UUID id : ids) {
+                        List<EventEnvelope> history = new ArrayList<>();
+                        for (Event e : eventStore.load(id)) {
+                            history.add(EventEnvelope.of(e));
+                        }
+                        stock[0] += new Stock(id).replay(history);
+                    }
+                }));
+                Benchmarks.report("aggregate replay, applied events decoded", events, Benchmarks.measure(() -> {
+                    for (UUID id : ids) {
+                        stock[0] += new Stock(id).replay(eventStore.loadEnvelopes(id, 0));
+                    }
+                }));
+                Benchmarks.report("projection replay, every event decoded", events, Benchmarks.measure(() -> {
+                    try (EventCursor cursor = eventStore.readAll(1)) {
+                        while (cursor.hasNext()) {
+                            projection.publish(EventEnvelope.of(cursor.next()));
+                        }
+                    }
+                }));
+                Benchmarks.report("projection replay, handled events decoded", events, Benchmarks.measure(() -> {
+                    try (EnvelopeCursor cursor = eventStore.readAllEnvelopes(1)) {
+                        while (cursor.hasNext()) {
+                            projection.publish(cursor.next());
+                        }
+                    }
+                }));
+            }
+            Benchmarks.report("checksum", String.valueOf(stock[0]));
+        }
+    }
+
+    private List<UUID> fill(FileEventStore eventStore) {
+        List<UUID> ids = new ArrayList<>();
+        List<Event> batch = new ArrayList<>();
+        for (int item = 0; item < items; item++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            batch.clear();
+            for (int version = 1; version <= eventsPerItem; version++) {
+                Event evt = version % 10 == 0
+                    ? InventoryItemCheckedIn.create(id, 1)
+                    : InventoryItemRenamed.create(id, "Granny Smith apple, crate of 12, lot " + version);
+                evt.version = version;
+                batch.add(evt);
+            }
+            eventStore.save(id, batch, 0);
+        }
+        return ids;
+    }
+
+    // Only cares about the stock level, so it has no apply method for renames.
+    static class Stock extends AggregateRoot {
+        private int quantity;
+
+        Stock(UUID id) {
+            super(id);
+        }
+
+        int replay(List<EventEnvelope> history) {
+            loadFromEnvelopes(history);
+            return quantity;
+        }
+
+        @SuppressWarnings("unused")
+        private void apply(InventoryItemCheckedIn evt) {
+            quantity += evt.quantity;
+        }
+    }
+}
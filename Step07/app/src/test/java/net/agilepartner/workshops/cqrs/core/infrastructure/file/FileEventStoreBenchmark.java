@@ -0,0 +1,65 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.core.infrastructure.memory.InMemoryEventStore;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class FileEventStoreBenchmark {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final int aggregates = Benchmarks.intProperty("aggregates", 1_000);
+    private final int eventsPerAggregate = Benchmarks.intProperty("eventsPerAggregate", 50);
+
+    @Test
+    public void compareWithInMemoryEventStore() throws IOException {
+        run("InMemoryEventStore", new InMemoryEventStore(new NoopPublisher()));
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), new NoopPublisher())) {
+            run("FileEventStore (Java serialization)", eventStore);
+        }
+        EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), codec, new NoopPublisher())) {
+            run("FileEventStore (binary codec)", eventStore);
+        }
+    }
+
+    private void run(String name, EventStore eventStore) {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < aggregates; i++) {
+            ids.add(UUID.randomUUID());
+        }
+
+        long saveNanos = Benchmarks.measure(() -> {
+            for (int version = 1; version <= eventsPerAggregate; version++) {
+                for (UUID id : ids) {
+                    InventoryItemCheckedIn evt = InventoryItemCheckedIn.create(id, 1);
+                    evt.version = version;
+                    eventStore.save(id, Collections.singletonList(evt), version - 1);
+                }
+            }
+        });
+        Benchmarks.report(name + " save", (long) aggregates * eventsPerAggregate, saveNanos);
+
+        int loads = Math.min(aggregates, 100);
+        long loadNanos = Benchmarks.measure(() -> {
+            for (int i = 0; i < loads; i++) {
+                List<? extends Event> events = eventStore.load(ids.get(i));
+                if (events.size() != eventsPerAggregate)
+                    throw new IllegalStateException("Unexpected stream length " + events.size());
+            }
+        });
+        Benchmarks.report(name + " load", loads, loadNanos);
+    }
+}
@@ -0,0 +1,530 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventEnvelope;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+import net.agilepartner.workshops.cqrs.core.MyAggregate;
+import net.agilepartner.workshops.cqrs.core.NameChanged;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EnvelopeCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreAwareRepository;
+import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+@RunWith(SpringRunner.class)
+public class FileEventStoreTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    EventPublisher publisher;
+
+    @Test
+    public void saveEventsForNewAggregate() throws IOException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), publisher)) {
+            UUID aggregateId = UUID.randomUUID();
+            NameChanged evt1 = nameChanged(aggregateId, "first name", 1);
+            NameChanged evt2 = nameChanged(aggregateId, "second name", 2);
+
+            eventStore.save(aggregateId, Arrays.asList(evt1, evt2), 0);
+            List<? extends Event> savedEvents = eventStore.load(aggregateId);
+
+            assertEquals(2, savedEvents.size());
+            assertEquals(1, savedEvents.get(0).version);
+            assertEquals("first name", ((NameChanged) savedEvents.get(0)).name);
+            assertEquals(2, savedEvents.get(1).version);
+            assertEquals("second name", ((NameChanged) savedEvents.get(1)).name);
+            verify(publisher).publish(aggregateId, evt1);
+            verify(publisher).publish(aggregateId, evt2);
+        }
+    }
+
+    @Test
+    public void loadOnlyReturnsEventsOfTheAggregate() throws IOException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), publisher)) {
+            UUID first = UUID.randomUUID();
+            UUID second = UUID.randomUUID();
+
+            eventStore.save(first, Arrays.asList(nameChanged(first, "first", 1)), 0);
+            eventStore.save(second, Arrays.asList(nameChanged(second, "second", 1)), 0);
+            eventStore.save(first, Arrays.asList(nameChanged(first, "first again", 2)), 1);
+
+            List<? extends Event> savedEvents = eventStore.load(first);
+            assertEquals(2, savedEvents.size());
+            assertEquals("first again", ((NameChanged) savedEvents.get(1)).name);
+            assertEquals(0, eventStore.load(UUID.randomUUID()).size());
+        }
+    }
+
+    @Test
+    public void saveEventsRaisesConcurrencyProblem() throws IOException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), publisher)) {
+            UUID aggregateId = UUID.randomUUID();
+            eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "first name", 1), nameChanged(aggregateId, "second name", 2)), 0);
+            eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "third name", 3)), 2);
+
+            try {
+                eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "fourth name", 4)), 2);
+                Assert.fail("Should have raised OptimisticLockingException");
+            } catch (OptimisticLockingException e) { }
+        }
+    }
+
+    @Test
+    public void rollsOverToNewSegmentWhenFull() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, publisher)) {
+            UUID aggregateId = UUID.randomUUID();
+            for (int version = 1; version <= 100; version++) {
+                eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "name " + version, version)), version - 1);
+            }
+
+            List<? extends Event> savedEvents = eventStore.load(aggregateId);
+            assertEquals(100, savedEvents.size());
+            for (int i = 0; i < savedEvents.size(); i++) {
+                assertEquals(i + 1, savedEvents.get(i).version);
+            }
+        }
+        assertTrue(Files.exists(directory.resolve(Segment.fileName(1))));
+    }
+
+    @Test
+    public void reopenRestoresEventsAndVersions() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, publisher)) {
+            for (int version = 1; version <= 50; version++) {
+                eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "name " + version, version)), version - 1);
+            }
+        }
+
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, publisher)) {
+            assertEquals(50, eventStore.load(aggregateId).size());
+            try {
+                eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "stale", 50)), 49);
+                Assert.fail("Should have raised OptimisticLockingException");
+            } catch (OptimisticLockingException e) { }
+
+            eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "name 51", 51)), 50);
+            assertEquals(51, eventStore.load(aggregateId).size());
+        }
+    }
+
+    @Test
+    public void worksWithEventStoreAwareRepository() throws IOException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), new NoopPublisher())) {
+            EventStoreAwareRepository<MyAggregate> repository = new EventStoreAwareRepository<>(eventStore, id -> new MyAggregate(id));
+            UUID aggregateId = UUID.randomUUID();
+            MyAggregate aggregate = new MyAggregate(aggregateId, "first name");
+            repository.save(aggregate);
+
+            aggregate = repository.getById(aggregateId);
+            aggregate.changeName("second name");
+            repository.save(aggregate);
+
+            MyAggregate reloaded = repository.getById(aggregateId);
+            assertEquals(2, reloaded.getVersion());
+            assertEquals("second name", reloaded.getName());
+        }
+    }
+
+    @Test
+    public void saveAndLoadWithBinaryCodec() throws IOException {
+        EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, codec, publisher)) {
+            EventStoreAwareRepository<InventoryItem> repository = new EventStoreAwareRepository<>(eventStore, id -> new InventoryItem(id));
+            InventoryItem item = InventoryItem.create(aggregateId, "Apple", 10);
+            item.checkIn(5);
+            repository.save(item);
+        } catch (InventoryItemDeactivatedException e) {
+            Assert.fail("Should not have raised InventoryItemDeactivatedException");
+        }
+
+        try (FileEventStore eventStore = new FileEventStore(directory, codec, publisher)) {
+            List<? extends Event> savedEvents = eventStore.load(aggregateId);
+            assertEquals(2, savedEvents.size());
+            assertEquals("Apple", ((InventoryItemCreated) savedEvents.get(0)).name);
+            assertEquals(5, ((InventoryItemCheckedIn) savedEvents.get(1)).quantity);
+        }
+    }
+
+    @Test
+    public void groupCommitAcknowledgesConcurrentWritersAfterFlush() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        int writers = 8;
+        int eventsPerWriter = 25;
+        Map<UUID, List<Integer>> published = new ConcurrentHashMap<>();
+        EventPublisher recorder = new EventPublisher() {
+            @Override
+            public <T extends Event> void publish(UUID aggregateId, T event) {
+                published.computeIfAbsent(aggregateId, id -> new CopyOnWriteArrayList<>()).add(event.version);
+            }
+        };
+
+        List<UUID> ids = new ArrayList<>();
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, new JavaSerializationEventCodec(), DurabilityPolicy.group(2, TimeUnit.MILLISECONDS), recorder)) {
+            ExecutorService executor = Executors.newFixedThreadPool(writers);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                UUID aggregateId = UUID.randomUUID();
+                ids.add(aggregateId);
+                futures.add(executor.submit(() -> {
+                    for (int version = 1; version <= eventsPerWriter; version++) {
+                        eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "name " + version, version)), version - 1);
+                        assertEquals(version, published.get(aggregateId).size());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+        }
+
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, publisher)) {
+            for (UUID aggregateId : ids) {
+                assertEquals(eventsPerWriter, eventStore.load(aggregateId).size());
+                for (int i = 0; i < eventsPerWriter; i++) {
+                    assertEquals(i + 1, (int) published.get(aggregateId).get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void osManagedDurabilityStillPersistsOnClose() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, new JavaSerializationEventCodec(), DurabilityPolicy.OS_MANAGED, publisher)) {
+            eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "first name", 1)), 0);
+            verify(publisher).publish(eq(aggregateId), any(NameChanged.class));
+        }
+
+        try (FileEventStore eventStore = new FileEventStore(directory, publisher)) {
+            assertEquals(1, eventStore.load(aggregateId).size());
+        }
+    }
+
+    // A handler waiting on a save made by another thread would deadlock if it ran under the store lock.
+    @Test
+    public void handlersRunOutsideTheStoreLock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        UUID aggregateId = UUID.randomUUID();
+        UUID reactionId = UUID.randomUUID();
+        FileEventStore[] store = new FileEventStore[1];
+        EventPublisher reacting = new EventPublisher() {
+            @Override
+            public <T extends Event> void publish(UUID id, T event) {
+                if (!id.equals(aggregateId))
+                    return;
+                try {
+                    executor.submit(() -> store[0].save(reactionId, Arrays.asList(nameChanged(reactionId, "reaction", 1)), 0)).get(10, TimeUnit.SECONDS);
+                } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        for (int ringSize : new int[] { 0, 8 }) {
+            for (DurabilityPolicy policy : Arrays.asList(DurabilityPolicy.EVERY_WRITE, DurabilityPolicy.OS_MANAGED, DurabilityPolicy.group(200, TimeUnit.MICROSECONDS))) {
+                try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), FileEventStore.DEFAULT_SEGMENT_SIZE, new JavaSerializationEventCodec(), policy, ringSize, reacting)) {
+                    store[0] = eventStore;
+                    eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "first name", 1)), 0);
+
+                    assertEquals(policy + ", ring of " + ringSize, 1, eventStore.load(reactionId).size());
+                }
+            }
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void readAllStreamsEventsInGlobalOrderAcrossSegments() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, publisher)) {
+            for (int version = 1; version <= 40; version++) {
+                eventStore.save(first, Arrays.asList(nameChanged(first, "first " + version, version)), version - 1);
+                eventStore.save(second, Arrays.asList(nameChanged(second, "second " + version, version)), version - 1);
+            }
+            assertReadAllFrom(eventStore, 1, 80);
+            assertReadAllFrom(eventStore, 57, 80);
+        }
+
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, publisher)) {
+            assertReadAllFrom(eventStore, 33, 80);
+            eventStore.save(second, Arrays.asList(nameChanged(second, "second 41", 41)), 40);
+            assertEquals(81, eventStore.load(second).get(40).position);
+            try (EventCursor cursor = eventStore.readAll(81)) {
+                assertEquals("second 41", ((NameChanged) cursor.next()).name);
+                assertFalse(cursor.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void loadFromVersionReturnsTheTailOfTheStream() throws IOException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), 4096, publisher)) {
+            UUID aggregateId = UUID.randomUUID();
+            for (int version = 1; version <= 30; version++) {
+                eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "name " + version, version)), version - 1);
+            }
+
+            List<? extends Event> tail = eventStore.load(aggregateId, 21);
+            assertEquals(10, tail.size());
+            assertEquals(21, tail.get(0).version);
+            assertEquals("name 30", ((NameChanged) tail.get(9)).name);
+            assertEquals(0, eventStore.load(aggregateId, 31).size());
+        }
+    }
+
+    @Test
+    public void saveReturnsTheCommitPosition() throws IOException {
+        for (int ringSize : new int[] { 0, 8 }) {
+            try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), 4096, new JavaSerializationEventCodec(), DurabilityPolicy.OS_MANAGED, ringSize, publisher)) {
+                UUID first = UUID.randomUUID();
+                UUID second = UUID.randomUUID();
+                assertEquals(2, eventStore.save(first, Arrays.asList(nameChanged(first, "a", 1), nameChanged(first, "b", 2)), 0));
+                assertEquals(3, eventStore.save(second, Arrays.asList(nameChanged(second, "c", 1)), 0));
+                assertEquals(0, eventStore.save(second, Collections.emptyList(), 1));
+                assertEquals(5, eventStore.save(Arrays.asList(
+                    new StreamAppend(second, Arrays.asList(nameChanged(second, "d", 2)), 1),
+                    new StreamAppend(first, Arrays.asList(nameChanged(first, "e", 3)), 2))));
+            }
+        }
+    }
+
+    @Test
+    public void envelopesCarryTheHeadersOfTheStoredEvents() throws IOException {
+        EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), 4096, codec, publisher)) {
+            eventStore.save(first, Arrays.asList(versioned(InventoryItemCreated.create(first, "Apple", 10), 1)), 0);
+            for (int version = 1; version <= 50; version++) {
+                eventStore.save(second, Arrays.asList(versioned(InventoryItemRenamed.create(second, "Pear " + version), version)), version - 1);
+            }
+            eventStore.save(first, Arrays.asList(versioned(InventoryItemCheckedIn.create(first, 5), 2)), 1);
+
+            List<EventEnvelope> tail = eventStore.loadEnvelopes(second, 41);
+            assertEquals(10, tail.size());
+            assertEquals(InventoryItemRenamed.class, tail.get(0).type);
+            assertEquals(41, tail.get(0).version);
+            assertEquals(eventStore.load(second, 41).get(0).position, tail.get(0).position);
+            assertEquals("Pear 50", ((InventoryItemRenamed) tail.get(9).event()).name);
+
+            try (EnvelopeCursor cursor = eventStore.readAllEnvelopes(1)) {
+                for (long position = 1; position <= 52; position++) {
+                    EventEnvelope envelope = cursor.next();
+                    assertEquals(position, envelope.position);
+                    assertEquals(position == 1 || position == 52 ? first : second, envelope.aggregateId);
+                }
+                assertFalse(cursor.hasNext());
+            }
+            try (EnvelopeCursor cursor = eventStore.readAllEnvelopes(52)) {
+                EventEnvelope envelope = cursor.next();
+                assertEquals(InventoryItemCheckedIn.class, envelope.type);
+                assertEquals(5, ((InventoryItemCheckedIn) envelope.event()).quantity);
+                assertEquals(52, envelope.event().position);
+            }
+        }
+    }
+
+    @Test
+    public void multiStreamAppendWritesAllStreamsOrNone() throws IOException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), publisher)) {
+            UUID first = UUID.randomUUID();
+            UUID second = UUID.randomUUID();
+            eventStore.save(first, Arrays.asList(nameChanged(first, "first", 1)), 0);
+
+            try {
+                eventStore.save(Arrays.asList(
+                    new StreamAppend(second, Arrays.asList(nameChanged(second, "second", 1)), 0),
+                    new StreamAppend(first, Arrays.asList(nameChanged(first, "stale", 1)), 0)));
+                Assert.fail("Should have raised OptimisticLockingException");
+            } catch (OptimisticLockingException e) { }
+            assertEquals(0, eventStore.load(second).size());
+            assertEquals(1, eventStore.load(first).size());
+
+            NameChanged evt1 = nameChanged(first, "first again", 2);
+            NameChanged evt2 = nameChanged(second, "second", 1);
+            eventStore.save(Arrays.asList(
+                new StreamAppend(first, Arrays.asList(evt1), 1),
+                new StreamAppend(second, Arrays.asList(evt2), 0)));
+            assertEquals(2, eventStore.load(first).size());
+            assertEquals(1, eventStore.load(second).size());
+            assertEquals(evt1.position + 1, evt2.position);
+            verify(publisher).publish(first, evt1);
+            verify(publisher).publish(second, evt2);
+        }
+    }
+
+    @Test
+    public void multiStreamAppendRollingOverSegmentsIsIndexedAfterRestart() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        List<UUID> aggregates = new ArrayList<>();
+        List<StreamAppend> appends = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            UUID aggregateId = UUID.randomUUID();
+            aggregates.add(aggregateId);
+            appends.add(new StreamAppend(aggregateId, Arrays.asList(nameChanged(aggregateId, "name " + i, 1), nameChanged(aggregateId, "name " + i, 2)), 0));
+        }
+        FileEventStore crashed = new FileEventStore(directory, 4096, new NoopPublisher());
+        crashed.save(appends);
+
+        // Opened without closing the first store: only what the rolls left on disk is used.
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, new NoopPublisher())) {
+            assertTrue(Files.exists(directory.resolve(Segment.fileName(1))));
+            for (UUID aggregateId : aggregates) {
+                assertEquals(2, eventStore.load(aggregateId).size());
+            }
+        }
+        crashed.close();
+    }
+
+    @Test
+    public void tornRecordAtTheTailIsTruncatedOnReopen() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, new NoopPublisher())) {
+            for (int version = 1; version <= 5; version++) {
+                eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "name " + version, version)), version - 1);
+            }
+        }
+        List<Long> records = recordOffsets(directory.resolve(Segment.fileName(0)));
+        flipByte(directory.resolve(Segment.fileName(0)), records.get(4) + Segment.HEADER_SIZE + 3);
+
+        try (FileEventStore eventStore = new FileEventStore(directory, new NoopPublisher())) {
+            assertEquals(4, eventStore.load(aggregateId).size());
+            NameChanged evt = nameChanged(aggregateId, "name 5 again", 5);
+            eventStore.save(aggregateId, Arrays.asList(evt), 4);
+            assertEquals(5, evt.position);
+        }
+        try (FileEventStore eventStore = new FileEventStore(directory, new NoopPublisher())) {
+            assertEquals("name 5 again", ((NameChanged) eventStore.load(aggregateId).get(4)).name);
+        }
+    }
+
+    @Test
+    public void batchWithATornRecordIsDroppedAsAWhole() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, new NoopPublisher())) {
+            eventStore.save(first, Arrays.asList(nameChanged(first, "first", 1)), 0);
+            eventStore.save(Arrays.asList(
+                new StreamAppend(first, Arrays.asList(nameChanged(first, "first again", 2)), 1),
+                new StreamAppend(second, Arrays.asList(nameChanged(second, "second", 1), nameChanged(second, "second again", 2)), 0)));
+        }
+        List<Long> records = recordOffsets(directory.resolve(Segment.fileName(0)));
+        assertEquals(4, records.size());
+        flipByte(directory.resolve(Segment.fileName(0)), records.get(3) + Segment.HEADER_SIZE);
+
+        try (FileEventStore eventStore = new FileEventStore(directory, new NoopPublisher())) {
+            assertEquals(1, eventStore.load(first).size());
+            assertEquals(0, eventStore.load(second).size());
+            try (EventCursor cursor = eventStore.readAll(1)) {
+                cursor.next();
+                assertFalse(cursor.hasNext());
+            }
+        }
+    }
+
+    // Sealed segments are trusted on their footer: corrupting one goes unnoticed, which shows that opening
+    // the store only reads the active segment whatever the length of the history.
+    @Test
+    public void sealedSegmentsAreNotScannedOnOpen() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, new NoopPublisher())) {
+            for (int version = 1; version <= 100; version++) {
+                eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "name " + version, version)), version - 1);
+            }
+        }
+        assertTrue(Files.exists(directory.resolve(Segment.fileName(2))));
+        // The checksum of the very first record: a scan would truncate the whole history there.
+        flipByte(directory.resolve(Segment.fileName(0)), 4);
+
+        try (FileEventStore eventStore = new FileEventStore(directory, 4096, new NoopPublisher())) {
+            List<? extends Event> events = eventStore.load(aggregateId);
+            assertEquals(100, events.size());
+            assertEquals(100, events.get(99).version);
+            eventStore.save(aggregateId, Arrays.asList(nameChanged(aggregateId, "name 101", 101)), 100);
+        }
+    }
+
+    private static void assertReadAllFrom(FileEventStore eventStore, long fromPosition, long lastPosition) {
+        try (EventCursor cursor = eventStore.readAll(fromPosition)) {
+            long expected = fromPosition;
+            while (cursor.hasNext()) {
+                Event event = cursor.next();
+                assertEquals(expected, event.position);
+                int version = (int) ((expected + 1) / 2);
+                assertEquals(version, event.version);
+                assertEquals((expected % 2 == 1 ? "first " : "second ") + version, ((NameChanged) event).name);
+                expected++;
+            }
+            assertEquals(lastPosition + 1, expected);
+        }
+    }
+
+    private static List<Long> recordOffsets(Path segment) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            long offset = 0;
+            int length;
+            while ((length = file.readInt()) != 0) {
+                offsets.add(offset);
+                offset += length;
+                file.seek(offset);
+            }
+        }
+        return offsets;
+    }
+
+    private static void flipByte(Path file, long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(offset);
+            int value = raf.read();
+            raf.seek(offset);
+            raf.write(value ^ 0xFF);
+        }
+    }
+
+    private static NameChanged nameChanged(UUID aggregateId, String name, int version) {
+        NameChanged evt = new NameChanged(aggregateId, name);
+        evt.version = version;
+        return evt;
+    }
+
+    private static Event versioned(Event event, int version) {
+        event.version = version;
+        return event;
+    }
+}
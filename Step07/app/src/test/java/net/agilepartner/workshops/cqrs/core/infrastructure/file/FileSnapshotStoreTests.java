@@ -0,0 +1,45 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.core.Snapshot;
+
+public class FileSnapshotStoreTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsLatestSnapshotAcrossInstances() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+
+        FileSnapshotStore snapshotStore = new FileSnapshotStore(directory);
+        assertNull(snapshotStore.load(aggregateId));
+        snapshotStore.save(new Snapshot(aggregateId, 10, "ten"));
+        snapshotStore.save(new Snapshot(aggregateId, 20, "twenty"));
+        snapshotStore.save(new Snapshot(aggregateId, 15, "fifteen"));
+
+        Snapshot snapshot = new FileSnapshotStore(directory).load(aggregateId);
+        assertEquals(20, snapshot.version);
+        assertEquals("twenty", snapshot.state);
+    }
+
+    @Test
+    public void corruptSnapshotIsIgnored() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        UUID aggregateId = UUID.randomUUID();
+        Files.write(directory.resolve(aggregateId + ".snapshot"), new byte[] { 1, 2, 3 });
+
+        assertNull(new FileSnapshotStore(directory).load(aggregateId));
+    }
+}
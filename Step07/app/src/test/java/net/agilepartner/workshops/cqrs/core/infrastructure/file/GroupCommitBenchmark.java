@@ -0,0 +1,65 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class GroupCommitBenchmark {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final int savesPerThread = Benchmarks.intProperty("savesPerThread", 200);
+    private final int windowMicros = Benchmarks.intProperty("windowMicros", 500);
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void savesPerSecondByDurabilityPolicy() throws Exception {
+        List<DurabilityPolicy> policies = Arrays.asList(
+            DurabilityPolicy.EVERY_WRITE,
+            DurabilityPolicy.group(windowMicros, TimeUnit.MICROSECONDS),
+            DurabilityPolicy.OS_MANAGED);
+        for (DurabilityPolicy policy : policies) {
+            for (int threads : new int[] { 1, 4, 16, 64 }) {
+                run(policy, threads);
+            }
+        }
+    }
+
+    private void run(DurabilityPolicy policy, int threads) throws IOException, InterruptedException, ExecutionException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), codec, policy, new NoopPublisher())) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                UUID aggregateId = UUID.randomUUID();
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int version = 1; version <= savesPerThread; version++) {
+                        InventoryItemCheckedIn evt = InventoryItemCheckedIn.create(aggregateId, 1);
+                        evt.version = version;
+                        eventStore.save(aggregateId, Collections.singletonList(evt), version - 1);
+                    }
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long nanos = System.nanoTime() - begin;
+            executor.shutdown();
+            Benchmarks.report(String.format("%s with %d writer threads", policy, threads), (long) threads * savesPerThread, nanos);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexBuilderTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<UUID, List<Long>> expected = new HashMap<>();
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    @Test
+    public void parallelRebuildKeepsEveryAggregateInLogOrder() throws IOException {
+        writeLog(folder.newFolder().toPath(), 2_000);
+        AggregateIndex index = new AggregateIndex();
+
+        new IndexBuilder(pool).catchUp(index, segments);
+
+        assertIndexed(index);
+    }
+
+    @Test
+    public void catchUpStartsAtTheCheckpoint() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        writeLog(directory, 2_000);
+        AggregateIndex head = new AggregateIndex();
+        int checkpointSegment = segments.size() / 2;
+        for (int i = 0; i < checkpointSegment; i++) {
+            Segment segment = segments.get(i);
+            segment.forEach(0, (offset, msb, lsb, version, position) -> head.add(new UUID(msb, lsb), version, AggregateIndex.address(segment.index(), offset)));
+        }
+        head.save(directory, AggregateIndex.address(checkpointSegment, 0));
+        AggregateIndex index = AggregateIndex.load(directory);
+
+        new IndexBuilder(pool).catchUp(index, segments);
+
+        assertIndexed(index);
+    }
+
+    private void writeLog(Path directory, int events) {
+        Random random = new Random(7);
+        List<UUID> aggregates = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            aggregates.add(UUID.randomUUID());
+        }
+        ByteBuffer payload = ByteBuffer.allocate(16);
+        Segment segment = Segment.open(directory, 0, 4096);
+        segments.add(segment);
+        for (int position = 1; position <= events; position++) {
+            UUID aggregateId = aggregates.get(random.nextInt(aggregates.size()));
+            List<Long> addresses = expected.computeIfAbsent(aggregateId, id -> new ArrayList<>());
+            payload.clear();
+            if (!segment.fits(Segment.HEADER_SIZE + payload.remaining())) {
+                segment.seal();
+                segment = Segment.open(directory, segment.index() + 1, 4096);
+                segments.add(segment);
+            }
+            int offset = segment.append(aggregateId, addresses.size() + 1, position, payload, false);
+            addresses.add(AggregateIndex.address(segment.index(), offset));
+        }
+    }
+
+    private void assertIndexed(AggregateIndex index) {
+        for (Map.Entry<UUID, List<Long>> e : expected.entrySet()) {
+            long[] addresses = new long[e.getValue().size()];
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = e.getValue().get(i);
+            }
+            assertArrayEquals(addresses, index.addresses(e.getKey()));
+            assertEquals(addresses.length, index.version(e.getKey()));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+
+public class IndexRebuildBenchmark {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final int events = Benchmarks.intProperty("events", 5_000_000);
+    private final int aggregates = Benchmarks.intProperty("aggregates", 100_000);
+    private final int segmentSize = Benchmarks.intProperty("segmentSize", 16 * 1024 * 1024);
+
+    @Test
+    public void rebuildTimeByParallelism() throws IOException {
+        List<Segment> segments = writeLog(folder.newFolder().toPath());
+        Benchmarks.report("available processors", Integer.toString(Runtime.getRuntime().availableProcessors()));
+        Benchmarks.report("log", String.format("%,d events in %d segments", events, segments.size()));
+        try {
+            for (int round = 0; round < 2; round++) {
+                long nanos = Benchmarks.measure(() -> {
+                    AggregateIndex index = new AggregateIndex();
+                    for (Segment segment : segments) {
+                        segment.forEach(0, (offset, msb, lsb, version, position) -> index.add(new UUID(msb, lsb), version, AggregateIndex.address(segment.index(), offset)));
+                    }
+                });
+                Benchmarks.report("one segment after the other", events, nanos);
+                for (int parallelism : new int[] { 1, 4, 16 }) {
+                    ForkJoinPool pool = new ForkJoinPool(parallelism);
+                    nanos = Benchmarks.measure(() -> new IndexBuilder(pool).catchUp(new AggregateIndex(), segments));
+                    pool.shutdown();
+                    Benchmarks.report(String.format("fork/join over segments, parallelism %d", parallelism), events, nanos);
+                }
+            }
+        } finally {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    private List<Segment> writeLog(Path directory) {
+        Random random = new Random(42);
+        UUID[] ids = new UUID[aggregates];
+        int[] versions = new int[aggregates];
+        for (int i = 0; i < aggregates; i++) {
+            ids[i] = UUID.randomUUID();
+        }
+        List<Segment> segments = new ArrayList<>();
+        Segment segment = Segment.open(directory, 0, segmentSize);
+        segments.add(segment);
+        ByteBuffer payload = ByteBuffer.allocate(16);
+        for (int position = 1; position <= events; position++) {
+            int aggregate = random.nextInt(aggregates);
+            payload.clear();
+            if (!segment.fits(Segment.HEADER_SIZE + payload.remaining())) {
+                segment.seal();
+                segment = Segment.open(directory, segment.index() + 1, segmentSize);
+                segments.add(segment);
+            }
+            segment.append(ids[aggregate], ++versions[aggregate], position, payload, false);
+        }
+        return segments;
+    }
+}
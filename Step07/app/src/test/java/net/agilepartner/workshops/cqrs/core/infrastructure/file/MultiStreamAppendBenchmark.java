@@ -0,0 +1,59 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class MultiStreamAppendBenchmark {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final int batches = Benchmarks.intProperty("batches", 200);
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void oneSavePerStreamAgainstOneMultiStreamAppend() throws IOException {
+        for (int streams : new int[] { 2, 8, 32 }) {
+            run(streams, false);
+            run(streams, true);
+        }
+    }
+
+    private void run(int streams, boolean atomic) throws IOException {
+        try (FileEventStore eventStore = new FileEventStore(folder.newFolder().toPath(), codec, DurabilityPolicy.EVERY_WRITE, new NoopPublisher())) {
+            List<UUID> aggregates = new ArrayList<>();
+            for (int i = 0; i < streams; i++) {
+                aggregates.add(UUID.randomUUID());
+            }
+            long nanos = Benchmarks.measure(() -> {
+                for (int version = 1; version <= batches; version++) {
+                    List<StreamAppend> appends = new ArrayList<>();
+                    for (UUID aggregateId : aggregates) {
+                        Event evt = InventoryItemCheckedIn.create(aggregateId, 1);
+                        evt.version = version;
+                        appends.add(new StreamAppend(aggregateId, Collections.singletonList(evt), version - 1));
+                    }
+                    if (atomic) {
+                        eventStore.save(appends);
+                    } else {
+                        for (StreamAppend append : appends) {
+                            eventStore.save(append.aggregateId, append.events, append.expectedVersion);
+                        }
+                    }
+                }
+            });
+            Benchmarks.report(String.format("%d streams, %s", streams, atomic ? "one multi-stream append" : "one save per stream"), (long) batches * streams, nanos);
+        }
+    }
+}
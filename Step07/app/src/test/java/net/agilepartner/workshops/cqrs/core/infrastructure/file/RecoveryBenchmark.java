@@ -0,0 +1,51 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.file;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class RecoveryBenchmark {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final int segmentSize = Benchmarks.intProperty("segmentSize", 4 * 1024 * 1024);
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void openTimeByHistoryLength() throws IOException {
+        for (int sealedSegments : new int[] { 1, 8, 32 }) {
+            Path directory = folder.newFolder().toPath();
+            try (FileEventStore eventStore = new FileEventStore(directory, segmentSize, codec, DurabilityPolicy.OS_MANAGED, new NoopPublisher())) {
+                UUID aggregateId = UUID.randomUUID();
+                int version = 0;
+                List<Event> batch = new ArrayList<>();
+                while (!Files.exists(directory.resolve(Segment.fileName(sealedSegments)))) {
+                    batch.clear();
+                    for (int i = 0; i < 1000; i++) {
+                        Event evt = InventoryItemCheckedIn.create(aggregateId, 1);
+                        evt.version = version + i + 1;
+                        batch.add(evt);
+                    }
+                    eventStore.save(aggregateId, batch, version);
+                    version += batch.size();
+                }
+            }
+            // The segments are trusted or scanned on open; the aggregate index is loaded whole either way.
+            FileEventStore[] reopened = new FileEventStore[1];
+            long nanos = Benchmarks.measure(() -> reopened[0] = new FileEventStore(directory, segmentSize, codec, DurabilityPolicy.OS_MANAGED, new NoopPublisher()));
+            reopened[0].close();
+            Benchmarks.report(String.format("open after %d sealed segments of %d MB", sealedSegments, segmentSize >> 20), String.format("%,.1f ms, index file %,d KB", nanos / 1e6, Files.size(directory.resolve(AggregateIndex.FILE_NAME)) >> 10));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.jdbc;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class JdbcEventStoreBenchmark {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final int eventsPerRun = Benchmarks.intProperty("events", 50_000);
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void batchedVersusRowByRowInserts() throws IOException {
+        for (int eventsPerSave : new int[] { 1, 10, 50 }) {
+            for (boolean batch : new boolean[] { false, true }) {
+                run(String.format("H2 in memory, %d events per save, %s", eventsPerSave, batch ? "batched" : "row by row"),
+                    "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", eventsPerSave, batch);
+                run(String.format("H2 file, %d events per save, %s", eventsPerSave, batch ? "batched" : "row by row"),
+                    "jdbc:h2:" + folder.newFolder().toPath().resolve("events"), eventsPerSave, batch);
+            }
+        }
+    }
+
+    private void run(String name, String url, int eventsPerSave, boolean batch) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(url);
+        JdbcEventStore.createSchema(dataSource);
+        try (JdbcEventStore eventStore = new JdbcEventStore(dataSource, codec, new NoopPublisher(), batch)) {
+            int saves = eventsPerRun / eventsPerSave;
+            List<UUID> ids = new ArrayList<>();
+            for (int i = 0; i < saves; i++) {
+                ids.add(UUID.randomUUID());
+            }
+            long nanos = Benchmarks.measure(() -> {
+                for (UUID id : ids) {
+                    List<Event> events = new ArrayList<>(eventsPerSave);
+                    for (int version = 1; version <= eventsPerSave; version++) {
+                        Event evt = InventoryItemCheckedIn.create(id, 1);
+                        evt.version = version;
+                        events.add(evt);
+                    }
+                    eventStore.save(id, events, 0);
+                }
+            });
+            Benchmarks.report(name, (long) saves * eventsPerSave, nanos);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.verify;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+import net.agilepartner.workshops.cqrs.core.NameChanged;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+@RunWith(SpringRunner.class)
+public class JdbcEventStoreTests {
+
+    @Mock
+    EventPublisher publisher;
+
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+    private JdbcDataSource dataSource;
+    private JdbcEventStore eventStore;
+
+    @Before
+    public void setUp() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        JdbcEventStore.createSchema(dataSource);
+        eventStore = new JdbcEventStore(dataSource, codec, publisher);
+    }
+
+    @After
+    public void tearDown() {
+        eventStore.close();
+    }
+
+    @Test
+    public void saveEventsForNewAggregate() {
+        UUID aggregateId = UUID.randomUUID();
+        Event evt1 = versioned(InventoryItemCreated.create(aggregateId, "Apple", 10), 1);
+        Event evt2 = versioned(InventoryItemCheckedIn.create(aggregateId, 5), 2);
+
+        eventStore.save(aggregateId, Arrays.asList(evt1, evt2), 0);
+        List<? extends Event> savedEvents = eventStore.load(aggregateId);
+
+        assertEquals(2, savedEvents.size());
+        assertEquals("Apple", ((InventoryItemCreated) savedEvents.get(0)).name);
+        assertEquals(5, ((InventoryItemCheckedIn) savedEvents.get(1)).quantity);
+        assertEquals(evt2.position, savedEvents.get(1).position);
+        assertEquals(1, eventStore.load(aggregateId, 2).size());
+        assertEquals(0, eventStore.load(UUID.randomUUID()).size());
+        verify(publisher).publish(aggregateId, evt1);
+        verify(publisher).publish(aggregateId, evt2);
+    }
+
+    @Test
+    public void saveEventsRaisesConcurrencyProblem() {
+        UUID aggregateId = UUID.randomUUID();
+        eventStore.save(aggregateId, Arrays.asList(versioned(InventoryItemCreated.create(aggregateId, "Apple", 10), 1)), 0);
+
+        try {
+            eventStore.save(aggregateId, Arrays.asList(versioned(InventoryItemCheckedIn.create(aggregateId, 5), 1)), 0);
+            Assert.fail("Should have raised OptimisticLockingException");
+        } catch (OptimisticLockingException e) { }
+        assertEquals(1, eventStore.load(aggregateId).size());
+    }
+
+    @Test
+    public void uniqueConstraintSettlesRacingStores() throws Exception {
+        UUID aggregateId = UUID.randomUUID();
+        List<JdbcEventStore> stores = Arrays.asList(
+            new JdbcEventStore(dataSource, codec, new NoopPublisher()),
+            new JdbcEventStore(dataSource, codec, new NoopPublisher(), false));
+        AtomicInteger committed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            JdbcEventStore store = stores.get(t % 2);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    int version = store.load(aggregateId).size();
+                    try {
+                        store.save(aggregateId, Arrays.asList(versioned(InventoryItemCheckedIn.create(aggregateId, 1), version + 1), versioned(InventoryItemCheckedIn.create(aggregateId, 1), version + 2)), version);
+                        committed.incrementAndGet();
+                    } catch (OptimisticLockingException e) { }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        for (JdbcEventStore store : stores) {
+            store.close();
+        }
+
+        List<? extends Event> savedEvents = eventStore.load(aggregateId);
+        assertEquals(committed.get() * 2, savedEvents.size());
+        for (int i = 0; i < savedEvents.size(); i++) {
+            assertEquals(i + 1, savedEvents.get(i).version);
+        }
+        // The saves that lost the race left no gap in the positions.
+        assertPositions(eventStore, committed.get() * 2);
+    }
+
+    @Test
+    public void readAllStreamsEventsInGlobalOrder() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        eventStore.save(first, Arrays.asList(versioned(InventoryItemCreated.create(first, "Apple", 1), 1)), 0);
+        eventStore.save(second, Arrays.asList(versioned(InventoryItemCreated.create(second, "Pear", 2), 1)), 0);
+        Event last = versioned(InventoryItemRenamed.create(first, "Green apple"), 2);
+        eventStore.save(first, Arrays.asList(last), 1);
+
+        try (EventCursor cursor = eventStore.readAll(1)) {
+            assertEquals("Apple", ((InventoryItemCreated) cursor.next()).name);
+            Event event = cursor.next();
+            assertEquals(second, event.aggregateId);
+            event = cursor.next();
+            assertEquals(last.position, event.position);
+            assertEquals("Green apple", ((InventoryItemRenamed) event).name);
+            assertFalse(cursor.hasNext());
+        }
+    }
+
+    @Test
+    public void multiStreamAppendCommitsAllStreamsOrNone() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        eventStore.save(first, Arrays.asList(versioned(InventoryItemCreated.create(first, "Apple", 10), 1)), 0);
+
+        try {
+            eventStore.save(Arrays.asList(
+                new StreamAppend(second, Arrays.asList(versioned(InventoryItemCreated.create(second, "Pear", 10), 1)), 0),
+                new StreamAppend(first, Arrays.asList(versioned(InventoryItemCheckedOut.create(first, 5), 1)), 0)));
+            Assert.fail("Should have raised OptimisticLockingException");
+        } catch (OptimisticLockingException e) { }
+        assertEquals(0, eventStore.load(second).size());
+
+        Event checkedOut = versioned(InventoryItemCheckedOut.create(first, 5), 2);
+        Event created = versioned(InventoryItemCreated.create(second, "Pear", 5), 1);
+        eventStore.save(Arrays.asList(
+            new StreamAppend(first, Arrays.asList(checkedOut), 1),
+            new StreamAppend(second, Arrays.asList(created), 0)));
+        assertEquals(2, eventStore.load(first).size());
+        assertEquals(created.position, eventStore.load(second).get(0).position);
+        verify(publisher).publish(first, checkedOut);
+        verify(publisher).publish(second, created);
+    }
+
+    @Test
+    public void failedSaveLeavesNothingBehindForTheNextOne() {
+        UUID failed = UUID.randomUUID();
+        UUID next = UUID.randomUUID();
+        try {
+            eventStore.save(failed, Arrays.asList(
+                versioned(InventoryItemRenamed.create(failed, "Apple"), 1),
+                versioned(new NameChanged(failed, "Not registered with the codec"), 2)), 0);
+            Assert.fail("Should have failed to encode the second event");
+        } catch (RuntimeException e) { }
+
+        eventStore.save(next, Arrays.asList(versioned(InventoryItemCreated.create(next, "Pear", 1), 1)), 0);
+
+        assertEquals(0, eventStore.load(failed).size());
+        assertEquals(1, eventStore.load(next).size());
+        assertPositions(eventStore, 1);
+    }
+
+    @Test
+    public void positionsFollowOnFromAnExistingLog() throws SQLException {
+        UUID aggregateId = UUID.randomUUID();
+        eventStore.save(aggregateId, Arrays.asList(versioned(InventoryItemCreated.create(aggregateId, "Apple", 1), 1)), 0);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE event_positions");
+        }
+        JdbcEventStore.createSchema(dataSource);
+        JdbcEventStore.createSchema(dataSource);
+
+        Event renamed = versioned(InventoryItemRenamed.create(aggregateId, "Green apple"), 2);
+        eventStore.save(aggregateId, Arrays.asList(renamed), 1);
+
+        assertEquals(2, renamed.position);
+        assertPositions(eventStore, 2);
+    }
+
+    private static void assertPositions(JdbcEventStore eventStore, int count) {
+        try (EventCursor cursor = eventStore.readAll(1)) {
+            for (int position = 1; position <= count; position++) {
+                assertEquals(position, cursor.next().position);
+            }
+            assertFalse(cursor.hasNext());
+        }
+    }
+
+    private static Event versioned(Event event, int version) {
+        event.version = version;
+        return event;
+    }
+}
@@ -0,0 +1,118 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ConcurrentUuidMapTests {
+
+    @Test
+    public void putGetAndRemove() {
+        ConcurrentUuidMap<String> map = new ConcurrentUuidMap<>();
+        UUID id = UUID.randomUUID();
+
+        assertNull(map.get(id));
+        assertNull(map.put(id, "Apple"));
+        assertEquals("Apple", map.put(id, "Pear"));
+        assertEquals("Pear", map.get(id));
+        assertEquals(1, map.size());
+
+        assertEquals("Pear", map.remove(id));
+        assertNull(map.get(id));
+        assertNull(map.remove(id));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void keepsEveryKeyThroughResizesAndRemovals() {
+        ConcurrentUuidMap<Integer> map = new ConcurrentUuidMap<>(16);
+        Map<UUID, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            UUID id = UUID.randomUUID();
+            map.put(id, i);
+            expected.put(id, i);
+        }
+        // Every other key goes, which shifts back the entries probed past it.
+        Iterator<Map.Entry<UUID, Integer>> entries = expected.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<UUID, Integer> entry = entries.next();
+            if (entry.getValue() % 2 == 0) {
+                assertEquals(entry.getValue(), map.remove(entry.getKey()));
+                entries.remove();
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<UUID, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        assertEquals(new HashSet<>(expected.values()), new HashSet<>(map.values()));
+        assertTrue(map.memoryBytes() > 0);
+    }
+
+    @Test
+    public void conditionalOperationsLookAtTheCurrentValue() {
+        ConcurrentUuidMap<String> map = new ConcurrentUuidMap<>();
+        UUID id = UUID.randomUUID();
+        String apple = new String("Apple");
+
+        assertSame(apple, map.computeIfAbsent(id, key -> apple));
+        assertSame(apple, map.computeIfAbsent(id, key -> { throw new IllegalStateException(); }));
+        assertFalse(map.remove(id, new String("Apple")));
+        assertTrue(map.remove(id, apple));
+        assertNull(map.get(id));
+    }
+
+    @Test
+    public void readersNeverSeeAKeyGoMissingWhileWritersResize() throws Exception {
+        ConcurrentUuidMap<UUID> map = new ConcurrentUuidMap<>(16);
+        List<UUID> stable = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            UUID id = UUID.randomUUID();
+            stable.add(id);
+            map.put(id, id);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < 2; w++) {
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < 50_000; i++) {
+                        UUID id = UUID.randomUUID();
+                        map.put(id, id);
+                        if (i % 3 == 0)
+                            map.remove(id);
+                    }
+                }));
+            }
+            Future<Integer> reader = executor.submit(() -> {
+                int missing = 0;
+                while (!done.get()) {
+                    for (UUID id : stable) {
+                        if (!id.equals(map.get(id)))
+                            missing++;
+                    }
+                }
+                return missing;
+            });
+            for (Future<?> writer : writers) {
+                writer.get(30, TimeUnit.SECONDS);
+            }
+            done.set(true);
+
+            assertEquals(0, (int) reader.get(30, TimeUnit.SECONDS));
+            assertEquals(stable.size() + 2 * (50_000 - 16_667), map.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class InMemoryConcurrencyBenchmark {
+
+    private final int savesPerThread = Benchmarks.intProperty("savesPerThread", 100_000);
+
+    @Test
+    public void savesPerSecondOnDistinctAggregates() throws Exception {
+        for (int threads : new int[] { 1, 2, 4, 8, 16 }) {
+            run(String.format("global lock, %d threads", threads), new GloballyLocked(new InMemoryEventStore(new NoopPublisher())), threads);
+            run(String.format("per-stream CAS, %d threads", threads), new InMemoryEventStore(new NoopPublisher()), threads);
+        }
+    }
+
+    private void run(String name, EventStore eventStore, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                UUID aggregateId = UUID.randomUUID();
+                start.await();
+                for (int version = 1; version <= savesPerThread; version++) {
+                    InventoryItemCheckedIn evt = InventoryItemCheckedIn.create(aggregateId, 1);
+                    evt.version = version;
+                    eventStore.save(aggregateId, Collections.singletonList(evt), version - 1);
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long nanos = System.nanoTime() - begin;
+        executor.shutdown();
+        Benchmarks.report(name, (long) threads * savesPerThread, nanos);
+    }
+
+    // What callers had to do before saves were safe on their own.
+    private static final class GloballyLocked implements EventStore {
+        private final EventStore delegate;
+
+        GloballyLocked(EventStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized List<? extends Event> load(UUID aggregateId) {
+            return delegate.load(aggregateId);
+        }
+
+        @Override
+        public synchronized long save(UUID aggregateId, Iterable<? extends Event> newEvents, int expectedVersion) {
+            return delegate.save(aggregateId, newEvents, expectedVersion);
+        }
+
+        @Override
+        public EventCursor readAll(long fromPosition) {
+            return delegate.readAll(fromPosition);
+        }
+    }
+}
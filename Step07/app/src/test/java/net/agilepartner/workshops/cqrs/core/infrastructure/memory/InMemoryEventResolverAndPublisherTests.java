@@ -77,6 +77,27 @@ public class InMemoryEventResolverAndPublisherTests {
         assertTrue(newHandler.wasCalled());
     }
 
+    @Test
+    public void publishEnvelopeDecodesOnlyHandledEvents() {
+        FirstHandler first = new FirstHandler();
+
+        EventResolver resolver = new InMemoryEventResolver();
+        resolver.register(first, NameChanged.class);
+        InMemoryEventPublisher publisher = new InMemoryEventPublisher(resolver);
+
+        UUID aggregateId = UUID.randomUUID();
+        publisher.publish(new EventEnvelope(NewEvent.class, aggregateId, 1, 1) {
+            @Override
+            protected Event decode() {
+                throw new AssertionError("Should not have been decoded");
+            }
+        });
+        assertFalse(first.wasCalled());
+
+        publisher.publish(EventEnvelope.of(new NameChanged(aggregateId, "Super name")));
+        assertTrue(first.wasCalled());
+    }
+
     private class FirstHandler extends TestHandler<NameChanged> {
     }
 
@@ -1,11 +1,12 @@
 package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.verify;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -14,10 +15,16 @@ import org.mockito.Mock;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
 import net.agilepartner.workshops.cqrs.core.EventPublisher;
 import net.agilepartner.workshops.cqrs.core.NameChanged;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
 import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
 import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.core.infrastructure.archive.*;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
 
 @RunWith(SpringRunner.class)
 public class InMemoryEventStoreTests {
@@ -124,4 +131,263 @@ public class InMemoryEventStoreTests {
             Assert.fail("Should have raised OptimisticLockingException");
         } catch (OptimisticLockingException e) { }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readAllStreamsEventsInGlobalOrder() {
+        EventStore eventStore = new InMemoryEventStore(publisher);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        NameChanged evt1 = new NameChanged(first, "first name");
+        evt1.version = 1;
+        NameChanged evt2 = new NameChanged(second, "second name");
+        evt2.version = 1;
+        NameChanged evt3 = new NameChanged(first, "third name");
+        evt3.version = 2;
+
+        List<Event> firstEvents = new ArrayList<>();
+        firstEvents.add(evt1);
+        assertEquals(1, eventStore.save(first, firstEvents, 0));
+        List<Event> secondEvents = new ArrayList<>();
+        secondEvents.add(evt2);
+        assertEquals(2, eventStore.save(second, secondEvents, 0));
+        List<Event> thirdEvents = new ArrayList<>();
+        thirdEvents.add(evt3);
+        assertEquals(3, eventStore.save(first, thirdEvents, 1));
+        assertEquals(0, eventStore.save(second, new ArrayList<>(), 1));
+
+        try (EventCursor cursor = eventStore.readAll(2)) {
+            Event event = cursor.next();
+            assertEquals(2, event.position);
+            assertEquals("second name", ((NameChanged)event).name);
+            event = cursor.next();
+            assertEquals(3, event.position);
+            assertEquals("third name", ((NameChanged)event).name);
+            assertFalse(cursor.hasNext());
+        }
+    }
+
+    @Test
+    public void loadReturnsReadOnlySnapshotOfTheStream() {
+        EventStore eventStore = new InMemoryEventStore(publisher);
+        UUID aggregateId = UUID.randomUUID();
+
+        NameChanged evt1 = new NameChanged(aggregateId, "first name");
+        evt1.version = 1;
+        List<Event> firstEvents = new ArrayList<>();
+        firstEvents.add(evt1);
+        eventStore.save(aggregateId, firstEvents, 0);
+
+        @SuppressWarnings("unchecked")
+        List<Event> loaded = (List<Event>) eventStore.load(aggregateId);
+
+        NameChanged evt2 = new NameChanged(aggregateId, "second name");
+        evt2.version = 2;
+        List<Event> secondEvents = new ArrayList<>();
+        secondEvents.add(evt2);
+        eventStore.save(aggregateId, secondEvents, 1);
+
+        assertEquals(1, loaded.size());
+        assertEquals(2, eventStore.load(aggregateId).size());
+        try {
+            loaded.add(evt2);
+            Assert.fail("Should have raised UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) { }
+    }
+
+    @Test
+    public void loadFromVersionReturnsTheTailOfTheStream() {
+        EventStore eventStore = new InMemoryEventStore(publisher);
+        UUID aggregateId = UUID.randomUUID();
+        List<Event> newEvents = new ArrayList<>();
+        for (int version = 1; version <= 5; version++) {
+            NameChanged evt = new NameChanged(aggregateId, "name " + version);
+            evt.version = version;
+            newEvents.add(evt);
+        }
+        eventStore.save(aggregateId, newEvents, 0);
+
+        List<? extends Event> tail = eventStore.load(aggregateId, 4);
+        assertEquals(2, tail.size());
+        assertEquals(4, tail.get(0).version);
+        assertEquals(5, tail.get(1).version);
+        assertEquals(5, eventStore.load(aggregateId, 0).size());
+        assertEquals(0, eventStore.load(aggregateId, 6).size());
+    }
+
+    @Test
+    public void concurrentSavesOnSameAggregateAreLinearizable() throws Exception {
+        EventStore eventStore = new InMemoryEventStore(new NoopPublisher());
+        UUID contended = UUID.randomUUID();
+        int threads = 8;
+        int attempts = 2_000;
+        AtomicInteger committed = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            UUID own = UUID.randomUUID();
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < attempts; i++) {
+                    int version = eventStore.load(contended).size();
+                    NameChanged evt = new NameChanged(contended, "name " + i);
+                    evt.version = version + 1;
+                    try {
+                        eventStore.save(contended, Collections.singletonList(evt), version);
+                        committed.incrementAndGet();
+                    } catch (OptimisticLockingException e) {
+                        rejected.incrementAndGet();
+                    }
+
+                    NameChanged ownEvt = new NameChanged(own, "name " + i);
+                    ownEvt.version = i + 1;
+                    eventStore.save(own, Collections.singletonList(ownEvt), i);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        List<? extends Event> stream = eventStore.load(contended);
+        assertEquals(committed.get(), stream.size());
+        assertEquals(threads * attempts, committed.get() + rejected.get());
+        for (int i = 0; i < stream.size(); i++) {
+            assertEquals(i + 1, stream.get(i).version);
+        }
+
+        long expectedPosition = 1;
+        try (EventCursor cursor = eventStore.readAll(1)) {
+            while (cursor.hasNext()) {
+                assertEquals(expectedPosition++, cursor.next().position);
+            }
+        }
+        assertEquals(committed.get() + threads * attempts + 1, expectedPosition);
+    }
+
+    @Test
+    public void archivedStreamsStayLoadable() {
+        InMemoryEventStore eventStore = new InMemoryEventStore(publisher, new ColdStorage(new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()))));
+        UUID deactivated = UUID.randomUUID();
+        UUID active = UUID.randomUUID();
+        eventStore.save(deactivated, inventoryEvents(deactivated, true), 0);
+        eventStore.save(active, inventoryEvents(active, false), 0);
+
+        assertEquals(1, eventStore.archive(e -> e instanceof InventoryItemDeactivated));
+        assertEquals(1, eventStore.hotStreams());
+
+        List<? extends Event> archived = eventStore.load(deactivated);
+        assertEquals(3, archived.size());
+        assertEquals("Apple", ((InventoryItemCreated) archived.get(0)).name);
+        assertEquals(3, archived.get(2).position);
+        assertEquals(1, eventStore.load(deactivated, 3).size());
+
+        long expectedPosition = 1;
+        try (EventCursor cursor = eventStore.readAll(1)) {
+            while (cursor.hasNext()) {
+                Event event = cursor.next();
+                assertEquals(expectedPosition++, event.position);
+                assertEquals(expectedPosition <= 4 ? deactivated : active, event.aggregateId);
+            }
+        }
+        assertEquals(6, expectedPosition);
+
+        try {
+            eventStore.save(deactivated, Collections.singletonList(versioned(InventoryItemRenamed.create(deactivated, "Pear"), 3)), 2);
+            Assert.fail("Should have raised OptimisticLockingException");
+        } catch (OptimisticLockingException e) { }
+        eventStore.save(deactivated, Collections.singletonList(versioned(InventoryItemRenamed.create(deactivated, "Pear"), 4)), 3);
+        assertEquals(2, eventStore.hotStreams());
+        assertEquals(4, eventStore.load(deactivated).size());
+        assertEquals(6, eventStore.load(deactivated).get(3).position);
+    }
+
+    @Test
+    public void saveWithTheRightVersionWaitsForTheArchiverInsteadOfFailing() throws Exception {
+        CountDownLatch copying = new CountDownLatch(1);
+        CountDownLatch copied = new CountDownLatch(1);
+        ColdStorage slowColdStorage = new ColdStorage(new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()))) {
+            @Override
+            public synchronized void put(UUID aggregateId, List<? extends Event> stream) {
+                copying.countDown();
+                try {
+                    copied.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.put(aggregateId, stream);
+            }
+        };
+        InMemoryEventStore eventStore = new InMemoryEventStore(publisher, slowColdStorage);
+        UUID deactivated = UUID.randomUUID();
+        eventStore.save(deactivated, inventoryEvents(deactivated, true), 0);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        Future<Integer> archiving = executor.submit(() -> eventStore.archive(e -> e instanceof InventoryItemDeactivated));
+        copying.await();
+        Future<Long> saving = executor.submit(() -> eventStore.save(deactivated, Collections.singletonList(versioned(InventoryItemRenamed.create(deactivated, "Pear"), 4)), 3));
+        try {
+            saving.get(100, TimeUnit.MILLISECONDS);
+            Assert.fail("Should have waited for the archiver");
+        } catch (TimeoutException e) { }
+        copied.countDown();
+
+        assertEquals(1, (int) archiving.get(10, TimeUnit.SECONDS));
+        assertEquals(4, (long) saving.get(10, TimeUnit.SECONDS));
+        assertEquals(4, eventStore.load(deactivated).size());
+        executor.shutdown();
+    }
+
+    @Test
+    public void multiStreamAppendWritesAllStreamsOrNone() {
+        EventStore eventStore = new InMemoryEventStore(publisher);
+        UUID source = UUID.randomUUID();
+        UUID target = UUID.randomUUID();
+        eventStore.save(source, inventoryEvents(source, false), 0);
+        eventStore.save(target, inventoryEvents(target, false), 0);
+
+        try {
+            eventStore.save(Arrays.asList(
+                new StreamAppend(source, Collections.singletonList(versioned(InventoryItemCheckedOut.create(source, 5), 3)), 2),
+                new StreamAppend(target, Collections.singletonList(versioned(InventoryItemCheckedIn.create(target, 5), 3)), 1)));
+            Assert.fail("Should have raised OptimisticLockingException");
+        } catch (OptimisticLockingException e) { }
+        assertEquals(2, eventStore.load(source).size());
+        assertEquals(2, eventStore.load(target).size());
+
+        Event checkedOut = versioned(InventoryItemCheckedOut.create(source, 5), 3);
+        Event checkedIn = versioned(InventoryItemCheckedIn.create(target, 5), 3);
+        eventStore.save(Arrays.asList(
+            new StreamAppend(source, Collections.singletonList(checkedOut), 2),
+            new StreamAppend(target, Collections.singletonList(checkedIn), 2)));
+        assertEquals(3, eventStore.load(source).size());
+        assertEquals(3, eventStore.load(target).size());
+        assertEquals(5, checkedOut.position);
+        assertEquals(6, checkedIn.position);
+        verify(publisher).publish(source, checkedOut);
+        verify(publisher).publish(target, checkedIn);
+
+        // The streams released by the failed and the successful appends take further saves.
+        eventStore.save(source, Collections.singletonList(versioned(InventoryItemCheckedIn.create(source, 1), 4)), 3);
+    }
+
+    private static List<Event> inventoryEvents(UUID aggregateId, boolean deactivate) {
+        List<Event> events = new ArrayList<>();
+        events.add(versioned(InventoryItemCreated.create(aggregateId, "Apple", 10), 1));
+        events.add(versioned(InventoryItemCheckedIn.create(aggregateId, 5), 2));
+        if (deactivate)
+            events.add(versioned(InventoryItemDeactivated.create(aggregateId), 3));
+        return events;
+    }
+
+    private static Event versioned(Event event, int version) {
+        event.version = version;
+        return event;
+    }
+}
@@ -0,0 +1,64 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreAwareRepository;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class LoadAllocationBenchmark {
+
+    private final int streamLength = Benchmarks.intProperty("streamLength", 20_000);
+    private final int iterations = Benchmarks.intProperty("iterations", 200);
+
+    @Test
+    public void allocationPerLoadAndGetById() {
+        EventStore eventStore = new InMemoryEventStore(new NoopPublisher());
+        UUID aggregateId = UUID.randomUUID();
+        List<Event> events = new ArrayList<>();
+        events.add(InventoryItemCreated.create(aggregateId, "Apple", 0));
+        for (int i = 0; i < streamLength - 1; i++) {
+            events.add(i % 2 == 0 ? InventoryItemCheckedIn.create(aggregateId, 2) : InventoryItemCheckedOut.create(aggregateId, 1));
+        }
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).version = i + 1;
+        }
+        eventStore.save(aggregateId, events, 0);
+        EventStoreAwareRepository<InventoryItem> repository = new EventStoreAwareRepository<>(eventStore, id -> new InventoryItem(id));
+
+        measure(String.format("load of %,d events", streamLength), () -> {
+            int count = 0;
+            for (Event e : eventStore.load(aggregateId)) {
+                count += e.version > 0 ? 1 : 0;
+            }
+            if (count != streamLength)
+                throw new IllegalStateException("Unexpected stream length " + count);
+        });
+        measure(String.format("getById of %,d events", streamLength), () -> repository.getById(aggregateId));
+    }
+
+    private void measure(String name, Runnable operation) {
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        long before = allocatedBytes();
+        long nanos = Benchmarks.measure(() -> {
+            for (int i = 0; i < iterations; i++) {
+                operation.run();
+            }
+        });
+        long bytes = allocatedBytes() - before;
+        Benchmarks.report(name, iterations, nanos);
+        Benchmarks.report(name + " allocation", String.format("%,d bytes/op", bytes / iterations));
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
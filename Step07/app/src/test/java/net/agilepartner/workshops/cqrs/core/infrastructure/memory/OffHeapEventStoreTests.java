@@ -0,0 +1,154 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.verify;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+@RunWith(SpringRunner.class)
+public class OffHeapEventStoreTests {
+
+    @Mock
+    EventPublisher publisher;
+
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void saveEventsForNewAggregate() {
+        EventStore eventStore = new OffHeapEventStore(codec, publisher);
+        UUID aggregateId = UUID.randomUUID();
+        InventoryItemCreated evt1 = created(aggregateId, "Apple", 1);
+        InventoryItemCheckedIn evt2 = checkedIn(aggregateId, 5, 2);
+
+        eventStore.save(aggregateId, Arrays.asList(evt1, evt2), 0);
+        List<? extends Event> savedEvents = eventStore.load(aggregateId);
+
+        assertEquals(2, savedEvents.size());
+        assertEquals("Apple", ((InventoryItemCreated) savedEvents.get(0)).name);
+        assertEquals(aggregateId, savedEvents.get(0).aggregateId);
+        assertEquals(2, savedEvents.get(1).version);
+        assertEquals(5, ((InventoryItemCheckedIn) savedEvents.get(1)).quantity);
+        assertEquals(0, eventStore.load(UUID.randomUUID()).size());
+        verify(publisher).publish(aggregateId, evt1);
+        verify(publisher).publish(aggregateId, evt2);
+    }
+
+    @Test
+    public void saveEventsRaisesConcurrencyProblem() {
+        EventStore eventStore = new OffHeapEventStore(codec, publisher);
+        UUID aggregateId = UUID.randomUUID();
+        eventStore.save(aggregateId, Arrays.asList(created(aggregateId, "Apple", 1), checkedIn(aggregateId, 5, 2)), 0);
+
+        try {
+            eventStore.save(aggregateId, Arrays.asList(checkedIn(aggregateId, 1, 2)), 1);
+            Assert.fail("Should have raised OptimisticLockingException");
+        } catch (OptimisticLockingException e) { }
+    }
+
+    @Test
+    public void spansArenasAndStreamsInGlobalOrder() {
+        EventStore eventStore = new OffHeapEventStore(codec, 1024, publisher);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(UUID.randomUUID());
+        }
+        for (int version = 1; version <= 20; version++) {
+            for (UUID id : ids) {
+                eventStore.save(id, Arrays.asList(checkedIn(id, version, version)), version - 1);
+            }
+        }
+
+        for (UUID id : ids) {
+            List<? extends Event> savedEvents = eventStore.load(id);
+            assertEquals(20, savedEvents.size());
+            assertEquals(20, ((InventoryItemCheckedIn) savedEvents.get(19)).quantity);
+            assertEquals(16, eventStore.load(id, 16).get(0).version);
+        }
+
+        try (EventCursor cursor = eventStore.readAll(951)) {
+            for (long position = 951; position <= 1000; position++) {
+                Event event = cursor.next();
+                assertEquals(position, event.position);
+                assertEquals(ids.get((int) ((position - 1) % 50)), event.aggregateId);
+            }
+            assertFalse(cursor.hasNext());
+        }
+    }
+
+    @Test
+    public void multiStreamAppendWritesAllStreamsOrNone() {
+        EventStore eventStore = new OffHeapEventStore(codec, publisher);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        eventStore.save(first, Arrays.asList(created(first, "Apple", 1)), 0);
+
+        try {
+            eventStore.save(Arrays.asList(
+                new StreamAppend(second, Arrays.asList(created(second, "Pear", 1)), 0),
+                new StreamAppend(first, Arrays.asList(checkedIn(first, 5, 1)), 0)));
+            Assert.fail("Should have raised OptimisticLockingException");
+        } catch (OptimisticLockingException e) { }
+        assertEquals(0, eventStore.load(second).size());
+
+        eventStore.save(Arrays.asList(
+            new StreamAppend(second, Arrays.asList(created(second, "Pear", 1), checkedIn(second, 2, 2)), 0),
+            new StreamAppend(first, Arrays.asList(checkedIn(first, 5, 2)), 1)));
+        assertEquals(2, eventStore.load(first).size());
+        assertEquals(2, eventStore.load(second).size());
+        assertEquals(4, eventStore.load(first).get(1).position);
+    }
+
+    // A handler waiting on a load made by another thread would deadlock if it ran under the write lock.
+    @Test
+    public void handlersRunOutsideTheWriteLock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        EventStore[] store = new EventStore[1];
+        List<Integer> loaded = new ArrayList<>();
+        EventPublisher reading = new EventPublisher() {
+            @Override
+            public <T extends Event> void publish(UUID aggregateId, T event) {
+                try {
+                    loaded.add(executor.submit(() -> store[0].load(aggregateId).size()).get(10, TimeUnit.SECONDS));
+                } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        store[0] = new OffHeapEventStore(codec, reading);
+        UUID aggregateId = UUID.randomUUID();
+
+        store[0].save(aggregateId, Arrays.asList(created(aggregateId, "Apple", 1)), 0);
+
+        assertEquals(Arrays.asList(1), loaded);
+        executor.shutdown();
+    }
+
+    private static InventoryItemCreated created(UUID aggregateId, String name, int version) {
+        InventoryItemCreated evt = InventoryItemCreated.create(aggregateId, name, 0);
+        evt.version = version;
+        return evt;
+    }
+
+    private static InventoryItemCheckedIn checkedIn(UUID aggregateId, int quantity, int version) {
+        InventoryItemCheckedIn evt = InventoryItemCheckedIn.create(aggregateId, quantity);
+        evt.version = version;
+        return evt;
+    }
+}
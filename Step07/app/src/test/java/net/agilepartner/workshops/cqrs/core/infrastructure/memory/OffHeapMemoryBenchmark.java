@@ -0,0 +1,71 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.core.infrastructure.codec.*;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class OffHeapMemoryBenchmark {
+
+    private final int maxEvents = Benchmarks.intProperty("maxEvents", 4_000_000);
+    private final int eventsPerAggregate = Benchmarks.intProperty("eventsPerAggregate", 100);
+    private final EventCodec codec = new BinaryEventCodec(InventoryItemEvents.register(new EventTypeRegistry()));
+
+    @Test
+    public void heapAndFullGcPauseByEventCount() {
+        for (int events = maxEvents / 4; events <= maxEvents; events *= 2) {
+            run("InMemoryEventStore", () -> new InMemoryEventStore(new NoopPublisher()), events);
+            run("OffHeapEventStore", () -> new OffHeapEventStore(codec, new NoopPublisher()), events);
+        }
+    }
+
+    private void run(String name, Supplier<EventStore> factory, int events) {
+        long heapBefore = usedHeapAfterGc();
+        long gcBefore = gcMillis();
+        EventStore eventStore = factory.get();
+        int aggregates = events / eventsPerAggregate;
+        for (int a = 0; a < aggregates; a++) {
+            UUID aggregateId = UUID.randomUUID();
+            List<InventoryItemCheckedIn> stream = new ArrayList<>(eventsPerAggregate);
+            for (int version = 1; version <= eventsPerAggregate; version++) {
+                InventoryItemCheckedIn evt = InventoryItemCheckedIn.create(aggregateId, version);
+                evt.version = version;
+                stream.add(evt);
+            }
+            eventStore.save(aggregateId, stream, 0);
+        }
+        long gcDuringFill = gcMillis() - gcBefore;
+
+        long start = System.nanoTime();
+        long heapAfter = usedHeapAfterGc();
+        long fullGcMillis = (System.nanoTime() - start) / 2_000_000;
+        String offHeap = eventStore instanceof OffHeapEventStore ? String.format(", %,d MB off heap", ((OffHeapEventStore) eventStore).offHeapBytes() >> 20) : "";
+        Benchmarks.report(String.format("%s %,d events", name, events),
+            String.format("%,6d MB heap (%,4d B/event)%s, full GC %,5d ms, GC during fill %,6d ms",
+                (heapAfter - heapBefore) >> 20, (heapAfter - heapBefore) / events, offHeap, fullGcMillis, gcDuringFill));
+        if (eventStore.load(UUID.randomUUID()).size() != 0)
+            throw new IllegalStateException();
+    }
+
+    // Two explicit collections; the caller halves the elapsed time to get one full pause.
+    private static long usedHeapAfterGc() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(gc.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,54 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStore;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+public class PartitionedEventStoreBenchmark {
+
+    private final int savesPerThread = Benchmarks.intProperty("savesPerThread", 20_000);
+    private final int threads = Benchmarks.intProperty("threads", 16);
+
+    @Test
+    public void savesPerSecondByPartitionCount() throws Exception {
+        Benchmarks.report("available processors", Integer.toString(Runtime.getRuntime().availableProcessors()));
+        run("InMemoryEventStore", new InMemoryEventStore(new NoopPublisher()));
+        for (int partitions = 1; partitions <= Math.max(8, Runtime.getRuntime().availableProcessors()); partitions *= 2) {
+            try (PartitionedEventStore eventStore = new PartitionedEventStore(partitions, new NoopPublisher())) {
+                run(String.format("%d partitions", partitions), eventStore);
+            }
+        }
+    }
+
+    private void run(String name, EventStore eventStore) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                UUID aggregateId = UUID.randomUUID();
+                start.await();
+                for (int version = 1; version <= savesPerThread; version++) {
+                    InventoryItemCheckedIn evt = InventoryItemCheckedIn.create(aggregateId, 1);
+                    evt.version = version;
+                    eventStore.save(aggregateId, Collections.singletonList(evt), version - 1);
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long nanos = System.nanoTime() - begin;
+        executor.shutdown();
+        Benchmarks.report(String.format("%s, %d writer threads", name, threads), (long) threads * savesPerThread, nanos);
+    }
+}
@@ -0,0 +1,185 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.verify;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import net.agilepartner.workshops.cqrs.app.NoopPublisher;
+import net.agilepartner.workshops.cqrs.core.Event;
+import net.agilepartner.workshops.cqrs.core.EventPublisher;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventCursor;
+import net.agilepartner.workshops.cqrs.core.infrastructure.EventStoreException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.OptimisticLockingException;
+import net.agilepartner.workshops.cqrs.core.infrastructure.StreamAppend;
+import net.agilepartner.workshops.cqrs.domain.*;
+
+@RunWith(SpringRunner.class)
+public class PartitionedEventStoreTests {
+
+    @Mock
+    EventPublisher publisher;
+
+    @Test
+    public void saveEventsForNewAggregate() {
+        try (PartitionedEventStore eventStore = new PartitionedEventStore(4, publisher)) {
+            UUID aggregateId = UUID.randomUUID();
+            Event evt1 = versioned(InventoryItemCreated.create(aggregateId, "Apple", 10), 1);
+            Event evt2 = versioned(InventoryItemCheckedIn.create(aggregateId, 5), 2);
+
+            eventStore.save(aggregateId, Arrays.asList(evt1, evt2), 0);
+            List<? extends Event> savedEvents = eventStore.load(aggregateId);
+
+            assertEquals(2, savedEvents.size());
+            assertEquals("Apple", ((InventoryItemCreated) savedEvents.get(0)).name);
+            assertEquals(1, eventStore.load(aggregateId, 2).size());
+            assertEquals(0, eventStore.load(UUID.randomUUID()).size());
+            verify(publisher).publish(aggregateId, evt1);
+            verify(publisher).publish(aggregateId, evt2);
+        }
+    }
+
+    @Test
+    public void saveEventsRaisesConcurrencyProblem() {
+        try (PartitionedEventStore eventStore = new PartitionedEventStore(4, publisher)) {
+            UUID aggregateId = UUID.randomUUID();
+            eventStore.save(aggregateId, Arrays.asList(versioned(InventoryItemCreated.create(aggregateId, "Apple", 10), 1)), 0);
+
+            try {
+                eventStore.save(aggregateId, Arrays.asList(versioned(InventoryItemCheckedIn.create(aggregateId, 5), 1)), 0);
+                Assert.fail("Should have raised OptimisticLockingException");
+            } catch (OptimisticLockingException e) { }
+            assertEquals(1, eventStore.load(aggregateId).size());
+        }
+    }
+
+    @Test
+    public void concurrentWritersKeepEveryStreamOrderedAndPositionsDense() throws Exception {
+        int writers = 8;
+        int savesPerWriter = 200;
+        try (PartitionedEventStore eventStore = new PartitionedEventStore(4, 16, new NoopPublisher())) {
+            ExecutorService executor = Executors.newFixedThreadPool(writers);
+            List<UUID> aggregates = new ArrayList<>();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                UUID aggregateId = UUID.randomUUID();
+                aggregates.add(aggregateId);
+                futures.add(executor.submit(() -> {
+                    for (int version = 1; version <= savesPerWriter; version++) {
+                        eventStore.save(aggregateId, Collections.singletonList(versioned(InventoryItemCheckedIn.create(aggregateId, 1), version)), version - 1);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+
+            for (UUID aggregateId : aggregates) {
+                List<? extends Event> events = eventStore.load(aggregateId);
+                assertEquals(savesPerWriter, events.size());
+                for (int i = 1; i < events.size(); i++) {
+                    assertEquals(i + 1, events.get(i).version);
+                    Assert.assertTrue(events.get(i).position > events.get(i - 1).position);
+                }
+            }
+            long expected = 1;
+            try (EventCursor cursor = eventStore.readAll(1)) {
+                while (cursor.hasNext()) {
+                    assertEquals(expected++, cursor.next().position);
+                }
+            }
+            assertEquals((long) writers * savesPerWriter + 1, expected);
+        }
+    }
+
+    @Test
+    public void multiStreamAppendAcrossPartitionsIsAllOrNone() {
+        try (PartitionedEventStore eventStore = new PartitionedEventStore(2, publisher)) {
+            UUID first = aggregateInPartition(eventStore, 0);
+            UUID second = aggregateInPartition(eventStore, 1);
+            eventStore.save(first, Arrays.asList(versioned(InventoryItemCreated.create(first, "Apple", 10), 1)), 0);
+
+            try {
+                eventStore.save(Arrays.asList(
+                    new StreamAppend(second, Arrays.asList(versioned(InventoryItemCreated.create(second, "Pear", 10), 1)), 0),
+                    new StreamAppend(first, Arrays.asList(versioned(InventoryItemCheckedOut.create(first, 5), 1)), 0)));
+                Assert.fail("Should have raised OptimisticLockingException");
+            } catch (OptimisticLockingException e) { }
+            assertEquals(0, eventStore.load(second).size());
+
+            eventStore.save(Arrays.asList(
+                new StreamAppend(second, Arrays.asList(versioned(InventoryItemCreated.create(second, "Pear", 10), 1)), 0),
+                new StreamAppend(first, Arrays.asList(versioned(InventoryItemCheckedOut.create(first, 5), 2)), 1)));
+            assertEquals(2, eventStore.load(first).size());
+            assertEquals(1, eventStore.load(second).size());
+
+            // Both streams were released and take further saves from their own partitions.
+            eventStore.save(first, Arrays.asList(versioned(InventoryItemCheckedIn.create(first, 1), 3)), 2);
+            eventStore.save(second, Arrays.asList(versioned(InventoryItemCheckedIn.create(second, 1), 2)), 1);
+        }
+    }
+
+    @Test
+    public void closedStoreRefusesSaves() {
+        PartitionedEventStore eventStore = new PartitionedEventStore(2, publisher);
+        UUID aggregateId = UUID.randomUUID();
+        eventStore.save(aggregateId, Arrays.asList(versioned(InventoryItemCreated.create(aggregateId, "Apple", 10), 1)), 0);
+        eventStore.close();
+
+        try {
+            eventStore.save(aggregateId, Arrays.asList(versioned(InventoryItemCheckedIn.create(aggregateId, 5), 2)), 1);
+            Assert.fail("Should have raised EventStoreException");
+        } catch (EventStoreException e) { }
+        assertEquals(1, eventStore.load(aggregateId).size());
+        try (EventCursor cursor = eventStore.readAll(2)) {
+            assertFalse(cursor.hasNext());
+        }
+    }
+
+    @Test
+    public void handlersCanSaveToTheirOwnPartition() throws Exception {
+        PartitionedEventStore[] store = new PartitionedEventStore[1];
+        UUID aggregateId = UUID.randomUUID();
+        UUID reactionId = UUID.randomUUID();
+        EventPublisher reacting = new EventPublisher() {
+            @Override
+            public <T extends Event> void publish(UUID id, T event) {
+                if (id.equals(aggregateId))
+                    store[0].save(reactionId, Arrays.asList(versioned(InventoryItemCreated.create(reactionId, "Pear", 0), 1)), 0);
+            }
+        };
+        // A single partition holds both streams. Not closed on failure, as close() would wait on a stuck writer.
+        PartitionedEventStore eventStore = new PartitionedEventStore(1, reacting);
+        store[0] = eventStore;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        executor.submit(() -> eventStore.save(aggregateId, Arrays.asList(versioned(InventoryItemCreated.create(aggregateId, "Apple", 10), 1)), 0)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, eventStore.load(reactionId).size());
+        executor.shutdown();
+        eventStore.close();
+    }
+
+    private static UUID aggregateInPartition(PartitionedEventStore eventStore, int partition) {
+        while (true) {
+            UUID aggregateId = UUID.randomUUID();
+            if (Math.floorMod(aggregateId.hashCode(), eventStore.partitionCount()) == partition)
+                return aggregateId;
+        }
+    }
+
+    private static Event versioned(Event event, int version) {
+        event.version = version;
+        return event;
+    }
+}
@@ -0,0 +1,104 @@
+package net.agilepartner.workshops.cqrs.core.infrastructure.memory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import net.agilepartner.workshops.cqrs.Benchmarks;
+
+// Every key maps to the same value, so that the heap measured is the map's own.
+public class UuidMapBenchmark {
+
+    private final int keys = Benchmarks.intProperty("keys", 10_000_000);
+    private final int lookups = Benchmarks.intProperty("lookups", 20_000_000);
+    private final int threads = Benchmarks.intProperty("threads", Runtime.getRuntime().availableProcessors());
+    private final int rounds = Benchmarks.intProperty("rounds", 3);
+    private final long[] mostSigBits = new long[keys];
+    private final long[] leastSigBits = new long[keys];
+    private final Object value = new Object();
+
+    @Test
+    public void memoryAndLookupsAgainstConcurrentHashMap() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < keys; i++) {
+            mostSigBits[i] = random.nextLong();
+            leastSigBits[i] = random.nextLong();
+        }
+
+        concurrentUuidMap();
+        concurrentHashMap();
+    }
+
+    // One method per map, so that the first one is garbage by the time the second one is measured.
+    private void concurrentHashMap() throws Exception {
+        long before = usedHeapAfterGc();
+        ConcurrentHashMap<UUID, Object> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < keys; i++) {
+            map.put(new UUID(mostSigBits[i], leastSigBits[i]), value);
+        }
+        reportMemory("ConcurrentHashMap", usedHeapAfterGc() - before);
+        lookups("ConcurrentHashMap", map::get);
+    }
+
+    private void concurrentUuidMap() throws Exception {
+        long before = usedHeapAfterGc();
+        ConcurrentUuidMap<Object> map = new ConcurrentUuidMap<>();
+        for (int i = 0; i < keys; i++) {
+            map.put(new UUID(mostSigBits[i], leastSigBits[i]), value);
+        }
+        reportMemory("ConcurrentUuidMap", usedHeapAfterGc() - before);
+        lookups("ConcurrentUuidMap", map::get);
+    }
+
+    private void reportMemory(String name, long bytes) {
+        // The key and a reference to the value are the entry's data, the rest is the map's overhead.
+        double perEntry = (double) bytes / keys;
+        Benchmarks.report(String.format("%s %,d keys, heap", name, keys), String.format("%,6d MB, %5.1f B/entry, %5.1f B overhead", bytes >> 20, perEntry, perEntry - 16 - 4));
+    }
+
+    // Random keys, built from their bits on every lookup like a key read off the wire.
+    private void lookups(String name, Function<UUID, Object> map) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                List<Callable<Integer>> tasks = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int seed = round * threads + t + 1;
+                    tasks.add(() -> {
+                        int found = 0;
+                        long x = seed * 0x9E3779B97F4A7C15L;
+                        for (int i = 0; i < lookups / threads; i++) {
+                            x ^= x << 13;
+                            x ^= x >>> 7;
+                            x ^= x << 17;
+                            int k = (int) ((x >>> 33) % keys);
+                            if (map.apply(new UUID(mostSigBits[k], leastSigBits[k])) != null)
+                                found++;
+                        }
+                        return found;
+                    });
+                }
+                long start = System.nanoTime();
+                int found = 0;
+                for (Future<Integer> result : executor.invokeAll(tasks)) {
+                    found += result.get();
+                }
+                long nanos = System.nanoTime() - start;
+                if (found != lookups / threads * threads)
+                    throw new IllegalStateException("Missing keys in " + name);
+                Benchmarks.report(String.format("%s %,d keys, random get, %d threads", name, keys, threads), found, nanos);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}